@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.reactive.config.EnableWebFlux;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.info.Info;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Load tests for the aggregator endpoint, against local stub upstreams so that no network
+ * access is needed. Run them with <code>./mvnw -PloadTest test</code>. Each web stack is
+ * measured in a steady state and while the upstreams keep changing and the aggregate is
+ * refreshed, and the results are printed, with the number of successful and failed
+ * refreshes. A run fails if fewer than <code>loadtest.refreshes</code> (default 2)
+ * refreshes complete, because then the second phase is not measuring refreshes at all.
+ * The size of the run can be changed with system properties:
+ * <code>loadtest.clients</code>, <code>loadtest.seconds</code>,
+ * <code>loadtest.upstreams</code>, <code>loadtest.paths</code>,
+ * <code>loadtest.latency</code> (upstream latency in milliseconds) and
+ * <code>loadtest.errors</code> (fraction of failing upstream requests while refreshing,
+ * default none).
+ */
+public class AggregatorLoadTests {
+
+	private static final int CLIENTS = Integer.getInteger("loadtest.clients", 16);
+
+	private static final Duration DURATION = Duration.ofSeconds(Integer.getInteger("loadtest.seconds", 5));
+
+	private static final int UPSTREAMS = Integer.getInteger("loadtest.upstreams", 4);
+
+	private static final int PATHS = Integer.getInteger("loadtest.paths", 200);
+
+	private static final Duration LATENCY = Duration.ofMillis(Integer.getInteger("loadtest.latency", 20));
+
+	private static final int MIN_REFRESHES = Integer.getInteger("loadtest.refreshes", 2);
+
+	private static final double ERRORS = Double.parseDouble(System.getProperty("loadtest.errors", "0"));
+
+	private final List<StubUpstream> upstreams = new ArrayList<>();
+
+	private OpenApiSnapshots snapshots;
+
+	private AggregatorEndpoint endpoint;
+
+	@BeforeEach
+	public void init() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs();
+		for (int i = 0; i < UPSTREAMS; i++) {
+			StubUpstream upstream = new StubUpstream("service" + i, PATHS).latency(LATENCY).etags(i % 2 == 0);
+			this.upstreams.add(upstream);
+			specs.spec(new Spec(upstream.uri()).prefix("/api" + i));
+		}
+		this.snapshots = new OpenApiSnapshots(
+				new OpenApiAggregator(specs, new OpenAPI().info(new Info().title("Load").version("v0"))));
+		this.snapshots.setDebounce(Duration.ofMillis(10));
+		this.endpoint = new AggregatorEndpoint(this.snapshots, new SnapshotHistory(this.snapshots, 10));
+		this.endpoint.afterPropertiesSet();
+		this.snapshots.getCurrent();
+	}
+
+	@AfterEach
+	public void close() throws Exception {
+		this.snapshots.destroy();
+		this.upstreams.forEach(StubUpstream::close);
+	}
+
+	@Test
+	public void webMvc() throws Exception {
+		AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+		context.register(MvcConfiguration.class);
+		context.addBeanFactoryPostProcessor(beans -> beans.registerSingleton("endpoint", this.endpoint));
+		Tomcat tomcat = new Tomcat();
+		tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+		tomcat.setPort(0);
+		Context servlets = tomcat.addContext("", null);
+		Tomcat.addServlet(servlets, "dispatcher", new DispatcherServlet(context)).setLoadOnStartup(1);
+		servlets.addServletMappingDecoded("/", "dispatcher");
+		tomcat.getConnector();
+		tomcat.start();
+		try {
+			measure("webmvc", tomcat.getConnector().getLocalPort());
+		}
+		finally {
+			tomcat.stop();
+			tomcat.destroy();
+			context.close();
+		}
+	}
+
+	@Test
+	public void webFlux() throws Exception {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.register(FluxConfiguration.class);
+		context.registerBean("endpoint", AggregatorEndpoint.class, () -> this.endpoint);
+		context.refresh();
+		HttpHandler handler = WebHttpHandlerBuilder.applicationContext(context).build();
+		DisposableServer server = HttpServer.create()
+			.host("localhost")
+			.port(0)
+			.handle(new ReactorHttpHandlerAdapter(handler))
+			.bindNow();
+		try {
+			measure("webflux", server.port());
+		}
+		finally {
+			server.disposeNow();
+			context.close();
+		}
+	}
+
+	private void measure(String stack, int port) throws Exception {
+		LoadDriver driver = new LoadDriver(URI.create("http://localhost:" + port + "/v3/api-docs"), CLIENTS);
+		driver.run(Duration.ofSeconds(1));
+		LoadDriver.Result steady = driver.run(DURATION);
+		System.out.println(steady.format(stack, "steady"));
+		// A single failing upstream fails a whole refresh, so errors are only injected if
+		// asked for, and then a failed refresh is retried by the next change
+		this.upstreams.forEach(upstream -> upstream.errorRate(ERRORS));
+		ScheduledExecutorService changes = Executors.newSingleThreadScheduledExecutor();
+		AtomicInteger bumps = new AtomicInteger();
+		// Each refresh cycle has its own future (triggers while one is pending share it)
+		Set<CompletableFuture<OpenApiSnapshot>> cycles = ConcurrentHashMap.newKeySet();
+		changes.scheduleWithFixedDelay(() -> {
+			this.upstreams.get(bumps.getAndIncrement() % this.upstreams.size()).bump();
+			cycles.add(this.snapshots.refresh());
+		}, 0, 250, TimeUnit.MILLISECONDS);
+		LoadDriver.Result refreshing;
+		try {
+			refreshing = driver.run(DURATION);
+		}
+		finally {
+			changes.shutdownNow();
+			this.upstreams.forEach(upstream -> upstream.errorRate(0));
+		}
+		long succeeded = cycles.stream().filter(cycle -> cycle.isDone() && !cycle.isCompletedExceptionally()).count();
+		long failed = cycles.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+		System.out.println(refreshing.format(stack, "refreshing")
+				+ String.format("  %d refreshes, %d failed", succeeded, failed));
+		assertThat(steady.errors()).isZero();
+		assertThat(refreshing.errors()).isZero();
+		assertThat(steady.requests()).isPositive();
+		// Otherwise the refreshing phase is really another steady state
+		assertThat(succeeded).as("successful refreshes").isGreaterThanOrEqualTo(MIN_REFRESHES);
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@EnableWebMvc
+	static class MvcConfiguration {
+
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@EnableWebFlux
+	static class FluxConfiguration {
+
+	}
+
+}
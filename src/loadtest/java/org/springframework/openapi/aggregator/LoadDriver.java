@@ -0,0 +1,273 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * Drives concurrent clients against an HTTP endpoint for a fixed time and measures the
+ * latency, throughput and allocation. Each client alternates between a full request and a
+ * conditional one with the last ETag it saw, like a mix of new and returning clients.
+ */
+class LoadDriver {
+
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	private final URI uri;
+
+	private final int clients;
+
+	LoadDriver(URI uri, int clients) {
+		this.uri = uri;
+		this.clients = clients;
+	}
+
+	/**
+	 * Run the clients for a fixed time.
+	 * @param duration how long to run
+	 * @return the measurements
+	 * @throws InterruptedException if interrupted while waiting for the clients
+	 */
+	Result run(Duration duration) throws InterruptedException {
+		long end = System.nanoTime() + duration.toNanos();
+		List<Worker> workers = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(this.clients);
+		for (int i = 0; i < this.clients; i++) {
+			workers.add(new Worker(end, done));
+		}
+		List<Thread> clientThreads = new ArrayList<>();
+		for (Worker worker : workers) {
+			clientThreads.add(new Thread(worker, "load-client"));
+		}
+		Allocation allocation = new Allocation();
+		long start = System.nanoTime();
+		clientThreads.forEach(Thread::start);
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		for (Thread thread : clientThreads) {
+			thread.join();
+		}
+		return Result.of(workers, elapsed, allocation.stop());
+	}
+
+	private class Worker implements Runnable {
+
+		private final long end;
+
+		private final CountDownLatch done;
+
+		private long[] latencies = new long[1024];
+
+		private int count;
+
+		private int notModified;
+
+		private int errors;
+
+		Worker(long end, CountDownLatch done) {
+			this.end = end;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String etag = null;
+				boolean conditional = false;
+				while (System.nanoTime() < this.end) {
+					HttpRequest.Builder request = HttpRequest.newBuilder(uri).header("Accept", "application/json");
+					if (conditional && etag != null) {
+						request.header("If-None-Match", etag);
+					}
+					long start = System.nanoTime();
+					try {
+						HttpResponse<byte[]> response = client.send(request.build(),
+								HttpResponse.BodyHandlers.ofByteArray());
+						record(System.nanoTime() - start);
+						if (response.statusCode() == 304) {
+							this.notModified++;
+						}
+						else if (response.statusCode() != 200) {
+							this.errors++;
+						}
+						etag = response.headers().firstValue("ETag").orElse(etag);
+					}
+					catch (Exception e) {
+						this.errors++;
+					}
+					conditional = !conditional;
+				}
+			}
+			finally {
+				this.done.countDown();
+			}
+		}
+
+		private void record(long latency) {
+			if (this.count == this.latencies.length) {
+				this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+			}
+			this.latencies[this.count++] = latency;
+		}
+
+	}
+
+	/**
+	 * Counts the bytes allocated by the whole JVM (every thread, including ones that end
+	 * during the run) from the growth of the heap pools between garbage collections, like
+	 * Micrometer's <code>jvm.gc.memory.allocated</code>. Survivor spaces are left out
+	 * because only the collector moves objects there, and the old generation is included
+	 * for objects allocated there directly (e.g. large arrays with G1).
+	 */
+	private static class Allocation implements NotificationListener {
+
+		private final Map<String, Long> after = new HashMap<>();
+
+		private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+		private long allocated;
+
+		Allocation() {
+			synchronized (this) {
+				for (MemoryPoolMXBean pool : pools()) {
+					this.after.put(pool.getName(), pool.getUsage().getUsed());
+				}
+			}
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (collector instanceof NotificationEmitter emitter) {
+					emitter.addNotificationListener(this, null, null);
+					this.emitters.add(emitter);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+			GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+				.getGcInfo();
+			for (Map.Entry<String, Long> entry : this.after.entrySet()) {
+				MemoryUsage before = info.getMemoryUsageBeforeGc().get(entry.getKey());
+				MemoryUsage after = info.getMemoryUsageAfterGc().get(entry.getKey());
+				if (before != null && after != null) {
+					this.allocated += Math.max(0, before.getUsed() - entry.getValue());
+					entry.setValue(after.getUsed());
+				}
+			}
+		}
+
+		long stop() {
+			for (NotificationEmitter emitter : this.emitters) {
+				try {
+					emitter.removeNotificationListener(this);
+				}
+				catch (ListenerNotFoundException e) {
+					// Already gone
+				}
+			}
+			synchronized (this) {
+				for (MemoryPoolMXBean pool : pools()) {
+					this.allocated += Math.max(0, pool.getUsage().getUsed() - this.after.get(pool.getName()));
+				}
+				return this.allocated;
+			}
+		}
+
+		private static List<MemoryPoolMXBean> pools() {
+			return ManagementFactory.getMemoryPoolMXBeans()
+				.stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP && !pool.getName().contains("Survivor"))
+				.toList();
+		}
+
+	}
+
+	/**
+	 * The measurements from a run.
+	 *
+	 * @param requests the number of completed requests
+	 * @param notModified how many of them were a 304
+	 * @param errors the number of failed requests
+	 * @param throughput completed requests per second
+	 * @param p50 median latency in milliseconds
+	 * @param p99 99th percentile latency in milliseconds
+	 * @param allocated bytes allocated per request by the whole JVM (server, upstream
+	 * stubs and clients)
+	 */
+	record Result(int requests, int notModified, int errors, double throughput, double p50, double p99,
+			long allocated) {
+
+		static Result of(List<Worker> workers, long elapsed, long allocated) {
+			int total = 0;
+			int notModified = 0;
+			int errors = 0;
+			for (Worker worker : workers) {
+				total += worker.count;
+				notModified += worker.notModified;
+				errors += worker.errors;
+			}
+			long[] latencies = new long[total];
+			int offset = 0;
+			for (Worker worker : workers) {
+				System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+				offset += worker.count;
+			}
+			Arrays.sort(latencies);
+			return new Result(total, notModified, errors, total * 1e9 / elapsed, percentile(latencies, 0.5),
+					percentile(latencies, 0.99), total == 0 ? 0 : allocated / total);
+		}
+
+		private static double percentile(long[] sorted, double fraction) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+		}
+
+		String format(String stack, String phase) {
+			return String.format("%-8s %-10s %8d req %7d 304 %4d err %9.0f req/s  p50 %7.2f ms  p99 %7.2f ms  %8d B/req",
+					stack, phase, requests, notModified, errors, throughput, p50, p99, allocated);
+		}
+
+	}
+
+}
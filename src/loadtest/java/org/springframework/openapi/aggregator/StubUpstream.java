@@ -0,0 +1,200 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that stands in for an upstream service, serving a synthetic spec of
+ * a given size. Latency, errors and ETag support can be injected, and the spec can be
+ * changed with {@link #bump()} to make refreshes do real work.
+ */
+class StubUpstream implements AutoCloseable {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final String name;
+
+	private final int paths;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger downloads = new AtomicInteger();
+
+	private volatile Duration latency = Duration.ZERO;
+
+	private volatile double errorRate;
+
+	private volatile boolean etags = true;
+
+	private volatile int version;
+
+	private volatile byte[] body;
+
+	StubUpstream(String name, int paths) throws IOException {
+		this.name = name;
+		this.paths = paths;
+		this.body = generate();
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/openapi.json", this::handle);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * Delay every response.
+	 * @param latency the delay
+	 * @return this instance
+	 */
+	StubUpstream latency(Duration latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	/**
+	 * Fail a fraction of the requests with a 500.
+	 * @param errorRate the fraction of requests that fail (0 to 1)
+	 * @return this instance
+	 */
+	StubUpstream errorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/**
+	 * Whether to send an ETag and answer conditional requests with a 304.
+	 * @param etags the flag to set
+	 * @return this instance
+	 */
+	StubUpstream etags(boolean etags) {
+		this.etags = etags;
+		return this;
+	}
+
+	/**
+	 * Change the spec, so the next download has new content (and a new ETag).
+	 */
+	void bump() {
+		this.version++;
+		this.body = generate();
+	}
+
+	String uri() {
+		return "http://localhost:" + this.server.getAddress().getPort() + "/openapi.json";
+	}
+
+	int getRequests() {
+		return this.requests.get();
+	}
+
+	int getDownloads() {
+		return this.downloads.get();
+	}
+
+	int getSize() {
+		return this.body.length;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			this.requests.incrementAndGet();
+			if (!this.latency.isZero()) {
+				Thread.sleep(this.latency.toMillis());
+			}
+			if (ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+			String etag = "\"" + this.name + "-" + this.version + "\"";
+			if (this.etags) {
+				if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					return;
+				}
+				exchange.getResponseHeaders().add("ETag", etag);
+			}
+			byte[] body = this.body;
+			this.downloads.incrementAndGet();
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private byte[] generate() {
+		ObjectNode root = this.mapper.createObjectNode();
+		root.put("openapi", "3.0.1");
+		root.putObject("info").put("title", this.name).put("version", "v" + this.version);
+		ObjectNode paths = root.putObject("paths");
+		ObjectNode schemas = root.putObject("components").putObject("schemas");
+		for (int i = 0; i < this.paths; i++) {
+			String model = "Model" + i;
+			ObjectNode get = paths.putObject("/" + this.name + "/items" + i + "/{id}").putObject("get");
+			get.put("operationId", this.name + "Get" + i);
+			get.put("description", "Version " + this.version);
+			get.putArray("tags").add(this.name);
+			get.putArray("parameters")
+				.addObject()
+				.put("name", "id")
+				.put("in", "path")
+				.put("required", true)
+				.putObject("schema")
+				.put("type", "string");
+			ObjectNode ok = get.putObject("responses").putObject("200").put("description", "OK");
+			ok.putObject("content")
+				.putObject("application/json")
+				.putObject("schema")
+				.put("$ref", "#/components/schemas/" + model);
+			ObjectNode schema = schemas.putObject(model).put("type", "object");
+			ObjectNode properties = schema.putObject("properties");
+			properties.putObject("id").put("type", "string");
+			properties.putObject("name").put("type", "string");
+			properties.putObject("count").put("type", "integer").put("format", "int32");
+			properties.putObject("tags").put("type", "array").putObject("items").put("type", "string");
+		}
+		try {
+			return this.mapper.writeValueAsBytes(root);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable map that keeps its entries in insertion order in a single array, for the
+ * many small maps in an OpenAPI model. Compared to a {@link java.util.LinkedHashMap} it
+ * has no hash table and no entry objects, and lookups are a linear scan, which is cheaper
+ * than hashing for a handful of keys.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+	private final Object[] table;
+
+	CompactMap(Map<? extends K, ? extends V> source) {
+		this.table = new Object[source.size() * 2];
+		int index = 0;
+		for (Map.Entry<? extends K, ? extends V> entry : source.entrySet()) {
+			this.table[index++] = entry.getKey();
+			this.table[index++] = entry.getValue();
+		}
+	}
+
+	@Override
+	public int size() {
+		return this.table.length / 2;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : (V) this.table[index + 1];
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < this.table.length; i += 2) {
+			if (Objects.equals(this.table[i], key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<>() {
+
+			@Override
+			public int size() {
+				return CompactMap.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new Iterator<>() {
+
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return this.index < table.length;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public Map.Entry<K, V> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<K, V> entry = new SimpleImmutableEntry<>((K) table[this.index],
+								(V) table[this.index + 1]);
+						this.index += 2;
+						return entry;
+					}
+
+				};
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import io.swagger.v3.oas.models.Components;
+
+/**
+ * The named maps in {@link Components}, so that code that treats them all the same way
+ * doesn't have to repeat itself for each type.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+enum ComponentType {
+
+	SCHEMAS("schemas", Components::getSchemas, Components::setSchemas),
+
+	RESPONSES("responses", Components::getResponses, Components::setResponses),
+
+	PARAMETERS("parameters", Components::getParameters, Components::setParameters),
+
+	EXAMPLES("examples", Components::getExamples, Components::setExamples),
+
+	REQUEST_BODIES("requestBodies", Components::getRequestBodies, Components::setRequestBodies),
+
+	HEADERS("headers", Components::getHeaders, Components::setHeaders),
+
+	SECURITY_SCHEMES("securitySchemes", Components::getSecuritySchemes, Components::setSecuritySchemes),
+
+	LINKS("links", Components::getLinks, Components::setLinks),
+
+	CALLBACKS("callbacks", Components::getCallbacks, Components::setCallbacks),
+
+	PATH_ITEMS("pathItems", Components::getPathItems, Components::setPathItems);
+
+	private final String key;
+
+	private final Function<Components, Map> getter;
+
+	private final BiConsumer<Components, Map> setter;
+
+	ComponentType(String key, Function<Components, Map> getter, BiConsumer<Components, Map> setter) {
+		this.key = key;
+		this.getter = getter;
+		this.setter = setter;
+	}
+
+	/**
+	 * The name of the map in a spec, e.g. "schemas".
+	 * @return the key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	<T> Map<String, T> get(Components components) {
+		return components == null ? null : this.getter.apply(components);
+	}
+
+	void set(Components components, Map<String, ?> map) {
+		this.setter.accept(components, map);
+	}
+
+	static ComponentType forKey(String key) {
+		for (ComponentType type : values()) {
+			if (type.key.equals(key)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+}
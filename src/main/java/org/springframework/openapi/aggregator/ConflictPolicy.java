@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+/**
+ * What to do when two specs (or a spec and the base) contribute the same path or
+ * component to an aggregate. Paths collide if they are equal after ignoring the names of
+ * path variables, so <code>/users/{id}</code> and <code>/users/{userId}</code> are the
+ * same path. Components only collide if their content is different.
+ */
+public enum ConflictPolicy {
+
+	/**
+	 * Fail the aggregation (a refresh keeps the previous snapshot).
+	 */
+	FAIL,
+
+	/**
+	 * Keep the path or component that was merged first.
+	 */
+	FIRST_WINS,
+
+	/**
+	 * Replace the path or component with the one that was merged last. Paths that only
+	 * differ in the names of their variables are reported as collisions but both are
+	 * kept, as they were before collisions were detected. This is the default.
+	 */
+	LAST_WINS,
+
+	/**
+	 * Merge the operations of colliding paths, so that e.g. one spec can contribute the
+	 * GET and another the POST (last wins for the same method). Path variables of the
+	 * later spec are renamed to match the earlier one. Components are treated as
+	 * {@link #LAST_WINS}.
+	 */
+	MERGE_OPERATIONS,
+
+	/**
+	 * Move the later spec into its own namespace: all its paths are prefixed with
+	 * "/{name}" if any of them collide, and all its schemas with "{name}_" if any of them
+	 * collide (where the name is the spec name, or "spec" and its position). Other
+	 * components are treated as {@link #LAST_WINS}.
+	 */
+	NAMESPACE
+
+}
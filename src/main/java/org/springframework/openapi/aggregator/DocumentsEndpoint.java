@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Serves each upstream spec as a separate document, plus a Swagger UI configuration that
+ * lists them, so that a browser only has to load the spec for the service being viewed.
+ * The documents use the same (rewritten) paths, operation ids and schema names as the
+ * full aggregate. Each spec needs a unique name (specs without one are named after their
+ * position), so duplicates are rejected when the endpoint is created.
+ */
+@RestController
+class DocumentsEndpoint {
+
+	private final OpenApiSnapshots snapshots;
+
+	private final String path;
+
+	public DocumentsEndpoint(OpenApiSnapshots snapshots, OpenApiAggregatorSpecs specs, String path) {
+		this.snapshots = snapshots;
+		this.path = path;
+		validate(specs);
+	}
+
+	private static void validate(OpenApiAggregatorSpecs specs) {
+		Set<String> names = new HashSet<>();
+		for (Map.Entry<Spec, String> entry : specs.getNames().entrySet()) {
+			Spec spec = entry.getKey();
+			String name = entry.getValue();
+			if (!names.add(name)) {
+				throw new IllegalStateException("Duplicate spec name '" + name + "' (from " + spec.resource()
+						+ "): each spec needs a unique name to be served as a separate document");
+			}
+		}
+	}
+
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/swagger-config",
+			produces = { "application/json" })
+	public Map<String, Object> config(UriComponentsBuilder request) {
+		// The builder for the request has the servlet or WebFlux context path
+		String context = request.build().getPath();
+		List<Map<String, String>> urls = new ArrayList<>();
+		for (String name : this.snapshots.getCurrent().getDocuments().keySet()) {
+			Map<String, String> url = new LinkedHashMap<>();
+			url.put("url",
+					UriComponentsBuilder.fromPath(context != null ? context : "")
+						.path(this.path)
+						.pathSegment("specs", name)
+						.build()
+						.encode()
+						.toUriString());
+			url.put("name", name);
+			urls.add(url);
+		}
+		Map<String, Object> config = new LinkedHashMap<>();
+		config.put("urls", urls);
+		return config;
+	}
+
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/specs/{name}", produces = { "application/json" })
+	public ResponseEntity<byte[]> document(@PathVariable String name) {
+		OpenApiSnapshot snapshot = this.snapshots.getCurrent();
+		Spec spec = snapshot.getDocuments().get(name);
+		byte[] bytes = spec == null ? null : snapshot.getBytes(spec);
+		if (bytes == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(bytes);
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+/**
+ * Conditional request support shared by the endpoints that serve specs and snapshots.
+ */
+final class ETags {
+
+	private ETags() {
+	}
+
+	/**
+	 * Whether an If-None-Match header matches an ETag. The header can be a list, and the
+	 * comparison is weak (RFC 9110), so "W/" prefixes are ignored.
+	 * @param header the header value (or null)
+	 * @param etag the current ETag
+	 * @return true if the client already has the current version
+	 */
+	static boolean matches(String header, String etag) {
+		if (header == null) {
+			return false;
+		}
+		String current = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(current)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.v3.core.util.Json;
+
+/**
+ * Index over the JSON form of a snapshot, serving fragments addressed by JSON Pointer.
+ * The tree is parsed once from the cached JSON bytes, and the fragments for the top level
+ * entries, paths and components are serialized (with their ETags) at most once. Also
+ * computes the fingerprints of a snapshot, which do not need the tree.
+ */
+class FragmentIndex {
+
+	/**
+	 * Fingerprint marker for containers whose children are fingerprinted separately.
+	 */
+	static final String CONTAINER = "{}";
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final JsonNode root;
+
+	private final Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+
+	private final Set<String> cacheable;
+
+	private final Runnable grown;
+
+	FragmentIndex(byte[] json) {
+		this(json, fingerprints(json).keySet(), () -> {
+		});
+	}
+
+	/**
+	 * Create an index that caches the fragments for some pointers, and reports when a new
+	 * one is cached, e.g. to an {@link OpenApiHeapBudget}.
+	 * @param json the JSON form of the spec
+	 * @param cacheable the pointers whose fragments can be cached, e.g. the keys of the
+	 * {@link #fingerprints(byte[]) fingerprints}
+	 * @param grown the callback for a new fragment
+	 */
+	FragmentIndex(byte[] json, Set<String> cacheable, Runnable grown) {
+		this.cacheable = cacheable;
+		this.grown = grown;
+		try {
+			this.root = this.mapper.readTree(json);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot index snapshot", e);
+		}
+	}
+
+	/**
+	 * The fragment at a JSON Pointer. Only the fragments for the pointers that the index
+	 * was created with are cached, so requests for arbitrary pointers cannot grow it.
+	 * @param pointer the pointer (e.g. "/components/schemas/Model")
+	 * @return the fragment or null if there is nothing at that location
+	 * @throws IllegalArgumentException if the pointer is not valid
+	 */
+	Fragment get(String pointer) {
+		Fragment fragment = this.fragments.get(pointer);
+		if (fragment != null) {
+			return fragment;
+		}
+		if (!this.cacheable.contains(pointer)) {
+			return compute(pointer);
+		}
+		fragment = this.fragments.computeIfAbsent(pointer, this::compute);
+		if (fragment != null) {
+			this.grown.run();
+		}
+		return fragment;
+	}
+
+	/**
+	 * The raw node at a JSON Pointer.
+	 * @param pointer the pointer
+	 * @return the node (a missing node if there is nothing there)
+	 */
+	JsonNode node(String pointer) {
+		return this.root.at(JsonPointer.compile(pointer));
+	}
+
+	/**
+	 * Content hashes for the top level entries of a spec, with "paths" broken down by
+	 * path (and extension), and "components" by type and name. The containers themselves
+	 * ("/paths", "/components" and "/components/{type}") are included with a
+	 * {@link #CONTAINER} marker so that a comparison can tell whether they exist. Each
+	 * hash is an MD5 of the bytes of the entry in the JSON form, which is found with a
+	 * streaming parser, so no tree is built.
+	 * @param json the JSON form of the spec
+	 * @return a map from JSON Pointer to content hash, in document order
+	 */
+	static Map<String, String> fingerprints(byte[] json) {
+		Map<String, String> result = new LinkedHashMap<>();
+		try (JsonParser parser = Json.mapper().getFactory().createParser(json)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IllegalStateException("Snapshot is not a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.currentName();
+				String pointer = "/" + escape(name);
+				JsonToken value = parser.nextToken();
+				if ("paths".equals(name) && value == JsonToken.START_OBJECT) {
+					result.put(pointer, CONTAINER);
+					fingerprints(pointer, parser, json, result);
+				}
+				else if ("components".equals(name) && value == JsonToken.START_OBJECT) {
+					result.put(pointer, CONTAINER);
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String path = pointer + "/" + escape(parser.currentName());
+						if (parser.nextToken() == JsonToken.START_OBJECT) {
+							result.put(path, CONTAINER);
+							fingerprints(path, parser, json, result);
+						}
+						else {
+							result.put(path, hash(parser, json));
+						}
+					}
+				}
+				else {
+					result.put(pointer, hash(parser, json));
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot fingerprint snapshot", e);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static void fingerprints(String prefix, JsonParser parser, byte[] json, Map<String, String> result)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = prefix + "/" + escape(parser.currentName());
+			parser.nextToken();
+			result.put(key, hash(parser, json));
+		}
+	}
+
+	private static String hash(JsonParser parser, byte[] json) throws IOException {
+		int start = (int) parser.currentTokenLocation().getByteOffset();
+		parser.skipChildren();
+		parser.finishToken();
+		int end = (int) parser.currentLocation().getByteOffset();
+		return DigestUtils.md5DigestAsHex(new ByteArrayInputStream(json, start, end - start));
+	}
+
+	/**
+	 * An estimate of the heap used by the fragments served so far (not counting the tree,
+	 * which is about the size of the model, or the fingerprints, which are shared with
+	 * the {@link SnapshotHistory}).
+	 * @return the estimated size in bytes
+	 */
+	long cached() {
+		long size = 0;
+		for (Fragment fragment : this.fragments.values()) {
+			size += RetainedSize.of(fragment.bytes()) + SnapshotCompactor.stringSize(fragment.etag());
+		}
+		return size;
+	}
+
+	static String escape(String key) {
+		return key.replace("~", "~0").replace("/", "~1");
+	}
+
+	private Fragment compute(String pointer) {
+		JsonNode node = this.root.at(JsonPointer.compile(pointer));
+		if (node.isMissingNode()) {
+			return null;
+		}
+		try {
+			byte[] bytes = this.mapper.writeValueAsBytes(node);
+			return new Fragment(bytes, "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"");
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot serialize " + pointer, e);
+		}
+	}
+
+	/**
+	 * A serialized part of a snapshot.
+	 *
+	 * @param bytes the JSON content
+	 * @param etag a strong ETag for the content
+	 */
+	record Fragment(byte[] bytes, String etag) {
+	}
+
+}
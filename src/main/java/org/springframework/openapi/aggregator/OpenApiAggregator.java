@@ -15,37 +15,102 @@
  */
 package org.springframework.openapi.aggregator;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.SpecCache.Loaded;
+import org.springframework.openapi.aggregator.SpecLimits.SpecLimitException;
+import org.springframework.util.DigestUtils;
 
-import io.swagger.v3.oas.models.Components;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
 import io.swagger.v3.oas.models.OpenAPI;
-import io.swagger.v3.oas.models.Paths;
-import io.swagger.v3.parser.OpenAPIV3Parser;
+import io.swagger.v3.oas.models.SpecVersion;
 
 /**
  * Aggregates OpenAPI specs.
  */
 public class OpenApiAggregator {
 
+	private static final Log logger = LogFactory.getLog(OpenApiAggregator.class);
+
+	/**
+	 * The pool that parallel aggregations prepare their specs in. Reading a spec blocks,
+	 * so it is kept off the common pool, and the threads that are added to compensate for
+	 * blocked readers are capped, so many specs (or tenants) cannot grow it without
+	 * bound. Idle threads die off, so the pool costs nothing between refreshes.
+	 */
+	private static final ForkJoinPool POOL = pool();
+
 	private final OpenApiAggregatorSpecs specs;
 
 	private final OpenAPI base;
 
+	private final SpecCache cache;
+
+	private Duration maxAge;
+
 	/**
-	 * Create a new {@link OpenApiAggregator} instance.
+	 * Create a new {@link OpenApiAggregator} instance that reads the specs afresh on
+	 * every aggregation and keeps nothing in between.
 	 * @param specs the specs to aggregate
 	 * @param base the base to merge with, e.g. for common info
 	 */
 	public OpenApiAggregator(OpenApiAggregatorSpecs specs, OpenAPI base) {
+		this(specs, base, null);
+	}
+
+	/**
+	 * Create a new {@link OpenApiAggregator} instance.
+	 * @param specs the specs to aggregate
+	 * @param base the base to merge with, e.g. for common info
+	 * @param cache the cache to fetch the upstream specs through (null to read them
+	 * afresh every time)
+	 */
+	public OpenApiAggregator(OpenApiAggregatorSpecs specs, OpenAPI base, SpecCache cache) {
 		this.specs = specs;
 		this.base = base;
+		this.cache = cache;
+	}
+
+	/**
+	 * Set how long the cached content of an upstream can be used without revalidating it
+	 * when this aggregator reads it, instead of the maximum age of the cache itself.
+	 * @param maxAge the maximum age (null to use the one of the cache)
+	 */
+	void setMaxAge(Duration maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Make the next aggregation revalidate all the specs with their upstreams, even if
+	 * the cache normally leaves that to a {@link SpecPoller}.
+	 */
+	void expire() {
+		if (cache == null) {
+			return;
+		}
+		for (Spec spec : specs.getSpecs()) {
+			cache.expire(spec);
+		}
 	}
 
 	/**
@@ -53,69 +118,249 @@ public class OpenApiAggregator {
 	 * @return the aggregated spec
 	 */
 	public OpenAPI aggregate() {
-		OpenAPI api = new OpenAPI();
-		merge(api, base);
-		api.setInfo(base.getInfo());
-		if (base.getTags() != null) {
-			api.setTags(base.getTags());
+		return snapshot().getApi();
+	}
+
+	/**
+	 * Aggregate the specs, keeping track of which spec contributed which paths and
+	 * components.
+	 * @return a snapshot of the aggregated spec
+	 */
+	public OpenApiSnapshot snapshot() {
+		Aggregation aggregation = new Aggregation();
+		Iterator<Prepared> iterator = prepare();
+		try {
+			while (iterator.hasNext()) {
+				aggregation.add(iterator.next());
+			}
+		}
+		finally {
+			if (iterator instanceof Parallel parallel) {
+				// Nothing is left to cancel unless reading or merging a spec failed
+				parallel.cancel();
+			}
+		}
+		return aggregation.snapshot();
+	}
+
+	/**
+	 * Read and filter the specs, in parallel if the specs say so. Either way the results
+	 * come in the same order as the specs, so merging them one at a time gives the same
+	 * result (including which spec wins a collision). Sequentially each spec is only read
+	 * when the previous one has been merged, and in parallel each result is dropped as
+	 * soon as it has been handed out, so a spec can be garbage collected once it is
+	 * merged.
+	 */
+	private Iterator<Prepared> prepare() {
+		if (!specs.isParallel() || specs.getSpecs().size() < 2) {
+			Iterator<Spec> iterator = specs.getSpecs().iterator();
+			return new Iterator<>() {
+
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Prepared next() {
+					return prepare(iterator.next());
+				}
+
+			};
 		}
-		Set<OpenAPI> apis = new LinkedHashSet<>();
+		List<ForkJoinTask<Prepared>> tasks = new ArrayList<>();
 		for (Spec spec : specs.getSpecs()) {
-			OpenAPI item;
-			try {
-				// Blocking...
-				OpenAPIV3Parser parser = new OpenAPIV3Parser();
-				item = parser.read(spec.resource().getURL().toString());
+			tasks.add(POOL.submit(() -> prepare(spec)));
+		}
+		return new Parallel(tasks);
+	}
+
+	private Prepared prepare(Spec spec) {
+		Loaded loaded;
+		try {
+			loaded = read(spec);
+		}
+		catch (SpecLimitException e) {
+			return new Prepared(spec, null, null, null, e.getMessage());
+		}
+		OpenAPI item = loaded.api();
+		// The unfiltered item is only needed (and kept) for a processor that retains them
+		OpenAPI retained = specs.isRetainItems() ? item : null;
+		// Item might be mutated here. Maybe take a defensive clone copy?
+		return new Prepared(spec, retained, spec.filter().apply(item), loaded.digest(), null);
+	}
+
+	private Loaded read(Spec spec) {
+		if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+			// Blocking...
+			return load(spec);
+		}
+		// Blocking, so let the pool compensate with another thread in the meantime
+		Reader reader = new Reader(spec);
+		try {
+			ForkJoinPool.managedBlock(reader);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading " + spec.resource(), e);
+		}
+		return reader.item;
+	}
+
+	private Loaded load(Spec spec) {
+		if (cache == null) {
+			return SpecCache.loadUncached(spec);
+		}
+		return maxAge != null ? cache.load(spec, maxAge) : cache.load(spec);
+	}
+
+	private static ForkJoinPool pool() {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		return new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("openapi-aggregate-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		}, null, false, 0, 2 * parallelism, 1, pool -> true, 60, TimeUnit.SECONDS);
+	}
+
+	private record Prepared(Spec spec, OpenAPI item, OpenAPI filtered, String digest, String rejected) {
+	}
+
+	/**
+	 * The state of a single aggregation, as the prepared specs are merged one at a time.
+	 * It also records the digests of the upstream content that went into it (see
+	 * {@link OpenApiSnapshot#getSource()}).
+	 */
+	private class Aggregation {
+
+		private final OpenAPI api = new OpenAPI();
+
+		private final SpecMerger merger = new SpecMerger(this.api, specs.getConflictPolicy());
+
+		private final Set<OpenAPI> apis = specs.isRetainItems() ? new LinkedHashSet<>() : Collections.emptySet();
+
+		private final Map<Spec, String> rejected = new LinkedHashMap<>();
+
+		private final StringBuilder source = new StringBuilder();
+
+		Aggregation() {
+			// The base is a shared bean and the snapshot is compacted in place, so
+			// merge a copy rather than the objects that the base owns
+			OpenAPI base = copy(OpenApiAggregator.this.base);
+			if (base.getSpecVersion() == SpecVersion.V31) {
+				// So that the aggregate is served with the 3.1 fields of the upstreams
+				this.api.specVersion(SpecVersion.V31).openapi(base.getOpenapi());
 			}
-			catch (Exception e) {
-				throw new IllegalStateException(e);
+			this.merger.merge(base, null);
+			this.api.setInfo(base.getInfo());
+			if (base.getTags() != null) {
+				this.api.setTags(base.getTags());
 			}
-			apis.add(item);
-			// Item might be mutated here. Maybe take a defensive clone copy?
-			merge(api, spec.filter().apply(item));
 		}
-		return specs.getProcessor().apply(api, apis);
-	}
 
-	private void merge(OpenAPI api, OpenAPI item) {
-		Paths paths = item.getPaths();
-		if (paths != null) {
-			if (api.getPaths() == null) {
-				api.paths(new Paths());
+		void add(Prepared prepared) {
+			Spec spec = prepared.spec();
+			if (prepared.rejected() != null) {
+				// Leave out the runaway upstream, not the whole aggregate
+				logger.warn(prepared.rejected());
+				this.rejected.put(spec, prepared.rejected());
+				this.source.append("rejected:").append(prepared.rejected()).append('\n');
+				return;
 			}
-			for (String path : paths.keySet()) {
-				api.getPaths().addPathItem(path, paths.get(path));
+			this.source.append(prepared.digest()).append('\n');
+			if (specs.isRetainItems()) {
+				this.apis.add(prepared.item());
 			}
-			merge(paths.getExtensions(), api.getPaths()::getExtensions, api.getPaths()::setExtensions);
-		}
-		Components target = api.getComponents();
-		if (target == null) {
-			target = new Components();
-			api.components(target);
-		}
-		Components source = item.getComponents();
-		if (source != null) {
-			merge(source.getCallbacks(), target::getCallbacks, target::setCallbacks);
-			merge(source.getExamples(), target::getExamples, target::setExamples);
-			merge(source.getExtensions(), target::getExtensions, target::setExtensions);
-			merge(source.getHeaders(), target::getHeaders, target::setHeaders);
-			merge(source.getLinks(), target::getLinks, target::setLinks);
-			merge(source.getParameters(), target::getParameters, target::setParameters);
-			merge(source.getPathItems(), target::getPathItems, target::setPathItems);
-			merge(source.getRequestBodies(), target::getRequestBodies, target::setRequestBodies);
-			merge(source.getResponses(), target::getResponses, target::setResponses);
-			merge(source.getSchemas(), target::getSchemas, target::setSchemas);
-			merge(source.getSecuritySchemes(), target::getSecuritySchemes, target::setSecuritySchemes);
-		}
-	}
-
-	private <T> void merge(Map<String, T> source, Supplier<Map<String, T>> getter, Consumer<Map<String, T>> setter) {
-		if (source != null) {
-			if (getter.get() == null) {
-				setter.accept(new HashMap<>());
+			OpenAPI item = this.merger.merge(prepared.filtered(), spec);
+			specs.getItemProcessor().process(this.api, spec, item);
+		}
+
+		OpenApiSnapshot snapshot() {
+			String source = DigestUtils.md5DigestAsHex(this.source.toString().getBytes(StandardCharsets.UTF_8));
+			return new OpenApiSnapshot(specs.getProcessor().apply(this.api, this.apis), this.merger.getContributions(),
+					this.merger.getCollisions(), this.rejected, System.currentTimeMillis(), specs.getNames(), source);
+		}
+
+	}
+
+	/**
+	 * Make a deep copy of a model, so that it does not share any objects with the
+	 * original.
+	 * @param api the model to copy
+	 * @return the copy
+	 */
+	static OpenAPI copy(OpenAPI api) {
+		ObjectMapper mapper = api.getSpecVersion() == SpecVersion.V31 ? Json31.mapper() : Json.mapper();
+		OpenAPI copy = mapper.convertValue(api, OpenAPI.class);
+		copy.setSpecVersion(api.getSpecVersion());
+		return copy;
+	}
+
+	/**
+	 * The results of specs that are prepared in parallel, in the order of the specs.
+	 */
+	private static class Parallel implements Iterator<Prepared> {
+
+		private final List<ForkJoinTask<Prepared>> tasks;
+
+		private int index;
+
+		Parallel(List<ForkJoinTask<Prepared>> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.index < this.tasks.size();
+		}
+
+		@Override
+		public Prepared next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ForkJoinTask<Prepared> task = this.tasks.set(this.index++, null);
+			return task.join();
+		}
+
+		/**
+		 * Cancel the tasks that have not been handed out, so that an aggregation that
+		 * failed does not keep reading upstreams. Tasks that have started reading finish
+		 * on their own, since a blocking read cannot be interrupted.
+		 */
+		void cancel() {
+			for (int i = this.index; i < this.tasks.size(); i++) {
+				ForkJoinTask<Prepared> task = this.tasks.set(i, null);
+				if (task != null) {
+					task.cancel(false);
+				}
 			}
-			getter.get().putAll(source);
 		}
+
+	}
+
+	private class Reader implements ForkJoinPool.ManagedBlocker {
+
+		private final Spec spec;
+
+		private Loaded item;
+
+		Reader(Spec spec) {
+			this.spec = spec;
+		}
+
+		@Override
+		public boolean block() {
+			this.item = load(this.spec);
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return this.item != null;
+		}
+
 	}
 
 }
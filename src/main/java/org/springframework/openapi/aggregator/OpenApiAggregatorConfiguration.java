@@ -15,25 +15,57 @@
  */
 package org.springframework.openapi.aggregator;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
 import org.springdoc.core.configuration.SpringDocConfiguration;
 import org.springdoc.core.service.OpenAPIService;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.openapi.aggregator.FragmentIndex.Fragment;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Encoding;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import io.swagger.v3.core.util.Json;
 import io.swagger.v3.oas.models.OpenAPI;
 
@@ -43,32 +75,260 @@ import io.swagger.v3.oas.models.OpenAPI;
 @Configuration
 @ConditionalOnBean(OpenApiAggregatorSpecs.class)
 @AutoConfigureBefore(SpringDocConfiguration.class)
-@Import(SpringDocSpecConfiguration.class)
+@Import({ SpringDocSpecConfiguration.class, OpenApiMetricsConfiguration.class })
+@ImportRuntimeHints(OpenApiAggregatorRuntimeHints.class)
 @EnableConfigurationProperties(OpenApiAggregatorProperties.class)
 public class OpenApiAggregatorConfiguration {
 
+	/**
+	 * Create a new {@link SpecCache} instance to fetch upstream specs through.
+	 * @param properties the configuration, e.g. for polling
+	 * @return a cache for upstream specs
+	 */
+	@Bean
+	public SpecCache specCache(OpenApiAggregatorProperties properties) {
+		SpecCache cache = new SpecCache();
+		cache.setTimeout(properties.getAggregator().getTimeout());
+		// If the poller is running it keeps the cache fresh, and a triggered refresh
+		// expires it
+		cache.setRevalidate(!properties.getAggregator().getPolling().isEnabled());
+		return cache;
+	}
+
 	/**
 	 * Create a new {@link OpenApiAggregator} instance.
 	 * @param specs the specs to use
 	 * @param properties the configuration, e.g. for common info
+	 * @param cache the cache for upstream specs
 	 * @return an aggregator
 	 */
 	@Bean
-	public OpenApiAggregator openApiAggregator(OpenApiAggregatorSpecs specs, OpenApiAggregatorProperties properties) {
-		return new OpenApiAggregator(specs, properties.getBase());
+	public OpenApiAggregator openApiAggregator(OpenApiAggregatorSpecs specs, OpenApiAggregatorProperties properties,
+			SpecCache cache) {
+		return new OpenApiAggregator(specs, properties.getBase(), cache);
+	}
+
+	/**
+	 * Create a new {@link OpenApiSnapshots} instance to hold the current aggregated spec
+	 * and refresh it on demand.
+	 * @param aggregator the aggregator to use
+	 * @param properties the configuration, e.g. for refresh debouncing
+	 * @param peers the other instances to share snapshots with if there are any
+	 * @return the snapshot holder
+	 */
+	@Bean
+	public OpenApiSnapshots openApiSnapshots(OpenApiAggregator aggregator, OpenApiAggregatorProperties properties,
+			ObjectProvider<OpenApiPeers> peers) {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		peers.ifAvailable(snapshots::setPeers);
+		snapshots.setDebounce(properties.getAggregator().getRefresh().getDebounce());
+		snapshots.setMaxWait(properties.getAggregator().getRefresh().getMaxWait());
+		if (properties.getAggregator().getRefresh().isValidate()) {
+			snapshots.setValidator(new OpenApiValidator());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Create a new {@link OpenApiHeapBudget} instance to account for the heap used by the
+	 * aggregator, and keep it within the configured budget if there is one.
+	 * @param properties the configuration with the budget
+	 * @param snapshots the main snapshots
+	 * @param cache the cache for upstream specs
+	 * @param tenants the tenants if there are any
+	 * @return the budget
+	 */
+	@Bean
+	public OpenApiHeapBudget openApiHeapBudget(OpenApiAggregatorProperties properties, OpenApiSnapshots snapshots,
+			SpecCache cache, ObjectProvider<OpenApiTenants> tenants) {
+		DataSize max = properties.getAggregator().getHeapBudget();
+		OpenApiHeapBudget budget = new OpenApiHeapBudget(max == null ? Long.MAX_VALUE : max.toBytes());
+		budget.register(snapshots);
+		budget.register(cache);
+		tenants.ifAvailable(budget::register);
+		return budget;
+	}
+
+	/**
+	 * Create a new {@link OpenApiPeers} instance to get snapshots from other instances of
+	 * the gateway.
+	 * @param specs the specs that are aggregated
+	 * @param properties the configuration with the peers
+	 * @return the peers
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator.peers", name = "enabled")
+	public OpenApiPeers openApiPeers(OpenApiAggregatorSpecs specs, OpenApiAggregatorProperties properties) {
+		OpenApiAggregatorProperties.Peers config = properties.getAggregator().getPeers();
+		OpenApiPeers peers = new OpenApiPeers(specs, config.getUrls());
+		peers.setRole(config.getRole());
+		peers.setInterval(config.getInterval());
+		peers.setTimeout(config.getTimeout());
+		peers.setVersion(config.getVersion() != null ? config.getVersion() : version(properties));
+		return peers;
+	}
+
+	private static String version(OpenApiAggregatorProperties properties) {
+		// Everything that the declarative specs are compiled from, and the base
+		try {
+			return DigestUtils.md5DigestAsHex(Json.mapper()
+				.writeValueAsBytes(List.of(properties.getAggregator().getSpecs(), properties.getBase())));
+		}
+		catch (JsonProcessingException e) {
+			throw new IllegalStateException("Cannot compute configuration version", e);
+		}
+	}
+
+	/**
+	 * Create a new {@link PeerEndpoint} instance to share the current snapshot with other
+	 * instances of the gateway.
+	 * @param snapshots the snapshots to share
+	 * @param peers the peers, for the format of the snapshots
+	 * @return an endpoint that can be used in WebMVC or WebFlux
+	 */
+	@Bean
+	@ConditionalOnWebApplication
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator.peers", name = "enabled")
+	PeerEndpoint peerEndpoint(OpenApiSnapshots snapshots, OpenApiPeers peers) {
+		return new PeerEndpoint(snapshots, peers);
+	}
+
+	/**
+	 * Create a new {@link SpecFileWatcher} instance to refresh when spec files change.
+	 * @param specs the specs to watch
+	 * @param snapshots the snapshots to refresh
+	 * @return a file watcher
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator.refresh", name = "watch-files")
+	SpecFileWatcher specFileWatcher(OpenApiAggregatorSpecs specs, OpenApiSnapshots snapshots) {
+		return new SpecFileWatcher(specs, snapshots);
+	}
+
+	/**
+	 * Create a new {@link SpecPoller} instance to poll upstream specs for changes.
+	 * @param specs the specs to poll
+	 * @param cache the cache for upstream specs
+	 * @param snapshots the snapshots to refresh
+	 * @param properties the configuration, e.g. for polling intervals
+	 * @return a poller
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator.polling", name = "enabled")
+	public SpecPoller specPoller(OpenApiAggregatorSpecs specs, SpecCache cache, OpenApiSnapshots snapshots,
+			OpenApiAggregatorProperties properties) {
+		OpenApiAggregatorProperties.Polling polling = properties.getAggregator().getPolling();
+		SpecPoller poller = new SpecPoller(specs, cache, snapshots);
+		poller.setMinInterval(polling.getMinInterval());
+		poller.setMaxInterval(polling.getMaxInterval());
+		poller.setJitter(polling.getJitter());
+		poller.setConcurrency(polling.getConcurrency());
+		return poller;
 	}
 
 	/**
 	 * Create a new {@link AggregatorEndpoint} instance to expose the aggregated spec over
 	 * HTTP.
-	 * @param aggregator the aggregator to use
+	 * @param snapshots the snapshots to serve
+	 * @param properties the configuration, e.g. for the size of the history
+	 * @param tenants the tenants to serve by host name if there are any
+	 * @param budget the budget to account for the history in
 	 * @return an endpoint that can be used in WebMVC or WebFlux
 	 */
 	@Bean
 	@ConditionalOnWebApplication
 	@ConditionalOnMissingBean(type = "org.springdoc.core.service.OpenAPIService")
-	public AggregatorEndpoint aggregatorEndpoint(OpenApiAggregator aggregator) {
-		return new AggregatorEndpoint(aggregator);
+	public AggregatorEndpoint aggregatorEndpoint(OpenApiSnapshots snapshots, OpenApiAggregatorProperties properties,
+			ObjectProvider<OpenApiTenants> tenants, OpenApiHeapBudget budget) {
+		AggregatorEndpoint endpoint = new AggregatorEndpoint(snapshots,
+				new SnapshotHistory(snapshots, properties.getAggregator().getHistory()), tenants.getIfAvailable());
+		endpoint.setBudget(budget);
+		return endpoint;
+	}
+
+	/**
+	 * Create a new {@link OpenApiTenants} instance from the tenants in the configuration.
+	 * Each tenant is a view of the specs, and they all share the same cache, and are
+	 * refreshed whenever the main aggregate changes.
+	 * @param specs the specs that tenants select from
+	 * @param properties the configuration with the tenants
+	 * @param cache the cache for upstream specs
+	 * @param snapshots the main snapshots
+	 * @return the tenants
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	@Conditional(OnTenantsCondition.class)
+	public OpenApiTenants openApiTenants(OpenApiAggregatorSpecs specs, OpenApiAggregatorProperties properties,
+			SpecCache cache, OpenApiSnapshots snapshots) {
+		OpenApiAggregatorProperties.Refresh refresh = properties.getAggregator().getRefresh();
+		OpenApiTenants tenants = new OpenApiTenants(cache, properties.getBase());
+		tenants.setDebounce(refresh.getDebounce());
+		tenants.setMaxWait(refresh.getMaxWait());
+		if (refresh.isValidate()) {
+			tenants.setValidator(new OpenApiValidator());
+		}
+		properties.getAggregator().getTenants().forEach((name, tenant) -> {
+			OpenApiAggregatorSpecs view = new OpenApiAggregatorSpecs().conflicts(specs.getConflictPolicy())
+				.parallel(specs.isParallel())
+				.itemProcessor(specs.getItemProcessor());
+			if (specs.isRetainItems()) {
+				view.processor(specs.getProcessor());
+			}
+			for (Spec spec : specs.getSpecs()) {
+				if (tenant.getSpecs().isEmpty() || tenant.getSpecs().contains(spec.name())) {
+					view.spec(spec);
+				}
+			}
+			tenants.tenant(name, view, tenant.getHosts().toArray(new String[0]));
+		});
+		snapshots.addListener(snapshot -> tenants.refresh());
+		return tenants;
+	}
+
+	/**
+	 * Create a new {@link DocumentsEndpoint} instance to expose each upstream spec as a
+	 * separate document.
+	 * @param snapshots the snapshots to serve
+	 * @param specs the specs, which need unique names
+	 * @param properties the configuration, e.g. for the HTTP path
+	 * @return an endpoint that can be used in WebMVC or WebFlux
+	 */
+	@Bean
+	@ConditionalOnWebApplication
+	@ConditionalOnMissingBean(type = "org.springdoc.core.service.OpenAPIService")
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator", name = "documents")
+	DocumentsEndpoint documentsEndpoint(OpenApiSnapshots snapshots, OpenApiAggregatorSpecs specs,
+			OpenApiAggregatorProperties properties) {
+		return new DocumentsEndpoint(snapshots, specs, properties.getAggregator().getPath());
+	}
+
+	/**
+	 * Create a new {@link RefreshEndpoint} instance so that refreshes can be triggered
+	 * over HTTP.
+	 * @param snapshots the snapshots to refresh
+	 * @return a webhook endpoint that can be used in WebMVC or WebFlux
+	 */
+	@Bean
+	@ConditionalOnWebApplication
+	@ConditionalOnProperty(prefix = "spring.openapi.aggregator.refresh", name = "webhook")
+	RefreshEndpoint refreshEndpoint(OpenApiSnapshots snapshots) {
+		return new RefreshEndpoint(snapshots);
+	}
+
+}
+
+class OnTenantsCondition extends SpringBootCondition {
+
+	@Override
+	public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+		boolean tenants = Binder.get(context.getEnvironment())
+			.bind("spring.openapi.aggregator.tenants",
+					Bindable.mapOf(String.class, OpenApiAggregatorProperties.Tenant.class))
+			.map(map -> !map.isEmpty())
+			.orElse(false);
+		return tenants ? ConditionOutcome.match("Tenants are configured")
+				: ConditionOutcome.noMatch("No tenants are configured");
 	}
 
 }
@@ -78,45 +338,229 @@ public class OpenApiAggregatorConfiguration {
 class SpringDocSpecConfiguration {
 
 	/**
-	 * Create a new {@link OpenAPI} instance to inject into the SpringDoc spec generator.
-	 * @param aggregator the aggregator to use
-	 * @return an OpenAPI spec generated from the endpoints in this application
+	 * Create a new {@link SpringDocRefresher} to merge the current snapshot into the
+	 * specs that SpringDoc generates.
+	 * @param snapshots the snapshots to merge and listen to
+	 * @param services the SpringDoc service that caches generated documents
+	 * @return a refresher
+	 */
+	@Bean
+	SpringDocRefresher springDocRefresher(OpenApiSnapshots snapshots, ObjectProvider<OpenAPIService> services) {
+		return new SpringDocRefresher(snapshots, services);
+	}
+
+}
+
+@Configuration
+@ConditionalOnClass(MeterBinder.class)
+class OpenApiMetricsConfiguration {
+
+	/**
+	 * Create a new {@link MeterBinder} for the estimated heap used by the aggregator: by
+	 * kind of data, by spec contribution and by cached encoding of the main aggregate.
+	 * The gauges never trigger an aggregation.
+	 * @param budget the budget that keeps the accounts
+	 * @param snapshots the main snapshots
+	 * @param specs the specs that are aggregated
+	 * @return a meter binder
 	 */
 	@Bean
-	OpenAPI openAPIBaseSpec(OpenApiAggregator aggregator) {
-		return aggregator.aggregate();
+	MeterBinder openApiHeapMetrics(OpenApiHeapBudget budget, OpenApiSnapshots snapshots, OpenApiAggregatorSpecs specs) {
+		return registry -> {
+			Map<String, ToDoubleFunction<OpenApiHeapBudget.Usage>> kinds = Map.of("models",
+					OpenApiHeapBudget.Usage::models, "encodings", OpenApiHeapBudget.Usage::encodings, "views",
+					OpenApiHeapBudget.Usage::views, "history", OpenApiHeapBudget.Usage::history, "upstream",
+					OpenApiHeapBudget.Usage::upstream);
+			kinds.forEach((kind, value) -> Gauge
+				.builder("openapi.aggregator.heap", budget, item -> value.applyAsDouble(item.getUsage()))
+				.tag("kind", kind)
+				.baseUnit("bytes")
+				.description("Estimated heap used by the OpenAPI aggregator")
+				.register(registry));
+			if (budget.getMaxBytes() != Long.MAX_VALUE) {
+				Gauge.builder("openapi.aggregator.heap.budget", budget, OpenApiHeapBudget::getMaxBytes)
+					.baseUnit("bytes")
+					.register(registry);
+			}
+			FunctionCounter.builder("openapi.aggregator.heap.evicted", budget, OpenApiHeapBudget::getEvicted)
+				.baseUnit("bytes")
+				.register(registry);
+			Map<Spec, String> names = specs.getNames();
+			for (Spec spec : names.keySet()) {
+				Gauge
+					.builder("openapi.aggregator.spec.size", snapshots,
+							item -> size(item, s -> s.getRetainedSize(spec)))
+					.tag("spec", names.get(spec))
+					.baseUnit("bytes")
+					.register(registry);
+			}
+			for (Encoding encoding : Encoding.values()) {
+				Gauge
+					.builder("openapi.aggregator.encoding.size", snapshots,
+							item -> size(item, s -> s.getRetainedSize(encoding)))
+					.tag("encoding", encoding.name().toLowerCase())
+					.baseUnit("bytes")
+					.register(registry);
+			}
+		};
+	}
+
+	private static double size(OpenApiSnapshots snapshots, ToLongFunction<OpenApiSnapshot> size) {
+		OpenApiSnapshot snapshot = snapshots.getIfAvailable();
+		return snapshot == null ? Double.NaN : size.applyAsLong(snapshot);
 	}
 
 }
 
+/**
+ * Serves the aggregate (or the tenant selected by the host name) with an ETag, in the
+ * encoding that the client accepts. A client that already has a version can ask for
+ * <code>?since=&lt;etag&gt;</code> to get a JSON Patch to the current one instead of the
+ * whole document. The {@link SnapshotHistory} only starts to remember versions when the
+ * first such request arrives, so that patches cost nothing if no client uses them: until
+ * then, and for any version published before it, the whole document is returned.
+ */
 @RestController
 class AggregatorEndpoint implements InitializingBean {
 
-	private final OpenApiAggregator aggregator;
+	private final OpenApiSnapshots snapshots;
 
-	private OpenAPI api;
+	private final SnapshotHistory history;
 
-	private final ObjectMapper mapper = Json.mapper();
+	private final OpenApiTenants tenants;
 
-	public AggregatorEndpoint(OpenApiAggregator aggregator) {
-		this.aggregator = aggregator;
-		mapper.setDefaultPropertyInclusion(
-				JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_DEFAULT));
+	private final Map<OpenApiSnapshots, SnapshotHistory> histories = new ConcurrentHashMap<>();
+
+	private OpenApiHeapBudget budget;
+
+	public AggregatorEndpoint(OpenApiSnapshots snapshots, SnapshotHistory history) {
+		this(snapshots, history, null);
+	}
+
+	public AggregatorEndpoint(OpenApiSnapshots snapshots, SnapshotHistory history, OpenApiTenants tenants) {
+		this.snapshots = snapshots;
+		this.history = history;
+		this.tenants = tenants;
+		this.histories.put(snapshots, history);
+	}
+
+	void setBudget(OpenApiHeapBudget budget) {
+		this.budget = budget;
+		this.histories.values().forEach(budget::register);
+	}
+
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}",
+			produces = { "application/json", SnapshotHistory.JSON_PATCH, "application/yaml", "application/x-yaml",
+					"application/x-jackson-smile", "application/cbor" })
+	public ResponseEntity<byte[]> api(@RequestParam(required = false) String since,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String etag,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+			@RequestHeader(name = HttpHeaders.HOST, required = false) String host) {
+		return serve(select(host), since, etag, accept);
+	}
+
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/tenants/{tenant}",
+			produces = { "application/json", SnapshotHistory.JSON_PATCH, "application/yaml", "application/x-yaml",
+					"application/x-jackson-smile", "application/cbor" })
+	public ResponseEntity<byte[]> tenant(@PathVariable String tenant, @RequestParam(required = false) String since,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String etag,
+			@RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) {
+		OpenApiSnapshots snapshots = this.tenants == null ? null : this.tenants.getSnapshots(tenant);
+		if (snapshots == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return serve(snapshots, since, etag, accept);
 	}
 
-	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}", produces = { "application/json" })
-	public String api() {
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/{*pointer}", produces = { "application/json" })
+	public ResponseEntity<byte[]> fragment(@PathVariable String pointer,
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String etag,
+			@RequestHeader(name = HttpHeaders.HOST, required = false) String host) {
+		Fragment fragment;
+		if (pointer.length() <= 1) {
+			return ResponseEntity.notFound().build();
+		}
 		try {
-			return mapper.writeValueAsString(api);
+			fragment = select(host).getCurrent().getFragment(pointer);
 		}
-		catch (JsonProcessingException e) {
-			throw new IllegalStateException(e);
+		catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+		if (fragment == null) {
+			return ResponseEntity.notFound().build();
 		}
+		if (ETags.matches(etag, fragment.etag())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(fragment.etag()).build();
+		}
+		return ResponseEntity.ok().eTag(fragment.etag()).body(fragment.bytes());
+	}
+
+	private ResponseEntity<byte[]> serve(OpenApiSnapshots snapshots, String since, String etag, String accept) {
+		OpenApiSnapshot snapshot = snapshots.getCurrent();
+		Encoding encoding = negotiate(accept);
+		String tag = snapshot.getEtag(encoding);
+		if (ETags.matches(etag, tag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+		}
+		if (since != null && encoding == Encoding.JSON) {
+			byte[] patch = history(snapshots).patch(since);
+			if (patch != null) {
+				return ResponseEntity.ok()
+					.eTag(tag)
+					.contentType(MediaType.parseMediaType(SnapshotHistory.JSON_PATCH))
+					.body(patch);
+			}
+		}
+		return ResponseEntity.ok()
+			.eTag(tag)
+			.contentType(MediaType.parseMediaType(encoding.getMediaTypes()[0]))
+			.body(snapshot.getBytes(encoding));
+	}
+
+	private OpenApiSnapshots select(String host) {
+		OpenApiSnapshots selected = this.tenants == null ? null : this.tenants.select(host);
+		return selected != null ? selected : this.snapshots;
+	}
+
+	private SnapshotHistory history(OpenApiSnapshots snapshots) {
+		return this.histories.computeIfAbsent(snapshots, key -> {
+			SnapshotHistory history = new SnapshotHistory(key, this.history.getSize());
+			if (this.budget != null) {
+				this.budget.register(history);
+			}
+			return history;
+		});
+	}
+
+	private Encoding negotiate(String accept) {
+		if (accept == null) {
+			return Encoding.JSON;
+		}
+		List<MediaType> accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+		accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+		for (MediaType type : accepted) {
+			// JSON first, so that wildcards select it
+			for (Encoding encoding : Encoding.values()) {
+				for (String candidate : encoding.getMediaTypes()) {
+					if (type.includes(MediaType.parseMediaType(candidate))) {
+						if (!encoding.isAvailable()) {
+							continue;
+						}
+						return encoding;
+					}
+				}
+			}
+			if (type.includes(MediaType.parseMediaType(SnapshotHistory.JSON_PATCH))) {
+				return Encoding.JSON;
+			}
+		}
+		throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
 	}
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
-		this.api = aggregator.aggregate();
+		// Fail fast if the initial aggregation does not work
+		this.snapshots.getCurrent();
 	}
 
-}
\ No newline at end of file
+}
@@ -1,6 +1,14 @@
 package org.springframework.openapi.aggregator;
 
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import io.swagger.v3.oas.models.Components;
 import io.swagger.v3.oas.models.OpenAPI;
@@ -12,6 +20,8 @@ public class OpenApiAggregatorProperties {
 
 	private OpenAPI base = new OpenAPI();
 
+	private Aggregator aggregator = new Aggregator();
+
 	public OpenApiAggregatorProperties() {
 		base.paths(new Paths());
 		base.components(new Components());
@@ -22,4 +32,584 @@ public class OpenApiAggregatorProperties {
 		return base;
 	}
 
+	public Aggregator getAggregator() {
+		return aggregator;
+	}
+
+	public static class Aggregator {
+
+		/**
+		 * The HTTP path of the aggregated spec.
+		 */
+		private String path = "/v3/api-docs";
+
+		/**
+		 * Serve each upstream spec as a separate document under the aggregator path plus
+		 * "/specs/{name}", with a Swagger UI configuration listing them at the aggregator
+		 * path plus "/swagger-config".
+		 */
+		private boolean documents = false;
+
+		/**
+		 * Number of recent snapshot versions to remember for serving JSON Patch deltas
+		 * (with "?since=&lt;etag&gt;").
+		 */
+		private int history = 10;
+
+		/**
+		 * Policy for paths or components that are contributed by more than one of the
+		 * specs declared in "spring.openapi.aggregator.specs".
+		 */
+		private ConflictPolicy conflicts = ConflictPolicy.LAST_WINS;
+
+		/**
+		 * Read and filter the specs declared in "spring.openapi.aggregator.specs" in
+		 * parallel. They are still merged in order, so the result is the same.
+		 */
+		private boolean parallel = false;
+
+		/**
+		 * Connect and read timeout for fetching upstream specs over HTTP.
+		 */
+		private Duration timeout = Duration.ofSeconds(10);
+
+		/**
+		 * Estimated heap that the aggregator can use for snapshots and caches. When it is
+		 * exceeded, cached views, old versions and alternative encodings are discarded
+		 * (never the current snapshots). Default unlimited.
+		 */
+		private DataSize heapBudget;
+
+		/**
+		 * Upstream specs to aggregate, if there is no OpenApiAggregatorSpecs bean.
+		 */
+		private List<SpecDefinition> specs = new ArrayList<>();
+
+		/**
+		 * Named views of the specs that are served by host name (or under the aggregator
+		 * path plus "/tenants/{name}"), sharing one cache of the upstreams.
+		 */
+		private Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+		private Refresh refresh = new Refresh();
+
+		private Polling polling = new Polling();
+
+		private Peers peers = new Peers();
+
+		public String getPath() {
+			return path;
+		}
+
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		public boolean isDocuments() {
+			return documents;
+		}
+
+		public void setDocuments(boolean documents) {
+			this.documents = documents;
+		}
+
+		public int getHistory() {
+			return history;
+		}
+
+		public void setHistory(int history) {
+			this.history = history;
+		}
+
+		public ConflictPolicy getConflicts() {
+			return conflicts;
+		}
+
+		public void setConflicts(ConflictPolicy conflicts) {
+			this.conflicts = conflicts;
+		}
+
+		public boolean isParallel() {
+			return parallel;
+		}
+
+		public void setParallel(boolean parallel) {
+			this.parallel = parallel;
+		}
+
+		public Duration getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(Duration timeout) {
+			this.timeout = timeout;
+		}
+
+		public DataSize getHeapBudget() {
+			return heapBudget;
+		}
+
+		public void setHeapBudget(DataSize heapBudget) {
+			this.heapBudget = heapBudget;
+		}
+
+		public List<SpecDefinition> getSpecs() {
+			return specs;
+		}
+
+		public void setSpecs(List<SpecDefinition> specs) {
+			this.specs = specs;
+		}
+
+		public Map<String, Tenant> getTenants() {
+			return tenants;
+		}
+
+		public void setTenants(Map<String, Tenant> tenants) {
+			this.tenants = tenants;
+		}
+
+		public Refresh getRefresh() {
+			return refresh;
+		}
+
+		public Polling getPolling() {
+			return polling;
+		}
+
+		public Peers getPeers() {
+			return peers;
+		}
+
+	}
+
+	public static class SpecDefinition {
+
+		/**
+		 * Location of the upstream spec (a URL or a resource location like
+		 * "classpath:openapi.json").
+		 */
+		private String uri;
+
+		/**
+		 * Name of the spec, e.g. for listing it as a separate document.
+		 */
+		private String name;
+
+		/**
+		 * Prefix for all the paths in the spec.
+		 */
+		private String prefix;
+
+		/**
+		 * Literal replacements in the paths of the spec (pattern to replacement), applied
+		 * before the prefix. Keys that contain "/" need bracket notation, e.g.
+		 * "replace[/manual]=/docs", or the binder drops the slashes.
+		 */
+		private Map<String, String> replace = new LinkedHashMap<>();
+
+		/**
+		 * Prefix for all the operation ids in the spec.
+		 */
+		private String operationPrefix;
+
+		/**
+		 * Prefix for all the schema names in the spec.
+		 */
+		private String schemaPrefix;
+
+		/**
+		 * Globs for the paths to include (before any rewriting), e.g. "/users/**".
+		 * Default is all paths.
+		 */
+		private List<String> include = new ArrayList<>();
+
+		/**
+		 * Globs for the paths to exclude (before any rewriting).
+		 */
+		private List<String> exclude = new ArrayList<>();
+
+		/**
+		 * Maximum size of the upstream spec. A bigger one is rejected while it is
+		 * downloaded. Default unlimited.
+		 */
+		private DataSize maxSize;
+
+		/**
+		 * Maximum number of paths in the upstream spec. Default unlimited.
+		 */
+		private Integer maxPaths;
+
+		/**
+		 * Maximum number of schemas in the components of the upstream spec. Default
+		 * unlimited.
+		 */
+		private Integer maxSchemas;
+
+		/**
+		 * Maximum nesting depth of objects and arrays in the upstream spec. Default
+		 * unlimited.
+		 */
+		private Integer maxDepth;
+
+		public String getUri() {
+			return uri;
+		}
+
+		public void setUri(String uri) {
+			this.uri = uri;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		public void setPrefix(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Map<String, String> getReplace() {
+			return replace;
+		}
+
+		public void setReplace(Map<String, String> replace) {
+			this.replace = replace;
+		}
+
+		public String getOperationPrefix() {
+			return operationPrefix;
+		}
+
+		public void setOperationPrefix(String operationPrefix) {
+			this.operationPrefix = operationPrefix;
+		}
+
+		public String getSchemaPrefix() {
+			return schemaPrefix;
+		}
+
+		public void setSchemaPrefix(String schemaPrefix) {
+			this.schemaPrefix = schemaPrefix;
+		}
+
+		public List<String> getInclude() {
+			return include;
+		}
+
+		public void setInclude(List<String> include) {
+			this.include = include;
+		}
+
+		public List<String> getExclude() {
+			return exclude;
+		}
+
+		public void setExclude(List<String> exclude) {
+			this.exclude = exclude;
+		}
+
+		public DataSize getMaxSize() {
+			return maxSize;
+		}
+
+		public void setMaxSize(DataSize maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public Integer getMaxPaths() {
+			return maxPaths;
+		}
+
+		public void setMaxPaths(Integer maxPaths) {
+			this.maxPaths = maxPaths;
+		}
+
+		public Integer getMaxSchemas() {
+			return maxSchemas;
+		}
+
+		public void setMaxSchemas(Integer maxSchemas) {
+			this.maxSchemas = maxSchemas;
+		}
+
+		public Integer getMaxDepth() {
+			return maxDepth;
+		}
+
+		public void setMaxDepth(Integer maxDepth) {
+			this.maxDepth = maxDepth;
+		}
+
+	}
+
+	public static class Tenant {
+
+		/**
+		 * Host names (without port) of requests that are served this tenant.
+		 */
+		private List<String> hosts = new ArrayList<>();
+
+		/**
+		 * Names of the specs to include. Default is all of them.
+		 */
+		private List<String> specs = new ArrayList<>();
+
+		public List<String> getHosts() {
+			return hosts;
+		}
+
+		public void setHosts(List<String> hosts) {
+			this.hosts = hosts;
+		}
+
+		public List<String> getSpecs() {
+			return specs;
+		}
+
+		public void setSpecs(List<String> specs) {
+			this.specs = specs;
+		}
+
+	}
+
+	public static class Refresh {
+
+		/**
+		 * Quiet period after a refresh trigger before aggregating, so that bursts of
+		 * triggers are coalesced.
+		 */
+		private Duration debounce = Duration.ofMillis(500);
+
+		/**
+		 * Maximum time a refresh can be postponed by a continuous stream of triggers.
+		 */
+		private Duration maxWait = Duration.ofSeconds(5);
+
+		/**
+		 * Watch specs that are plain files and refresh when they change.
+		 */
+		private boolean watchFiles = false;
+
+		/**
+		 * Expose a webhook (POST to the aggregator path plus "/refresh") that triggers a
+		 * refresh.
+		 */
+		private boolean webhook = false;
+
+		/**
+		 * Validate each refreshed aggregate (dangling references and links, duplicate
+		 * operation ids, undefined security schemes) and keep the previous one if it is
+		 * not valid.
+		 */
+		private boolean validate = false;
+
+		public Duration getDebounce() {
+			return debounce;
+		}
+
+		public void setDebounce(Duration debounce) {
+			this.debounce = debounce;
+		}
+
+		public Duration getMaxWait() {
+			return maxWait;
+		}
+
+		public void setMaxWait(Duration maxWait) {
+			this.maxWait = maxWait;
+		}
+
+		public boolean isWatchFiles() {
+			return watchFiles;
+		}
+
+		public void setWatchFiles(boolean watchFiles) {
+			this.watchFiles = watchFiles;
+		}
+
+		public boolean isWebhook() {
+			return webhook;
+		}
+
+		public void setWebhook(boolean webhook) {
+			this.webhook = webhook;
+		}
+
+		public boolean isValidate() {
+			return validate;
+		}
+
+		public void setValidate(boolean validate) {
+			this.validate = validate;
+		}
+
+	}
+
+	public static class Peers {
+
+		/**
+		 * Share snapshots with other instances of the gateway: serve the current one at
+		 * the aggregator path plus "/snapshot", and use a newer one from a peer instead
+		 * of aggregating locally.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Whether this instance aggregates from the upstreams and serves its snapshots
+		 * (producer), or takes them from the peers (consumer).
+		 */
+		private OpenApiPeers.Role role = OpenApiPeers.Role.CONSUMER;
+
+		/**
+		 * Snapshot endpoints of the peers, e.g.
+		 * "http://gateway-1:8080/v3/api-docs/snapshot".
+		 */
+		private List<URI> urls = new ArrayList<>();
+
+		/**
+		 * How often to check the peers for a newer snapshot (zero to only check on
+		 * startup and refresh).
+		 */
+		private Duration interval = Duration.ofSeconds(30);
+
+		/**
+		 * Connect and read timeout for requests to peers.
+		 */
+		private Duration timeout = Duration.ofSeconds(2);
+
+		/**
+		 * Version of the aggregation configuration. Peers with a different version are
+		 * ignored. Default is a digest of the declared specs and the base spec, which
+		 * does not cover specs or filters that are defined in code.
+		 */
+		private String version;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public OpenApiPeers.Role getRole() {
+			return role;
+		}
+
+		public void setRole(OpenApiPeers.Role role) {
+			this.role = role;
+		}
+
+		public List<URI> getUrls() {
+			return urls;
+		}
+
+		public void setUrls(List<URI> urls) {
+			this.urls = urls;
+		}
+
+		public Duration getInterval() {
+			return interval;
+		}
+
+		public void setInterval(Duration interval) {
+			this.interval = interval;
+		}
+
+		public Duration getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(Duration timeout) {
+			this.timeout = timeout;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public void setVersion(String version) {
+			this.version = version;
+		}
+
+	}
+
+	public static class Polling {
+
+		/**
+		 * Poll each upstream spec on its own adaptive schedule and refresh when one
+		 * changes.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * Polling interval for a spec that has just changed.
+		 */
+		private Duration minInterval = Duration.ofSeconds(30);
+
+		/**
+		 * Longest polling interval for a spec that does not change.
+		 */
+		private Duration maxInterval = Duration.ofHours(1);
+
+		/**
+		 * Randomization applied to each polling delay, as a fraction of the interval.
+		 */
+		private double jitter = 0.2;
+
+		/**
+		 * Maximum number of upstream specs fetched concurrently.
+		 */
+		private int concurrency = 4;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getMinInterval() {
+			return minInterval;
+		}
+
+		public void setMinInterval(Duration minInterval) {
+			this.minInterval = minInterval;
+		}
+
+		public Duration getMaxInterval() {
+			return maxInterval;
+		}
+
+		public void setMaxInterval(Duration maxInterval) {
+			this.maxInterval = maxInterval;
+		}
+
+		public double getJitter() {
+			return jitter;
+		}
+
+		public void setJitter(double jitter) {
+			this.jitter = jitter;
+		}
+
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		public void setConcurrency(int concurrency) {
+			this.concurrency = concurrency;
+		}
+
+	}
+
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+/**
+ * Runtime hints for a native image. The swagger models are (de)serialized by Jackson, the
+ * swagger-core mixins, serializers and deserializers are instantiated reflectively, the
+ * parser finds its extensions (including the Swagger 2.0 converter) with a
+ * {@link java.util.ServiceLoader}. The model packages are scanned when the hints are
+ * computed (at build time), so new model classes in a swagger upgrade are picked up
+ * automatically.
+ */
+class OpenApiAggregatorRuntimeHints implements RuntimeHintsRegistrar {
+
+	private static final String[] JACKSON_TYPES = { "io/swagger/v3/oas/models/**/*.class",
+			"io/swagger/v3/core/jackson/**/*.class", "io/swagger/v3/core/util/*Deserializer.class",
+			"io/swagger/models/**/*.class" };
+
+	private static final String[] SERVICES = { "io.swagger.v3.parser.core.extensions.SwaggerParserExtension",
+			"io.swagger.parser.SwaggerParserExtension" };
+
+	private static final MemberCategory[] BINDING = { MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+			MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.INVOKE_PUBLIC_METHODS,
+			MemberCategory.DECLARED_FIELDS };
+
+	@Override
+	public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+		PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(classLoader);
+		MetadataReaderFactory readers = new CachingMetadataReaderFactory(resolver);
+		try {
+			for (String pattern : JACKSON_TYPES) {
+				for (Resource resource : resolver.getResources("classpath*:" + pattern)) {
+					String type = readers.getMetadataReader(resource).getClassMetadata().getClassName();
+					hints.reflection().registerType(TypeReference.of(type), BINDING);
+				}
+			}
+			for (String service : SERVICES) {
+				String location = "META-INF/services/" + service;
+				hints.resources().registerPattern(location);
+				Enumeration<URL> urls = classLoader.getResources(location);
+				while (urls.hasMoreElements()) {
+					for (String type : providers(urls.nextElement())) {
+						hints.reflection()
+							.registerType(TypeReference.of(type), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot scan classpath for swagger types", e);
+		}
+	}
+
+	private static Iterable<String> providers(URL url) throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+			return reader.lines()
+				.map(line -> line.contains("#") ? line.substring(0, line.indexOf('#')) : line)
+				.map(String::trim)
+				.filter(line -> !line.isEmpty())
+				.toList();
+		}
+	}
+
+}
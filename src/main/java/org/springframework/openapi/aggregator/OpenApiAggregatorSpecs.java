@@ -15,7 +15,12 @@
  */
 package org.springframework.openapi.aggregator;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -41,8 +46,32 @@ public class OpenApiAggregatorSpecs {
 
 	/**
 	 * A spec to describe how to locate and transform an OpenAPI descriptor.
+	 *
+	 * @param resource the location of the API descriptor
+	 * @param filter the transformation to apply
+	 * @param name an optional name for the spec (e.g. for listing it in a UI)
+	 * @param limits the size and complexity limits for the upstream
 	 */
-	public record Spec(Resource resource, Function<OpenAPI, OpenAPI> filter) {
+	public record Spec(Resource resource, Function<OpenAPI, OpenAPI> filter, String name, SpecLimits limits) {
+
+		/**
+		 * Create a new {@link Spec} instance with no limits.
+		 * @param resource the location of the API descriptor
+		 * @param filter the transformation to apply
+		 * @param name an optional name for the spec (e.g. for listing it in a UI)
+		 */
+		public Spec(Resource resource, Function<OpenAPI, OpenAPI> filter, String name) {
+			this(resource, filter, name, SpecLimits.NONE);
+		}
+
+		/**
+		 * Create a new unnamed {@link Spec} instance.
+		 * @param resource the location of the API descriptor (e.g. a file or URL)
+		 * @param filter the transformation to apply
+		 */
+		public Spec(Resource resource, Function<OpenAPI, OpenAPI> filter) {
+			this(resource, filter, null);
+		}
 
 		/**
 		 * Create a new {@link Spec} instance with no transformation.
@@ -67,7 +96,26 @@ public class OpenApiAggregatorSpecs {
 		 * @return a new instance
 		 */
 		public Spec filter(Function<OpenAPI, OpenAPI> filter) {
-			return new Spec(resource(), filter().andThen(filter));
+			return new Spec(resource(), filter().andThen(filter), name(), limits());
+		}
+
+		/**
+		 * Give the spec a name, e.g. for listing it in a UI.
+		 * @param name the name to use
+		 * @return a new instance
+		 */
+		public Spec name(String name) {
+			return new Spec(resource(), filter(), name, limits());
+		}
+
+		/**
+		 * Limit the size and complexity of the upstream spec. A spec that is over the
+		 * limits is rejected and left out of the aggregate.
+		 * @param limits the limits to apply
+		 * @return a new instance
+		 */
+		public Spec limits(SpecLimits limits) {
+			return new Spec(resource(), filter(), name(), limits);
 		}
 
 		/**
@@ -103,6 +151,32 @@ public class OpenApiAggregatorSpecs {
 			return filter(schemaFilter(schemas));
 		}
 
+		/**
+		 * Keep only the operations selected by the filter, and remove paths that are left
+		 * without operations. Put it before any renaming to select by the upstream paths.
+		 * @param selector the operation filter to apply
+		 * @return a new instance
+		 */
+		public Spec select(OperationFilter selector) {
+			return filter(selector);
+		}
+
+		/**
+		 * Modify the paths, operation ids and schema names in the API descriptor in a
+		 * single pass. Equivalent to {@link #paths(Function)},
+		 * {@link #operations(Function)} and {@link #schemas(Function)} together, but
+		 * cheaper because the descriptor is only walked once.
+		 * @param paths a function to transform the URL paths (returning null removes a
+		 * path)
+		 * @param operations a function to transform the operation ids
+		 * @param schemas a function to transform the schema names
+		 * @return a new instance
+		 */
+		public Spec rewrite(Function<String, String> paths, Function<String, String> operations,
+				Function<String, String> schemas) {
+			return filter(new SimpleSpecProcessor(paths, operations, schemas));
+		}
+
 		/**
 		 * Prefix all paths in the API descriptor.
 		 * @param prefix the prefix to apply
@@ -168,6 +242,15 @@ public class OpenApiAggregatorSpecs {
 
 	private BiFunction<OpenAPI, Set<OpenAPI>, OpenAPI> processor = (api, items) -> api;
 
+	private boolean retainItems = false;
+
+	private ItemProcessor itemProcessor = (api, spec, item) -> {
+	};
+
+	private ConflictPolicy conflictPolicy = ConflictPolicy.LAST_WINS;
+
+	private boolean parallel = false;
+
 	/**
 	 * The specs in the aggregator.
 	 * @return the specs
@@ -176,6 +259,22 @@ public class OpenApiAggregatorSpecs {
 		return this.specs;
 	}
 
+	/**
+	 * The name of each spec, in the order they were declared. Specs without an explicit
+	 * name are named after their declared position (starting at 1), so the name does not
+	 * change if an earlier spec is left out of an aggregate.
+	 * @return the names keyed by spec
+	 */
+	public Map<Spec, String> getNames() {
+		Map<Spec, String> names = new LinkedHashMap<>();
+		int index = 0;
+		for (Spec spec : this.specs) {
+			index++;
+			names.put(spec, spec.name() != null ? spec.name() : String.valueOf(index));
+		}
+		return names;
+	}
+
 	/**
 	 * Set specs to apply in the aggregator.
 	 * @param specs the specs to set
@@ -194,6 +293,63 @@ public class OpenApiAggregatorSpecs {
 		return this;
 	}
 
+	/**
+	 * What to do when specs contribute the same path or component.
+	 * @return the conflict policy
+	 */
+	public ConflictPolicy getConflictPolicy() {
+		return this.conflictPolicy;
+	}
+
+	/**
+	 * Set the policy for resolving collisions between specs. Default
+	 * {@link ConflictPolicy#LAST_WINS}.
+	 * @param conflictPolicy the conflict policy to set
+	 */
+	public void setConflictPolicy(ConflictPolicy conflictPolicy) {
+		this.conflictPolicy = conflictPolicy;
+	}
+
+	/**
+	 * Set the policy for resolving collisions between specs.
+	 * @param conflictPolicy the conflict policy to use
+	 * @return this instance
+	 */
+	public OpenApiAggregatorSpecs conflicts(ConflictPolicy conflictPolicy) {
+		this.conflictPolicy = conflictPolicy;
+		return this;
+	}
+
+	/**
+	 * Whether the specs are read and filtered in parallel.
+	 * @return true if the specs are prepared in parallel
+	 */
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * Set whether to read and filter the specs in parallel (in a fork-join pool shared by
+	 * all aggregators, with at most two threads per processor). The filtered specs are
+	 * still merged one at a time in order, so the result is the same as without it. The
+	 * filters of different specs must not share any mutable state. Default false.
+	 * @param parallel the flag to set
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Set whether to read and filter the specs in parallel.
+	 * @param parallel the flag to set
+	 * @return this instance
+	 * @see #setParallel(boolean)
+	 */
+	public OpenApiAggregatorSpecs parallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
 	/**
 	 * The processor to apply after the specs have been aggregated.
 	 * @return the processor
@@ -212,9 +368,63 @@ public class OpenApiAggregatorSpecs {
 	public OpenApiAggregatorSpecs processor(BiFunction<OpenAPI, Set<OpenAPI>, OpenAPI> processor) {
 		BiFunction<OpenAPI, Set<OpenAPI>, OpenAPI> existing = this.processor;
 		this.processor = (api, items) -> processor.apply(existing.apply(api, items), items);
+		this.retainItems = true;
 		return this;
 	}
 
+	/**
+	 * Whether the aggregator needs to keep all the filtered specs until the end of the
+	 * aggregation. Only true if a {@link #processor(BiFunction) processor} has been added
+	 * that might want to inspect them. Otherwise the processor is called with an empty
+	 * set, and each spec can be garbage collected as soon as it has been merged.
+	 * @return true if the filtered specs have to be retained
+	 */
+	public boolean isRetainItems() {
+		return this.retainItems;
+	}
+
+	/**
+	 * The processor to apply to each spec as soon as it has been merged.
+	 * @return the item processor
+	 */
+	public ItemProcessor getItemProcessor() {
+		return this.itemProcessor;
+	}
+
+	/**
+	 * Add an item processor to the aggregator. It is called once for each spec, in order,
+	 * just after the filtered spec has been merged into the result. Unlike a
+	 * {@link #processor(BiFunction) processor} it does not force the aggregator to keep
+	 * all the specs in memory until the end. Additional item processors can be added and
+	 * will be applied after this one.
+	 * @param processor the item processor to add
+	 * @return this instance
+	 */
+	public OpenApiAggregatorSpecs itemProcessor(ItemProcessor processor) {
+		ItemProcessor existing = this.itemProcessor;
+		this.itemProcessor = (api, spec, item) -> {
+			existing.process(api, spec, item);
+			processor.process(api, spec, item);
+		};
+		return this;
+	}
+
+	/**
+	 * Callback for processing specs one at a time during an aggregation.
+	 */
+	@FunctionalInterface
+	public interface ItemProcessor {
+
+		/**
+		 * Process a single spec that has just been merged.
+		 * @param api the aggregated spec so far (including the item)
+		 * @param spec the spec that describes the item
+		 * @param item the filtered item that was merged
+		 */
+		void process(OpenAPI api, Spec spec, OpenAPI item);
+
+	}
+
 	private static String replacePath(String operationRef, String newPath) {
 		String path = operationRef;
 		if (path.contains("~1")) {
@@ -379,8 +589,20 @@ public class OpenApiAggregatorSpecs {
 			}
 		}
 
-		private void transformSchema(Schema<?> schema) {
-			if (schema != null) {
+		private void transformSchema(Schema<?> root) {
+			if (root == null || schemaReplacements.isEmpty()) {
+				return;
+			}
+			// Walk with an explicit stack, so that deep (or cyclic) schemas cannot
+			// overflow the thread stack
+			Deque<Schema<?>> stack = new ArrayDeque<>();
+			Set<Schema<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				Schema<?> schema = stack.pop();
+				if (!visited.add(schema)) {
+					continue;
+				}
 				if (schema.get$ref() != null) {
 					String newSchema = schemaReplacements.get(modelName(schema.get$ref()));
 					if (newSchema != null) {
@@ -388,14 +610,14 @@ public class OpenApiAggregatorSpecs {
 					}
 				}
 				if (schema.getProperties() != null) {
-					for (String property : schema.getProperties().keySet()) {
-						Schema<?> propertySchema = schema.getProperties().get(property);
-						transformSchema(propertySchema);
+					for (Schema<?> property : schema.getProperties().values()) {
+						if (property != null) {
+							stack.push(property);
+						}
 					}
 				}
 				if (schema.getItems() != null) {
-					Schema<?> itemSchema = schema.getItems();
-					transformSchema(itemSchema);
+					stack.push(schema.getItems());
 				}
 			}
 		}
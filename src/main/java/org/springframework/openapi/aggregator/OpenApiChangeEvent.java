@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.Set;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event published when a refresh produces an aggregate that is different from the
+ * previous one. The changes are JSON Pointers into the aggregate, e.g.
+ * <code>/paths/~1pets</code>, <code>/components/schemas/Pet</code> or <code>/info</code>,
+ * so consumers can invalidate or regenerate only what changed. A refresh that does not
+ * change anything does not publish an event.
+ */
+@SuppressWarnings("serial")
+public class OpenApiChangeEvent extends ApplicationEvent {
+
+	private final transient OpenApiSnapshot previous;
+
+	private final transient OpenApiSnapshot snapshot;
+
+	private final transient SnapshotDiff diff;
+
+	OpenApiChangeEvent(OpenApiSnapshots source, OpenApiSnapshot previous, OpenApiSnapshot snapshot, SnapshotDiff diff) {
+		super(source);
+		this.previous = previous;
+		this.snapshot = snapshot;
+		this.diff = diff;
+	}
+
+	/**
+	 * The snapshot that was current before the refresh.
+	 * @return the previous snapshot
+	 */
+	public OpenApiSnapshot getPrevious() {
+		return this.previous;
+	}
+
+	/**
+	 * The new current snapshot.
+	 * @return the snapshot
+	 */
+	public OpenApiSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Pointers to the paths, components and top level fields that were added.
+	 * @return the added pointers
+	 */
+	public Set<String> getAdded() {
+		return this.diff.added();
+	}
+
+	/**
+	 * Pointers to the paths, components and top level fields that were removed.
+	 * @return the removed pointers
+	 */
+	public Set<String> getRemoved() {
+		return this.diff.removed();
+	}
+
+	/**
+	 * Pointers to the paths, components and top level fields whose content changed.
+	 * @return the modified pointers
+	 */
+	public Set<String> getModified() {
+		return this.diff.modified();
+	}
+
+}
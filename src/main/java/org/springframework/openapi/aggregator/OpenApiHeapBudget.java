@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Accounts for the heap used by the aggregator (the current snapshots with their cached
+ * encodings and derived views, the snapshot history, and the cache of upstream specs),
+ * and keeps it within a budget. When the budget is exceeded the least valuable data is
+ * discarded first: the views (slices and fragments) of the snapshots that have not been
+ * served recently, then the old versions in the history, then the encodings other than
+ * JSON (coldest first), then the parsed copies of the upstreams, and only then the views
+ * of the most recently served snapshot. Everything that is discarded is computed again if
+ * it is needed. The current snapshots themselves, with their JSON form, are never
+ * discarded, so they can be all that is left if the budget is too small.
+ * <p>
+ * The sizes are estimates (see {@link OpenApiSnapshot#getRetainedSize()}), and the budget
+ * is checked whenever a new snapshot is published or one of its caches grows. The check
+ * runs in the background on a thread of its own, so it never runs while the code that
+ * grew a cache is holding a lock.
+ */
+public class OpenApiHeapBudget implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenApiHeapBudget.class);
+
+	private final long maxBytes;
+
+	private final CopyOnWriteArrayList<OpenApiSnapshots> snapshots = new CopyOnWriteArrayList<>();
+
+	private final CopyOnWriteArrayList<SnapshotHistory> histories = new CopyOnWriteArrayList<>();
+
+	private final CopyOnWriteArrayList<SpecCache> caches = new CopyOnWriteArrayList<>();
+
+	private final AtomicBoolean pending = new AtomicBoolean();
+
+	private ExecutorService executor;
+
+	private volatile long evicted;
+
+	private boolean over;
+
+	/**
+	 * Create a new {@link OpenApiHeapBudget} instance.
+	 * @param maxBytes the maximum number of bytes (Long.MAX_VALUE to only keep account)
+	 */
+	public OpenApiHeapBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * The maximum number of bytes.
+	 * @return the budget
+	 */
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * Account for the snapshots of an aggregate.
+	 * @param snapshots the snapshots
+	 */
+	public void register(OpenApiSnapshots snapshots) {
+		if (this.snapshots.addIfAbsent(snapshots)) {
+			snapshots.setBudget(this);
+		}
+	}
+
+	/**
+	 * Account for the snapshots of all the tenants.
+	 * @param tenants the tenants
+	 */
+	public void register(OpenApiTenants tenants) {
+		for (String name : tenants.getNames()) {
+			register(tenants.getSnapshots(name));
+		}
+	}
+
+	/**
+	 * Account for a cache of upstream specs.
+	 * @param cache the cache
+	 */
+	public void register(SpecCache cache) {
+		this.caches.addIfAbsent(cache);
+	}
+
+	void register(SnapshotHistory history) {
+		this.histories.addIfAbsent(history);
+	}
+
+	/**
+	 * The estimated heap used by each kind of data.
+	 * @return the usage
+	 */
+	public Usage getUsage() {
+		long models = 0;
+		long encodings = 0;
+		long views = 0;
+		for (OpenApiSnapshot snapshot : current()) {
+			models += snapshot.measured();
+			encodings += snapshot.encoded();
+			views += snapshot.viewed();
+		}
+		long history = 0;
+		for (SnapshotHistory item : this.histories) {
+			history += item.size();
+		}
+		long upstream = 0;
+		for (SpecCache cache : this.caches) {
+			upstream += cache.getRetainedSize();
+		}
+		return new Usage(models, encodings, views, history, upstream);
+	}
+
+	/**
+	 * The estimated number of bytes discarded so far to stay within the budget.
+	 * @return the total evicted
+	 */
+	public long getEvicted() {
+		return this.evicted;
+	}
+
+	/**
+	 * Check the budget in the background, unless a check is already pending.
+	 */
+	void schedule() {
+		if (this.maxBytes == Long.MAX_VALUE || !this.pending.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor().execute(() -> {
+				this.pending.set(false);
+				enforce();
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// Shutting down
+			this.pending.set(false);
+		}
+	}
+
+	private synchronized ExecutorService executor() {
+		if (this.executor == null) {
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "openapi-budget");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return this.executor;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Discard cached data until the estimated usage is within the budget (or there is
+	 * nothing left to discard). Callers must not hold a lock of any of the components
+	 * that are accounted for.
+	 */
+	synchronized void enforce() {
+		if (this.maxBytes == Long.MAX_VALUE) {
+			return;
+		}
+		long used = getUsage().total();
+		if (used <= this.maxBytes) {
+			this.over = false;
+			return;
+		}
+		List<OpenApiSnapshot> current = current();
+		current.sort(Comparator.comparingLong(OpenApiSnapshot::accessed));
+		long excess = used - this.maxBytes;
+		long freed = 0;
+		for (int i = 0; i < current.size() - 1 && freed < excess; i++) {
+			freed += current.get(i).evictViews();
+		}
+		for (int i = 0; i < this.histories.size() && freed < excess; i++) {
+			freed += this.histories.get(i).evict();
+		}
+		for (int i = 0; i < current.size() && freed < excess; i++) {
+			freed += current.get(i).evictEncodings();
+		}
+		for (int i = 0; i < this.caches.size() && freed < excess; i++) {
+			freed += this.caches.get(i).evictParsed();
+		}
+		if (freed < excess && !current.isEmpty()) {
+			freed += current.get(current.size() - 1).evictViews();
+		}
+		this.evicted += freed;
+		if (logger.isDebugEnabled()) {
+			logger.debug("OpenAPI aggregator over its heap budget of " + this.maxBytes / 1024 + "KB, evicted about "
+					+ freed / 1024 + "KB");
+		}
+		boolean over = freed < excess;
+		if (over && !this.over) {
+			logger.warn("OpenAPI aggregator still over its heap budget of " + this.maxBytes / 1024
+					+ "KB with only the current snapshots, about " + (used - freed) / 1024 + "KB");
+		}
+		this.over = over;
+	}
+
+	private List<OpenApiSnapshot> current() {
+		List<OpenApiSnapshot> result = new ArrayList<>();
+		for (OpenApiSnapshots item : this.snapshots) {
+			OpenApiSnapshot snapshot = item.getIfAvailable();
+			if (snapshot != null) {
+				result.add(snapshot);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The estimated heap used by each kind of data that the aggregator keeps.
+	 *
+	 * @param models the models of the current snapshots
+	 * @param encodings the cached encodings of the current snapshots (including JSON)
+	 * @param views the slices and fragment indexes of the current snapshots
+	 * @param history the versions and patches remembered by the snapshot history
+	 * @param upstream the raw and parsed upstream specs
+	 */
+	public record Usage(long models, long encodings, long views, long history, long upstream) {
+
+		/**
+		 * The total of all the kinds of data.
+		 * @return the total in bytes
+		 */
+		public long total() {
+			return this.models + this.encodings + this.views + this.history + this.upstream;
+		}
+
+	}
+
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Collision;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Contribution;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Encoding;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.SpecVersion;
+
+/**
+ * Fetches ready made snapshots from other instances of the same gateway (peers), so that
+ * a group of replicas does not have to fetch and parse every upstream spec once each. A
+ * {@link Role#PRODUCER producer} aggregates from the upstreams as usual and serves its
+ * snapshots, and a {@link Role#CONSUMER consumer} takes them from the producers instead
+ * of reading the upstreams itself. Peers are asked with a conditional request (the ETag
+ * of the current snapshot), so an unchanged aggregate costs a round trip and no download.
+ * A snapshot from a peer is only used if it is
+ * {@link #isNewer(OpenApiSnapshot, OpenApiSnapshot) newer} than the current one, and if
+ * the peer aggregates the same specs with the same configuration. While such a peer is
+ * {@link #isAvailable() available} a consumer neither polls nor aggregates, and only when
+ * no compatible peer answers does it fall back to aggregating locally.
+ * <p>
+ * Only the locations, names and limits of the specs and the conflict policy can be
+ * compared directly, not their filters, so peers also compare a
+ * {@link #setVersion(String) version} of the rest of the configuration. The
+ * autoconfiguration uses a digest of the declared specs and the base spec, unless
+ * "spring.openapi.aggregator.peers.version" is set.
+ * <p>
+ * The wire format is a line of JSON metadata (creation time, generation, epoch, source
+ * digest, OpenAPI spec version, specs, contributions, collisions and rejections, with
+ * specs referred to by their position) followed by the JSON encoding of the aggregate,
+ * exactly as it is served to clients, so it is neither serialized again by the sender nor
+ * by the receiver.
+ */
+public class OpenApiPeers {
+
+	private static final Log logger = LogFactory.getLog(OpenApiPeers.class);
+
+	/**
+	 * Media type of the snapshots that peers exchange.
+	 */
+	static final String SNAPSHOT = "application/vnd.spring.openapi-snapshot";
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final List<URI> peers;
+
+	private final OpenApiAggregatorSpecs specs;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final long epoch = System.currentTimeMillis();
+
+	private Duration interval = Duration.ofSeconds(30);
+
+	private Duration timeout = Duration.ofSeconds(2);
+
+	private String version = "";
+
+	private Role role = Role.CONSUMER;
+
+	private volatile boolean available;
+
+	/**
+	 * Create a new {@link OpenApiPeers} instance.
+	 * @param specs the specs that are aggregated (the same on all peers)
+	 * @param peers the snapshot endpoints of the peers (the aggregator path plus
+	 * "/snapshot")
+	 */
+	public OpenApiPeers(OpenApiAggregatorSpecs specs, List<URI> peers) {
+		this.specs = specs;
+		this.peers = new ArrayList<>(peers);
+	}
+
+	/**
+	 * Set how often to check the peers for a newer snapshot. Zero switches off the
+	 * checks, so peers are only asked for the first snapshot and on a refresh. Default 30
+	 * seconds.
+	 * @param interval the interval between checks
+	 */
+	public void setInterval(Duration interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * How often to check the peers for a newer snapshot.
+	 * @return the interval between checks
+	 */
+	public Duration getInterval() {
+		return this.interval;
+	}
+
+	/**
+	 * Set the connect and read timeout for requests to peers. Default 2 seconds.
+	 * @param timeout the timeout
+	 */
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set a version for the parts of the configuration that peers cannot compare, e.g.
+	 * the filters of the specs. Peers with a different version are ignored, so it should
+	 * change whenever the aggregation does, e.g. in a rolling deployment. Default empty.
+	 * @param version the version of the configuration
+	 */
+	public void setVersion(String version) {
+		this.version = version == null ? "" : version;
+	}
+
+	/**
+	 * Set the role of this instance. Default {@link Role#CONSUMER}.
+	 * @param role the role
+	 */
+	public void setRole(Role role) {
+		this.role = role;
+	}
+
+	/**
+	 * The role of this instance.
+	 * @return the role
+	 */
+	public Role getRole() {
+		return this.role;
+	}
+
+	/**
+	 * The epoch of the snapshots that this instance aggregates as a producer: the time it
+	 * started.
+	 * @return the epoch
+	 */
+	long getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * Whether a compatible peer answered the last time they were asked, so that a
+	 * consumer can leave the upstreams alone. Always false for a producer.
+	 * @return true if a peer is aggregating for this instance
+	 */
+	public boolean isAvailable() {
+		return this.available;
+	}
+
+	/**
+	 * Ask the peers for a snapshot that is newer than the current one. Also updates
+	 * whether a compatible peer is {@link #isAvailable() available}: one that has the
+	 * same snapshot (and answers 304) or an older one still counts.
+	 * @param current the current snapshot (or null if there is none)
+	 * @return a snapshot from a peer, or null if no peer has one that is new enough
+	 */
+	OpenApiSnapshot fetch(OpenApiSnapshot current) {
+		if (this.role == Role.PRODUCER || this.peers.isEmpty()) {
+			return null;
+		}
+		boolean available = false;
+		// Spread the load around the peers
+		int start = Math.floorMod(this.next.getAndIncrement(), this.peers.size());
+		for (int i = 0; i < this.peers.size(); i++) {
+			URI peer = this.peers.get((start + i) % this.peers.size());
+			try {
+				Fetched fetched = fetch(peer, current);
+				available |= fetched.compatible();
+				if (fetched.snapshot() != null && isNewer(fetched.snapshot(), current)) {
+					this.available = true;
+					return fetched.snapshot();
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				logger.debug("Could not fetch snapshot from peer " + peer + ": " + e);
+			}
+		}
+		this.available = available;
+		return null;
+	}
+
+	/**
+	 * Whether a snapshot from a peer should replace the current one. The clocks of the
+	 * instances need not agree, so creation times are not compared. One built from the
+	 * same upstream content (the same {@link OpenApiSnapshot#getSource() source}) is not
+	 * newer. Generations are only comparable within an {@link OpenApiSnapshot#getEpoch()
+	 * epoch}, because a producer numbers its snapshots from 1 again when it restarts, so
+	 * a snapshot from a producer replaces one that was aggregated locally (epoch 0), and
+	 * one from a producer that started later replaces one from a producer that started
+	 * earlier. Within an epoch the one with the higher generation is newer, and of two
+	 * different snapshots with the same generation (aggregated independently after the
+	 * same change) the one with the greater source wins, so that all the peers settle on
+	 * the same one.
+	 * @param snapshot the snapshot from a peer
+	 * @param current the current snapshot (or null if there is none)
+	 * @return true if the snapshot from the peer should be used
+	 */
+	static boolean isNewer(OpenApiSnapshot snapshot, OpenApiSnapshot current) {
+		if (current == null) {
+			return true;
+		}
+		String source = snapshot.getSource();
+		if (source != null && source.equals(current.getSource())) {
+			return false;
+		}
+		if (snapshot.getEpoch() != current.getEpoch()) {
+			return current.getEpoch() == 0 || snapshot.getEpoch() > current.getEpoch();
+		}
+		if (snapshot.getGeneration() != current.getGeneration()) {
+			return snapshot.getGeneration() > current.getGeneration();
+		}
+		return source != null && (current.getSource() == null || source.compareTo(current.getSource()) > 0);
+	}
+
+	private Fetched fetch(URI peer, OpenApiSnapshot current) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) peer.toURL().openConnection();
+		try {
+			connection.setConnectTimeout((int) this.timeout.toMillis());
+			connection.setReadTimeout((int) this.timeout.toMillis());
+			connection.setRequestProperty("Accept", SNAPSHOT);
+			if (current != null) {
+				connection.setRequestProperty("If-None-Match", etag(current));
+			}
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+				// Same as ours
+				return Fetched.NOT_MODIFIED;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				// The peer has nothing yet
+				return Fetched.NONE;
+			}
+			try (InputStream stream = connection.getInputStream()) {
+				// Null if the peer is incompatible
+				OpenApiSnapshot snapshot = decode(stream.readAllBytes(), this.specs, this.version);
+				return new Fetched(snapshot, snapshot != null);
+			}
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * The ETag of a snapshot as it is served to peers. It includes the configuration, so
+	 * that only a compatible peer can answer that it has the same snapshot.
+	 * @param snapshot the snapshot
+	 * @return the ETag
+	 */
+	String etag(OpenApiSnapshot snapshot) {
+		String etag = snapshot.getEtag();
+		return etag.substring(0, etag.length() - 1) + "-" + config(this.specs, this.version) + "\"";
+	}
+
+	/**
+	 * Serialize a snapshot for the peers.
+	 * @param snapshot the snapshot
+	 * @return the serialized snapshot
+	 */
+	byte[] encode(OpenApiSnapshot snapshot) {
+		return encode(snapshot, this.specs, this.version);
+	}
+
+	/**
+	 * Serialize a snapshot for a peer.
+	 * @param snapshot the snapshot
+	 * @param specs the specs that were aggregated
+	 * @param version the version of the configuration
+	 * @return the serialized snapshot
+	 */
+	static byte[] encode(OpenApiSnapshot snapshot, OpenApiAggregatorSpecs specs, String version) {
+		List<Spec> list = new ArrayList<>(specs.getSpecs());
+		ObjectNode metadata = mapper.createObjectNode();
+		metadata.put("created", snapshot.getCreated().toEpochMilli());
+		metadata.put("generation", snapshot.getGeneration());
+		metadata.put("epoch", snapshot.getEpoch());
+		metadata.put("source", snapshot.getSource());
+		metadata.put("specVersion", snapshot.getApi().getSpecVersion().name());
+		metadata.put("config", config(specs, version));
+		ArrayNode names = metadata.putArray("specs");
+		list.forEach(spec -> names.add(describe(spec)));
+		ArrayNode contributions = metadata.putArray("contributions");
+		snapshot.getContributions().forEach((spec, contribution) -> {
+			ObjectNode node = contributions.addObject().put("spec", list.indexOf(spec));
+			node.set("paths", mapper.valueToTree(contribution.paths()));
+			node.set("components", mapper.valueToTree(contribution.components()));
+		});
+		ArrayNode collisions = metadata.putArray("collisions");
+		for (Collision collision : snapshot.getCollisions()) {
+			collisions.addObject()
+				.put("type", collision.type())
+				.put("existing", collision.existing())
+				.put("previous", list.indexOf(collision.previous()))
+				.put("key", collision.key())
+				.put("spec", list.indexOf(collision.spec()));
+		}
+		ArrayNode rejected = metadata.putArray("rejected");
+		snapshot.getRejected()
+			.forEach((spec, reason) -> rejected.addObject().put("spec", list.indexOf(spec)).put("reason", reason));
+		byte[] head;
+		try {
+			head = mapper.writeValueAsBytes(metadata);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot serialize snapshot", e);
+		}
+		byte[] api = snapshot.getBytes(Encoding.JSON);
+		byte[] result = Arrays.copyOf(head, head.length + 1 + api.length);
+		result[head.length] = '\n';
+		System.arraycopy(api, 0, result, head.length + 1, api.length);
+		return result;
+	}
+
+	/**
+	 * Read a snapshot from a peer.
+	 * @param bytes the serialized snapshot
+	 * @param specs the specs that are aggregated here
+	 * @param version the version of the configuration here
+	 * @return the snapshot, or null if the peer aggregates different specs or has a
+	 * different configuration
+	 * @throws IOException if the content cannot be parsed
+	 */
+	static OpenApiSnapshot decode(byte[] bytes, OpenApiAggregatorSpecs specs, String version) throws IOException {
+		int newline = 0;
+		while (newline < bytes.length && bytes[newline] != '\n') {
+			newline++;
+		}
+		JsonNode metadata = mapper.readTree(bytes, 0, newline);
+		List<Spec> list = new ArrayList<>(specs.getSpecs());
+		List<String> names = new ArrayList<>();
+		metadata.path("specs").forEach(name -> names.add(name.asText()));
+		if (!names.equals(list.stream().map(OpenApiPeers::describe).toList())) {
+			logger.debug("Ignoring snapshot from a peer with different specs: " + names);
+			return null;
+		}
+		if (!config(specs, version).equals(metadata.path("config").asText())) {
+			logger.debug("Ignoring snapshot from a peer with a different configuration");
+			return null;
+		}
+		byte[] json = Arrays.copyOfRange(bytes, Math.min(newline + 1, bytes.length), bytes.length);
+		// The 3.0 mapper would drop 3.1 fields like webhooks and type arrays
+		SpecVersion specVersion = SpecVersion.V31.name().equals(metadata.path("specVersion").asText()) ? SpecVersion.V31
+				: SpecVersion.V30;
+		OpenAPI api = (specVersion == SpecVersion.V31 ? Json31.mapper() : Json.mapper()).readValue(json, OpenAPI.class);
+		api.setSpecVersion(specVersion);
+		Map<Spec, Contribution> contributions = new LinkedHashMap<>();
+		for (JsonNode node : metadata.path("contributions")) {
+			Map<String, Set<String>> components = new LinkedHashMap<>();
+			for (Iterator<Map.Entry<String, JsonNode>> fields = node.path("components").fields(); fields.hasNext();) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				components.put(field.getKey(), strings(field.getValue()));
+			}
+			contributions.put(list.get(node.path("spec").asInt()),
+					new Contribution(strings(node.path("paths")), components));
+		}
+		List<Collision> collisions = new ArrayList<>();
+		for (JsonNode node : metadata.path("collisions")) {
+			int previous = node.path("previous").asInt();
+			collisions.add(new Collision(node.path("type").asText(), node.path("existing").asText(),
+					previous < 0 ? null : list.get(previous), node.path("key").asText(),
+					list.get(node.path("spec").asInt())));
+		}
+		Map<Spec, String> rejected = new LinkedHashMap<>();
+		for (JsonNode node : metadata.path("rejected")) {
+			rejected.put(list.get(node.path("spec").asInt()), node.path("reason").asText());
+		}
+		JsonNode source = metadata.path("source");
+		OpenApiSnapshot snapshot = new OpenApiSnapshot(api, contributions, collisions, rejected,
+				metadata.path("created").asLong(), specs.getNames(), source.isTextual() ? source.asText() : null);
+		snapshot.setGeneration(metadata.path("generation").asLong());
+		snapshot.setEpoch(metadata.path("epoch").asLong());
+		// Same bytes, so the same ETag as on the peer
+		snapshot.preset(Encoding.JSON, json);
+		return snapshot;
+	}
+
+	private static Set<String> strings(JsonNode array) {
+		Set<String> result = new LinkedHashSet<>();
+		array.forEach(value -> result.add(value.asText()));
+		return result;
+	}
+
+	private static String describe(Spec spec) {
+		return spec.name() != null ? spec.name() : spec.resource().getDescription();
+	}
+
+	private static String config(OpenApiAggregatorSpecs specs, String version) {
+		StringBuilder builder = new StringBuilder(version).append('\n').append(specs.getConflictPolicy());
+		for (Spec spec : specs.getSpecs()) {
+			builder.append('\n')
+				.append(spec.name())
+				.append(' ')
+				.append(spec.resource().getDescription())
+				.append(' ')
+				.append(spec.limits());
+		}
+		return DigestUtils.md5DigestAsHex(builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private record Fetched(OpenApiSnapshot snapshot, boolean compatible) {
+
+		static final Fetched NONE = new Fetched(null, false);
+
+		static final Fetched NOT_MODIFIED = new Fetched(null, true);
+
+	}
+
+	/**
+	 * The part that an instance plays in sharing snapshots.
+	 */
+	public enum Role {
+
+		/**
+		 * Aggregates from the upstreams like a standalone instance, and serves its
+		 * snapshots to the consumers.
+		 */
+		PRODUCER,
+
+		/**
+		 * Takes snapshots from the producers, and only reads the upstreams itself while
+		 * no compatible producer answers.
+		 */
+		CONSUMER
+
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Event that can be published by an application (e.g. when a backend service has been
+ * redeployed) to request a refresh of the aggregated spec. Refreshes are debounced, so it
+ * is fine to publish a burst of these events.
+ */
+@SuppressWarnings("serial")
+public class OpenApiRefreshEvent extends ApplicationEvent {
+
+	/**
+	 * Create a new {@link OpenApiRefreshEvent} instance.
+	 * @param source the component that published the event
+	 */
+	public OpenApiRefreshEvent(Object source) {
+		super(source);
+	}
+
+}
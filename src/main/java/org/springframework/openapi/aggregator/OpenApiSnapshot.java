@@ -0,0 +1,751 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.openapi.aggregator.FragmentIndex.Fragment;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.core.util.Yaml;
+import io.swagger.v3.core.util.Yaml31;
+import io.swagger.v3.oas.models.Components;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.Paths;
+import io.swagger.v3.oas.models.SpecVersion;
+
+/**
+ * An aggregated spec, together with its serialized forms. The model is compacted in place
+ * (see {@link SnapshotCompactor}) before the snapshot is published, and treated as read
+ * only after that: each encoding is computed at most once per snapshot and then cached,
+ * so serving the spec costs no more than copying bytes.
+ */
+public class OpenApiSnapshot {
+
+	private final OpenAPI api;
+
+	private final Map<Spec, Contribution> contributions;
+
+	private final List<Collision> collisions;
+
+	private final Map<Spec, String> rejected;
+
+	private final Map<Spec, String> names;
+
+	private final String source;
+
+	private final long created;
+
+	private volatile long generation;
+
+	private volatile long epoch;
+
+	private final Map<Encoding, byte[]> encodings = new EnumMap<>(Encoding.class);
+
+	private final Map<Spec, byte[]> slices = new ConcurrentHashMap<>();
+
+	private volatile FragmentIndex fragments;
+
+	private volatile String etag;
+
+	private volatile Map<String, String> fingerprints;
+
+	private volatile Map<String, Long> sizes;
+
+	private volatile long accessed = System.nanoTime();
+
+	private volatile OpenApiHeapBudget budget;
+
+	/**
+	 * Create a new {@link OpenApiSnapshot} instance.
+	 * @param api the aggregated spec
+	 */
+	public OpenApiSnapshot(OpenAPI api) {
+		this(api, Collections.emptyMap());
+	}
+
+	/**
+	 * Create a new {@link OpenApiSnapshot} instance.
+	 * @param api the aggregated spec
+	 * @param contributions the keys that each spec contributed to the aggregate
+	 */
+	public OpenApiSnapshot(OpenAPI api, Map<Spec, Contribution> contributions) {
+		this(api, contributions, Collections.emptyList());
+	}
+
+	/**
+	 * Create a new {@link OpenApiSnapshot} instance.
+	 * @param api the aggregated spec
+	 * @param contributions the keys that each spec contributed to the aggregate
+	 * @param collisions the keys that more than one spec contributed
+	 */
+	public OpenApiSnapshot(OpenAPI api, Map<Spec, Contribution> contributions, List<Collision> collisions) {
+		this(api, contributions, collisions, Collections.emptyMap());
+	}
+
+	/**
+	 * Create a new {@link OpenApiSnapshot} instance.
+	 * @param api the aggregated spec
+	 * @param contributions the keys that each spec contributed to the aggregate
+	 * @param collisions the keys that more than one spec contributed
+	 * @param rejected the specs that were left out because they were over their
+	 * {@link SpecLimits}, with the reason
+	 */
+	public OpenApiSnapshot(OpenAPI api, Map<Spec, Contribution> contributions, List<Collision> collisions,
+			Map<Spec, String> rejected) {
+		this(api, contributions, collisions, rejected, System.currentTimeMillis());
+	}
+
+	OpenApiSnapshot(OpenAPI api, Map<Spec, Contribution> contributions, List<Collision> collisions,
+			Map<Spec, String> rejected, long created) {
+		this(api, contributions, collisions, rejected, created, null, null);
+	}
+
+	OpenApiSnapshot(OpenAPI api, Map<Spec, Contribution> contributions, List<Collision> collisions,
+			Map<Spec, String> rejected, long created, Map<Spec, String> names, String source) {
+		this.created = created;
+		this.names = names;
+		this.source = source;
+		this.api = api;
+		this.contributions = Collections.unmodifiableMap(contributions);
+		this.collisions = Collections.unmodifiableList(collisions);
+		this.rejected = Collections.unmodifiableMap(rejected);
+	}
+
+	/**
+	 * The aggregated spec. Callers should treat it as read only.
+	 * @return the spec
+	 */
+	public OpenAPI getApi() {
+		return this.api;
+	}
+
+	/**
+	 * The keys that each spec contributed to the aggregate, in the order they were
+	 * merged.
+	 * @return the contributions
+	 */
+	public Map<Spec, Contribution> getContributions() {
+		return this.contributions;
+	}
+
+	/**
+	 * The paths and components that collided during the aggregation, however they were
+	 * resolved (according to the {@link ConflictPolicy}).
+	 * @return the collisions in the order they were found
+	 */
+	public List<Collision> getCollisions() {
+		return this.collisions;
+	}
+
+	/**
+	 * When the aggregate was created (possibly by another gateway instance, if it was
+	 * shared by a peer).
+	 * @return the creation time
+	 */
+	public Instant getCreated() {
+		return Instant.ofEpochMilli(this.created);
+	}
+
+	/**
+	 * The position of the aggregate in the sequence of snapshots published by a group of
+	 * peers: one more than the snapshot it replaced, or the same as on the peer it was
+	 * taken from. Unlike the creation time it does not depend on the clocks of the
+	 * instances agreeing.
+	 * @return the generation, or 0 if the snapshot has not been published
+	 */
+	long getGeneration() {
+		return this.generation;
+	}
+
+	void setGeneration(long generation) {
+		this.generation = generation;
+	}
+
+	/**
+	 * The producer that numbered the {@link #getGeneration() generation}: the time it
+	 * started, so that a producer that restarts (and numbers its snapshots from 1 again)
+	 * is recognized as a new sequence. Generations are only compared within an epoch.
+	 * @return the epoch, or 0 if the snapshot was not aggregated by a producer
+	 */
+	long getEpoch() {
+		return this.epoch;
+	}
+
+	void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * A digest of the upstream content that the aggregate was built from (one content
+	 * digest per declared spec, or the reason it was rejected). Two snapshots from the
+	 * same aggregator with the same source are the same, as long as the filters and
+	 * processors only depend on the content they are given, so a refresh can be discarded
+	 * without serializing it.
+	 * @return the digest or null if the snapshot was not created by an aggregator
+	 */
+	String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * The specs that were left out of the aggregate because they were over their
+	 * {@link SpecLimits}.
+	 * @return the reason for each rejected spec, in the order they were read
+	 */
+	public Map<Spec, String> getRejected() {
+		return this.rejected;
+	}
+
+	/**
+	 * Extract the part of the aggregate that came from a single spec. The result shares
+	 * the rewritten paths, operation ids and schema names with the full aggregate, and
+	 * the top level metadata (info, servers, security etc.).
+	 * @param spec the spec to extract
+	 * @return a new spec with only the contributed paths and components, or null if the
+	 * spec did not contribute anything
+	 */
+	public OpenAPI slice(Spec spec) {
+		Contribution contribution = this.contributions.get(spec);
+		if (contribution == null) {
+			return null;
+		}
+		OpenAPI result = new OpenAPI(this.api.getSpecVersion());
+		result.setOpenapi(this.api.getOpenapi());
+		result.setInfo(this.api.getInfo());
+		result.setServers(this.api.getServers());
+		result.setSecurity(this.api.getSecurity());
+		result.setTags(this.api.getTags());
+		result.setExternalDocs(this.api.getExternalDocs());
+		Paths paths = new Paths();
+		if (this.api.getPaths() != null) {
+			for (String path : contribution.paths()) {
+				PathItem item = this.api.getPaths().get(path);
+				if (item != null) {
+					paths.addPathItem(path, item);
+				}
+			}
+		}
+		result.setPaths(paths);
+		Components components = new Components();
+		for (ComponentType type : ComponentType.values()) {
+			Map<String, Object> source = type.get(this.api.getComponents());
+			Set<String> keys = contribution.components().get(type.getKey());
+			if (source != null && keys != null) {
+				Map<String, Object> target = new LinkedHashMap<>();
+				for (String key : keys) {
+					if (source.containsKey(key)) {
+						target.put(key, source.get(key));
+					}
+				}
+				type.set(components, target);
+			}
+		}
+		// Security schemes are global, so every slice needs them
+		if (this.api.getComponents() != null && this.api.getComponents().getSecuritySchemes() != null) {
+			components.setSecuritySchemes(this.api.getComponents().getSecuritySchemes());
+		}
+		result.setComponents(components);
+		return result;
+	}
+
+	/**
+	 * The specs that contributed to the aggregate, keyed by name. Specs without an
+	 * explicit name are named after their declared position (starting at 1, see
+	 * {@link OpenApiAggregatorSpecs#getNames()}), or their position in the contributions
+	 * if the snapshot was created without the declared specs.
+	 * @return the named specs in the order they were merged
+	 */
+	public Map<String, Spec> getDocuments() {
+		Map<String, Spec> documents = new LinkedHashMap<>();
+		int index = 0;
+		for (Spec spec : this.contributions.keySet()) {
+			index++;
+			String name = this.names != null ? this.names.get(spec) : null;
+			if (name == null) {
+				name = spec.name() != null ? spec.name() : String.valueOf(index);
+			}
+			documents.put(name, spec);
+		}
+		return documents;
+	}
+
+	/**
+	 * The {@link #slice(Spec) slice} of the aggregate for a single spec, serialized as
+	 * JSON. Cached in the same way as the full aggregate.
+	 * @param spec the spec to extract
+	 * @return the serialized slice or null if the spec did not contribute anything
+	 */
+	public byte[] getBytes(Spec spec) {
+		if (!this.contributions.containsKey(spec)) {
+			return null;
+		}
+		this.accessed = System.nanoTime();
+		byte[] bytes = this.slices.get(spec);
+		if (bytes == null) {
+			bytes = this.slices.computeIfAbsent(spec, key -> Encoding.JSON.encode(slice(key)));
+			grown();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The spec serialized with the given encoding.
+	 * @param encoding the encoding to use
+	 * @return the serialized spec
+	 */
+	public byte[] getBytes(Encoding encoding) {
+		this.accessed = System.nanoTime();
+		byte[] bytes;
+		boolean grown = false;
+		synchronized (this.encodings) {
+			bytes = this.encodings.get(encoding);
+			if (bytes == null) {
+				bytes = encoding.encode(this.api);
+				this.encodings.put(encoding, bytes);
+				grown = true;
+			}
+		}
+		if (grown) {
+			grown();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Use an encoding that is already known, e.g. the bytes that a peer sent, instead of
+	 * serializing the model again.
+	 * @param encoding the encoding
+	 * @param bytes the serialized spec
+	 */
+	void preset(Encoding encoding, byte[] bytes) {
+		synchronized (this.encodings) {
+			this.encodings.putIfAbsent(encoding, bytes);
+		}
+	}
+
+	/**
+	 * The part of the spec at a JSON Pointer, serialized as JSON. The index is built on
+	 * first use and the fragments are cached.
+	 * @param pointer a JSON Pointer (e.g. "/paths/~1users/get")
+	 * @return the fragment, or null if there is nothing at that location
+	 * @throws IllegalArgumentException if the pointer is not valid
+	 */
+	Fragment getFragment(String pointer) {
+		this.accessed = System.nanoTime();
+		return index().get(pointer);
+	}
+
+	/**
+	 * A strong ETag for the JSON form of the snapshot, which also serves as its version.
+	 * @return the ETag (including quotes)
+	 */
+	public String getEtag() {
+		String etag = this.etag;
+		if (etag == null) {
+			etag = "\"" + DigestUtils.md5DigestAsHex(getBytes(Encoding.JSON)) + "\"";
+			this.etag = etag;
+		}
+		return etag;
+	}
+
+	/**
+	 * A strong ETag for the snapshot serialized with the given encoding.
+	 * @param encoding the encoding
+	 * @return the ETag (including quotes)
+	 */
+	public String getEtag(Encoding encoding) {
+		String etag = getEtag();
+		if (encoding == Encoding.JSON) {
+			return etag;
+		}
+		return etag.substring(0, etag.length() - 1) + "-" + encoding.name().toLowerCase() + "\"";
+	}
+
+	/**
+	 * Content hashes for the parts of the snapshot: each path, each component, and each
+	 * of the other top level entries, keyed by JSON Pointer. Two snapshots with the same
+	 * hash for a pointer have the same content there.
+	 * @return the fingerprints
+	 */
+	public Map<String, String> getFingerprints() {
+		Map<String, String> result = this.fingerprints;
+		if (result == null) {
+			result = FragmentIndex.fingerprints(getBytes(Encoding.JSON));
+			this.fingerprints = result;
+		}
+		return result;
+	}
+
+	FragmentIndex index() {
+		FragmentIndex index = this.fragments;
+		if (index == null) {
+			byte[] json = getBytes(Encoding.JSON);
+			Set<String> cacheable = getFingerprints().keySet();
+			boolean grown = false;
+			synchronized (this) {
+				if (this.fragments == null) {
+					this.fragments = new FragmentIndex(json, cacheable, this::grown);
+					grown = true;
+				}
+				index = this.fragments;
+			}
+			if (grown) {
+				grown();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * An estimate of the heap retained by the aggregated model (not counting the cached
+	 * encodings), computed from its JSON form the first time it is needed.
+	 * @return the estimated size in bytes
+	 */
+	public long getRetainedSize() {
+		return sizes().values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * An estimate of the heap retained by the paths and components that a spec
+	 * contributed to the aggregated model.
+	 * @param spec the spec
+	 * @return the estimated size in bytes (zero if the spec did not contribute anything)
+	 */
+	public long getRetainedSize(Spec spec) {
+		Contribution contribution = this.contributions.get(spec);
+		if (contribution == null) {
+			return 0;
+		}
+		Map<String, Long> sizes = sizes();
+		long size = 0;
+		for (String path : contribution.paths()) {
+			size += sizes.getOrDefault("/paths/" + FragmentIndex.escape(path), 0L);
+		}
+		for (Map.Entry<String, Set<String>> entry : contribution.components().entrySet()) {
+			String prefix = "/components/" + FragmentIndex.escape(entry.getKey()) + "/";
+			for (String key : entry.getValue()) {
+				size += sizes.getOrDefault(prefix + FragmentIndex.escape(key), 0L);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The heap retained by an encoding of the snapshot, if it is cached.
+	 * @param encoding the encoding
+	 * @return the size in bytes (zero if the encoding has not been computed, or has been
+	 * evicted)
+	 */
+	public long getRetainedSize(Encoding encoding) {
+		synchronized (this.encodings) {
+			return RetainedSize.of(this.encodings.get(encoding));
+		}
+	}
+
+	private Map<String, Long> sizes() {
+		Map<String, Long> result = this.sizes;
+		if (result == null) {
+			result = RetainedSize.model(getBytes(Encoding.JSON));
+			this.sizes = result;
+		}
+		return result;
+	}
+
+	/**
+	 * The size of the model if it has been measured already, so that accounting never
+	 * does any work on a request thread.
+	 */
+	long measured() {
+		Map<String, Long> sizes = this.sizes;
+		return sizes == null ? 0 : sizes.values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * The size of all the cached encodings.
+	 */
+	long encoded() {
+		long size = 0;
+		synchronized (this.encodings) {
+			for (byte[] bytes : this.encodings.values()) {
+				size += RetainedSize.of(bytes);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The size of the views derived from the snapshot: the slices for single specs and
+	 * the fragment index (a JSON tree about the size of the model, plus the fragments).
+	 */
+	long viewed() {
+		long size = 0;
+		for (byte[] bytes : this.slices.values()) {
+			size += RetainedSize.of(bytes);
+		}
+		FragmentIndex index = this.fragments;
+		if (index != null) {
+			size += measured() + index.cached();
+		}
+		return size;
+	}
+
+	/**
+	 * Nanosecond timestamp of the last time the snapshot was served in some form.
+	 */
+	long accessed() {
+		return this.accessed;
+	}
+
+	/**
+	 * Discard the slices and the fragment index. They are computed again if they are
+	 * needed.
+	 * @return the estimated number of bytes freed
+	 */
+	long evictViews() {
+		long size = viewed();
+		this.slices.clear();
+		synchronized (this) {
+			this.fragments = null;
+		}
+		return size;
+	}
+
+	/**
+	 * Discard the cached encodings apart from JSON, which the ETag, the fragments and the
+	 * patches are all based on. They are computed again if they are needed.
+	 * @return the estimated number of bytes freed
+	 */
+	long evictEncodings() {
+		long size = 0;
+		synchronized (this.encodings) {
+			for (Encoding encoding : Encoding.values()) {
+				if (encoding != Encoding.JSON) {
+					size += RetainedSize.of(this.encodings.remove(encoding));
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Account for the caches of this snapshot in a budget, which is scheduled for a check
+	 * whenever one of them grows.
+	 * @param budget the budget
+	 */
+	void setBudget(OpenApiHeapBudget budget) {
+		this.budget = budget;
+	}
+
+	private void grown() {
+		OpenApiHeapBudget budget = this.budget;
+		if (budget != null) {
+			budget.schedule();
+		}
+	}
+
+	/**
+	 * The paths and component names that a single spec contributed to an aggregate.
+	 *
+	 * @param paths the URL paths (after filtering)
+	 * @param components the component names (after filtering) keyed by type (e.g.
+	 * "schemas")
+	 */
+	public record Contribution(Set<String> paths, Map<String, Set<String>> components) {
+
+		/**
+		 * Record the keys of a filtered spec.
+		 * @param item the filtered spec
+		 * @return the contribution
+		 */
+		public static Contribution of(OpenAPI item) {
+			Set<String> paths = item.getPaths() == null ? Collections.emptySet()
+					: new LinkedHashSet<>(item.getPaths().keySet());
+			Map<String, Set<String>> components = new LinkedHashMap<>();
+			for (ComponentType type : ComponentType.values()) {
+				Map<String, Object> map = type.get(item.getComponents());
+				if (map != null && !map.isEmpty()) {
+					components.put(type.getKey(), new LinkedHashSet<>(map.keySet()));
+				}
+			}
+			return new Contribution(paths, components);
+		}
+
+	}
+
+	/**
+	 * A path or component that was contributed by more than one spec.
+	 *
+	 * @param type "paths" or the type of component (e.g. "schemas")
+	 * @param existing the key that was already in the aggregate
+	 * @param previous the spec that contributed the existing key (null for the base)
+	 * @param key the colliding key (different from the existing key only for templated
+	 * paths with different variable names)
+	 * @param spec the spec that contributed the colliding key
+	 */
+	public record Collision(String type, String existing, Spec previous, String key, Spec spec) {
+
+		/**
+		 * A human readable description of the collision.
+		 * @return the description
+		 */
+		public String getDescription() {
+			return type + " " + key + " from " + describe(spec) + " with " + existing + " from " + describe(previous);
+		}
+
+		private static String describe(Spec spec) {
+			if (spec == null) {
+				return "base";
+			}
+			return spec.name() != null ? spec.name() : spec.resource().getDescription();
+		}
+
+	}
+
+	/**
+	 * The wire formats that a snapshot can be serialized to.
+	 */
+	public enum Encoding {
+
+		/**
+		 * Plain JSON.
+		 */
+		JSON(null, "application/json"),
+
+		/**
+		 * YAML, as often used for hand-written specs.
+		 */
+		YAML(null, "application/yaml", "application/x-yaml"),
+
+		/**
+		 * Binary JSON using Jackson Smile, if it is on the classpath.
+		 */
+		SMILE("com.fasterxml.jackson.dataformat.smile.SmileFactory", "application/x-jackson-smile"),
+
+		/**
+		 * Binary JSON using CBOR (RFC 8949), if it is on the classpath.
+		 */
+		CBOR("com.fasterxml.jackson.dataformat.cbor.CBORFactory", "application/cbor");
+
+		private final boolean available;
+
+		private final String[] mediaTypes;
+
+		private ObjectMapper mapper;
+
+		private ObjectMapper mapper31;
+
+		Encoding(String marker, String... mediaTypes) {
+			this.available = marker == null || ClassUtils.isPresent(marker, Encoding.class.getClassLoader());
+			this.mediaTypes = mediaTypes;
+		}
+
+		/**
+		 * Whether the libraries needed for this encoding are on the classpath.
+		 * @return true if the encoding can be used
+		 */
+		public boolean isAvailable() {
+			return this.available;
+		}
+
+		/**
+		 * The media types that this encoding can be served as.
+		 * @return the media types
+		 */
+		public String[] getMediaTypes() {
+			return this.mediaTypes.clone();
+		}
+
+		byte[] encode(OpenAPI api) {
+			if (!this.available) {
+				throw new IllegalStateException("Encoding " + this + " is not available on the classpath");
+			}
+			try {
+				return mapper(api.getSpecVersion()).writeValueAsBytes(api);
+			}
+			catch (JsonProcessingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private synchronized ObjectMapper mapper(SpecVersion version) {
+			// The 3.0 mappers would drop 3.1 fields like webhooks and type arrays
+			if (version == SpecVersion.V31) {
+				if (this.mapper31 == null) {
+					this.mapper31 = configure(switch (this) {
+						case JSON -> Json31.mapper().copy();
+						case YAML -> Yaml31.mapper().copy();
+						case SMILE -> BinaryMappers.smile(Json31.mapper());
+						case CBOR -> BinaryMappers.cbor(Json31.mapper());
+					});
+				}
+				return this.mapper31;
+			}
+			if (this.mapper == null) {
+				this.mapper = configure(switch (this) {
+					case JSON -> Json.mapper().copy();
+					case YAML -> Yaml.mapper().copy();
+					case SMILE -> BinaryMappers.smile(Json.mapper());
+					case CBOR -> BinaryMappers.cbor(Json.mapper());
+				});
+			}
+			return this.mapper;
+		}
+
+		private static ObjectMapper configure(ObjectMapper mapper) {
+			mapper.setDefaultPropertyInclusion(
+					JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_DEFAULT));
+			return mapper;
+		}
+
+	}
+
+	/**
+	 * Keeps references to optional dataformat classes out of {@link Encoding} so they are
+	 * only loaded when the encoding is actually used.
+	 */
+	private static class BinaryMappers {
+
+		static ObjectMapper smile(ObjectMapper json) {
+			return json.copyWith(new SmileFactory());
+		}
+
+		static ObjectMapper cbor(ObjectMapper json) {
+			return json.copyWith(new CBORFactory());
+		}
+
+	}
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Holds the current {@link OpenApiSnapshot} and refreshes it on demand. Refresh requests
+ * are debounced, so that a burst of triggers (e.g. several backends redeploying together)
+ * results in a single aggregation, and there is never more than one aggregation in
+ * flight. Callers that want the result of a refresh can wait on the future returned from
+ * {@link #refresh()}, which is shared by all the triggers that were coalesced. If a
+ * refresh produces the same aggregate as before, the previous snapshot (with its cached
+ * encodings) is kept and nobody is notified, otherwise an {@link OpenApiChangeEvent}
+ * describing the changes is published.
+ */
+public class OpenApiSnapshots
+		implements ApplicationListener<OpenApiRefreshEvent>, ApplicationEventPublisherAware, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenApiSnapshots.class);
+
+	private final OpenApiAggregator aggregator;
+
+	private final ScheduledExecutorService executor;
+
+	private final boolean owner;
+
+	private final List<Consumer<OpenApiSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+	private ApplicationEventPublisher publisher;
+
+	private OpenApiValidator validator;
+
+	private boolean compact = true;
+
+	private OpenApiPeers peers;
+
+	private OpenApiHeapBudget budget;
+
+	private Duration debounce = Duration.ofMillis(500);
+
+	private Duration maxWait = Duration.ofSeconds(5);
+
+	private volatile OpenApiSnapshot current;
+
+	private CompletableFuture<OpenApiSnapshot> next;
+
+	private ScheduledFuture<?> timer;
+
+	private long firstRequest;
+
+	private boolean revalidate;
+
+	private boolean running;
+
+	/**
+	 * Create a new {@link OpenApiSnapshots} instance.
+	 * @param aggregator the aggregator to use to compute new snapshots
+	 */
+	public OpenApiSnapshots(OpenApiAggregator aggregator) {
+		this(aggregator, executor(), true);
+	}
+
+	/**
+	 * Create a new {@link OpenApiSnapshots} instance that aggregates on a shared thread.
+	 * @param aggregator the aggregator to use to compute new snapshots
+	 * @param executor the single threaded executor to aggregate on
+	 * @param owner whether to shut down the executor when this instance is destroyed
+	 */
+	OpenApiSnapshots(OpenApiAggregator aggregator, ScheduledExecutorService executor, boolean owner) {
+		this.aggregator = aggregator;
+		this.executor = executor;
+		this.owner = owner;
+	}
+
+	static ScheduledExecutorService executor() {
+		return Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "openapi-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Set the quiet period to wait after a refresh trigger before aggregating.
+	 * @param debounce the debounce period
+	 */
+	public void setDebounce(Duration debounce) {
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Set the maximum time that a refresh can be postponed by repeated triggers.
+	 * @param maxWait the maximum delay
+	 */
+	public void setMaxWait(Duration maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Set a validator to check each refreshed aggregate with. An aggregate that fails
+	 * validation is rejected and the previous snapshot is kept. The first aggregate has
+	 * nothing to fall back to, so its problems are only logged.
+	 * @param validator the validator to use (null to switch off validation)
+	 */
+	public void setValidator(OpenApiValidator validator) {
+		this.validator = validator;
+	}
+
+	/**
+	 * Get snapshots from other instances of the same gateway instead of aggregating
+	 * locally, if the peers are a {@link OpenApiPeers.Role#CONSUMER consumer}: for the
+	 * first snapshot, on a refresh, and periodically (at the
+	 * {@link OpenApiPeers#getInterval() interval} of the peers). While a compatible peer
+	 * answers, a refresh only takes a {@link OpenApiPeers#isNewer newer} snapshot from it
+	 * and never reads the upstreams, and only if none answers is the aggregation local as
+	 * usual.
+	 * @param peers the peers to ask
+	 */
+	public void setPeers(OpenApiPeers peers) {
+		this.peers = peers;
+		long interval = peers.getInterval().toMillis();
+		if (interval > 0 && peers.getRole() == OpenApiPeers.Role.CONSUMER) {
+			this.executor.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Whether to compact each snapshot before it is published, sharing repeated strings
+	 * and replacing small maps with compact immutable ones. Switch it off if something
+	 * needs to modify the published model in place. Default true.
+	 * @param compact the flag to set
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * Account for each published snapshot in a budget. Use
+	 * {@link OpenApiHeapBudget#register(OpenApiSnapshots)} to set it.
+	 * @param budget the budget
+	 */
+	synchronized void setBudget(OpenApiHeapBudget budget) {
+		this.budget = budget;
+		if (this.current != null) {
+			this.current.setBudget(budget);
+		}
+	}
+
+	/**
+	 * Register a callback for new snapshots. It is called on the refresh thread.
+	 * @param listener the callback
+	 */
+	public void addListener(Consumer<OpenApiSnapshot> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * The current snapshot, aggregating synchronously if there isn't one yet.
+	 * @return the current snapshot
+	 */
+	public OpenApiSnapshot getCurrent() {
+		OpenApiSnapshot snapshot = this.current;
+		if (snapshot == null) {
+			synchronized (this) {
+				if (this.current == null) {
+					OpenApiSnapshot initial = this.peers != null ? this.peers.fetch(null) : null;
+					if (initial == null) {
+						initial = this.aggregator.snapshot();
+					}
+					if (this.validator != null) {
+						for (String problem : this.validator.validate(initial.getApi())) {
+							logger.warn("Invalid OpenAPI aggregate: " + problem);
+						}
+					}
+					publish(compact(initial));
+				}
+				snapshot = this.current;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Whether a peer is aggregating for this instance, so that it need not read the
+	 * upstreams itself (e.g. a {@link SpecPoller} can skip its polls).
+	 * @return true if the snapshots come from a peer
+	 */
+	boolean isFollowingPeer() {
+		return this.peers != null && this.peers.isAvailable();
+	}
+
+	/**
+	 * The current snapshot without aggregating if there isn't one yet.
+	 * @return the current snapshot or null
+	 */
+	OpenApiSnapshot getIfAvailable() {
+		return this.current;
+	}
+
+	/**
+	 * Request a refresh. The aggregation happens after the debounce period, and all
+	 * requests that arrive in the meantime share the same result. The upstreams are
+	 * revalidated, even if a {@link SpecPoller} normally keeps the cache fresh. If the
+	 * aggregation fails the current snapshot is kept and the future completes
+	 * exceptionally.
+	 * @return a future for the refreshed snapshot
+	 */
+	public CompletableFuture<OpenApiSnapshot> refresh() {
+		return refresh(true);
+	}
+
+	/**
+	 * Request a refresh, like {@link #refresh()}.
+	 * @param revalidate whether to revalidate the upstreams (false if the cache is known
+	 * to be fresh, e.g. because a {@link SpecPoller} has just fetched the one that
+	 * changed)
+	 * @return a future for the refreshed snapshot
+	 */
+	synchronized CompletableFuture<OpenApiSnapshot> refresh(boolean revalidate) {
+		this.revalidate |= revalidate;
+		long now = System.nanoTime();
+		if (this.next == null) {
+			this.next = new CompletableFuture<>();
+			this.firstRequest = now;
+		}
+		if (!this.running) {
+			schedule(now);
+		}
+		return this.next;
+	}
+
+	@Override
+	public void onApplicationEvent(OpenApiRefreshEvent event) {
+		refresh();
+	}
+
+	@Override
+	public void destroy() {
+		if (this.owner) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	private void schedule(long now) {
+		long delay = this.debounce.toNanos();
+		long deadline = this.firstRequest + this.maxWait.toNanos();
+		if (now + delay > deadline) {
+			delay = Math.max(0, deadline - now);
+		}
+		if (this.timer != null) {
+			this.timer.cancel(false);
+		}
+		this.timer = this.executor.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void run() {
+		CompletableFuture<OpenApiSnapshot> result;
+		boolean revalidate;
+		synchronized (this) {
+			this.timer = null;
+			if (this.running || this.next == null) {
+				return;
+			}
+			result = this.next;
+			revalidate = this.revalidate;
+			this.next = null;
+			this.revalidate = false;
+			this.running = true;
+		}
+		try {
+			// A refresh usually reaches all the replicas, and the first one to finish
+			// shares its snapshot, so any newer and different one from a peer will do
+			OpenApiSnapshot snapshot = this.peers != null ? this.peers.fetch(this.current) : null;
+			if (snapshot == null && isFollowingPeer() && this.current != null) {
+				// The peer has nothing newer, and it is the one that reads the upstreams
+				result.complete(this.current);
+				return;
+			}
+			if (snapshot == null) {
+				if (revalidate || this.peers != null) {
+					// The cache may be stale if a peer was aggregating until now
+					this.aggregator.expire();
+				}
+				snapshot = this.aggregator.snapshot();
+			}
+			result.complete(update(snapshot));
+		}
+		catch (Throwable e) {
+			logger.warn("Could not refresh OpenAPI aggregate, keeping the previous snapshot", e);
+			result.completeExceptionally(e);
+		}
+		finally {
+			synchronized (this) {
+				this.running = false;
+				if (this.next != null) {
+					// Triggers arrived while we were busy, so they need a fresh aggregate
+					schedule(System.nanoTime());
+				}
+			}
+		}
+	}
+
+	private void sync() {
+		OpenApiSnapshot current = this.current;
+		if (current == null) {
+			return;
+		}
+		try {
+			OpenApiSnapshot snapshot = this.peers.fetch(current);
+			if (snapshot != null) {
+				update(snapshot);
+			}
+		}
+		catch (Throwable e) {
+			logger.warn("Could not update OpenAPI aggregate from peer, keeping the previous snapshot", e);
+		}
+	}
+
+	private OpenApiSnapshot update(OpenApiSnapshot snapshot) {
+		if (this.validator != null) {
+			this.validator.check(snapshot.getApi());
+		}
+		OpenApiSnapshot previous = this.current;
+		// Built from the same upstream content, so the same aggregate, and there is no
+		// need to serialize it to find out
+		if (previous != null && previous.getSource() != null && previous.getSource().equals(snapshot.getSource())) {
+			return previous;
+		}
+		// The ETag is a hash of the whole JSON form, so only an identical aggregate is
+		// discarded
+		if (previous != null && previous.getEtag().equals(snapshot.getEtag())) {
+			return previous;
+		}
+		SnapshotDiff diff = previous == null ? null : SnapshotDiff.between(previous, snapshot);
+		compact(snapshot);
+		synchronized (this) {
+			publish(snapshot);
+		}
+		if (diff != null && this.publisher != null) {
+			this.publisher.publishEvent(new OpenApiChangeEvent(this, previous, snapshot, diff));
+		}
+		return snapshot;
+	}
+
+	private OpenApiSnapshot compact(OpenApiSnapshot snapshot) {
+		if (this.compact) {
+			SnapshotCompactor.Result result = SnapshotCompactor.compact(snapshot.getApi());
+			if (logger.isDebugEnabled()) {
+				logger.debug("Compacted OpenAPI aggregate: " + result.strings() + " duplicate strings and "
+						+ result.maps() + " maps, about " + result.saved() / 1024 + "KB saved");
+			}
+		}
+		return snapshot;
+	}
+
+	private void publish(OpenApiSnapshot snapshot) {
+		if (snapshot.getGeneration() == 0) {
+			// Aggregated here, not taken from a peer that already numbered it
+			long epoch = this.peers != null && this.peers.getRole() == OpenApiPeers.Role.PRODUCER
+					? this.peers.getEpoch() : 0;
+			OpenApiSnapshot current = this.current;
+			snapshot.setEpoch(epoch);
+			snapshot.setGeneration(current == null || current.getEpoch() != epoch ? 1 : current.getGeneration() + 1);
+		}
+		this.current = snapshot;
+		for (Consumer<OpenApiSnapshot> listener : this.listeners) {
+			listener.accept(snapshot);
+		}
+		if (this.budget != null) {
+			// Measure it here, not on a request thread, then make room for it
+			snapshot.getRetainedSize();
+			snapshot.setBudget(this.budget);
+			this.budget.schedule();
+		}
+	}
+
+}
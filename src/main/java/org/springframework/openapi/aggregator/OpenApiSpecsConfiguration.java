@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.function.Function;
+
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.openapi.aggregator.OpenApiAggregatorProperties.SpecDefinition;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+
+/**
+ * Autoconfiguration for specs declared in "spring.openapi.aggregator.specs", so that
+ * upstreams can be added without writing any code.
+ */
+@Configuration
+@AutoConfigureBefore(OpenApiAggregatorConfiguration.class)
+@ConditionalOnProperty(prefix = "spring.openapi.aggregator", name = "specs[0].uri")
+@EnableConfigurationProperties(OpenApiAggregatorProperties.class)
+public class OpenApiSpecsConfiguration {
+
+	/**
+	 * Create a new {@link OpenApiAggregatorSpecs} instance from configuration properties.
+	 * @param properties the configuration with the spec definitions
+	 * @param resources a loader for the spec locations
+	 * @return the specs to aggregate
+	 */
+	@Bean
+	@ConditionalOnMissingBean
+	public OpenApiAggregatorSpecs openApiAggregatorSpecs(OpenApiAggregatorProperties properties,
+			ResourceLoader resources) {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().conflicts(properties.getAggregator().getConflicts())
+			.parallel(properties.getAggregator().isParallel());
+		for (SpecDefinition definition : properties.getAggregator().getSpecs()) {
+			specs.spec(compile(definition, resources));
+		}
+		return specs;
+	}
+
+	static Spec compile(SpecDefinition definition, ResourceLoader resources) {
+		if (definition.getUri() == null) {
+			throw new IllegalStateException("A spec definition needs a uri");
+		}
+		Spec spec = new Spec(resources.getResource(definition.getUri())).name(definition.getName())
+			.limits(limits(definition));
+		PathRewriter paths = new PathRewriter(definition.getInclude(), definition.getExclude(), definition.getReplace(),
+				definition.getPrefix());
+		Function<String, String> operations = prefix(definition.getOperationPrefix());
+		Function<String, String> schemas = prefix(definition.getSchemaPrefix());
+		if (paths.isIdentity() && operations == null && schemas == null) {
+			return spec;
+		}
+		// Everything in one pass over the spec, instead of one per rule
+		return spec.rewrite(paths, operations != null ? operations : Function.identity(),
+				schemas != null ? schemas : Function.identity());
+	}
+
+	private static SpecLimits limits(SpecDefinition definition) {
+		SpecLimits limits = SpecLimits.NONE;
+		if (definition.getMaxSize() != null) {
+			limits = limits.maxBytes(definition.getMaxSize().toBytes());
+		}
+		if (definition.getMaxPaths() != null) {
+			limits = limits.maxPaths(definition.getMaxPaths());
+		}
+		if (definition.getMaxSchemas() != null) {
+			limits = limits.maxSchemas(definition.getMaxSchemas());
+		}
+		if (definition.getMaxDepth() != null) {
+			limits = limits.maxDepth(definition.getMaxDepth());
+		}
+		return limits;
+	}
+
+	private static Function<String, String> prefix(String prefix) {
+		if (prefix == null || prefix.isEmpty()) {
+			return null;
+		}
+		return value -> value != null ? prefix + value : null;
+	}
+
+}
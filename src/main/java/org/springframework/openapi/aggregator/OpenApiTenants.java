@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import io.swagger.v3.oas.models.OpenAPI;
+
+/**
+ * Several named aggregates (e.g. for a public, a partner and an internal API portal)
+ * served from the same application, each with its own {@link OpenApiAggregatorSpecs} view
+ * of the upstreams. All the tenants read through the same {@link SpecCache}, so an
+ * upstream that several of them include is downloaded and parsed once, and they are
+ * refreshed together. A tenant is selected by the host name of a request, or explicitly
+ * by name. The tenants are aggregated one at a time on a single thread, so the second
+ * tenant to need an upstream finds it in the cache.
+ */
+public class OpenApiTenants implements DisposableBean {
+
+	private final SpecCache cache;
+
+	private final OpenAPI base;
+
+	private final Map<String, OpenApiSnapshots> tenants = new LinkedHashMap<>();
+
+	private final Map<String, String> hosts = new HashMap<>();
+
+	private final ScheduledExecutorService executor = OpenApiSnapshots.executor();
+
+	private Duration debounce = Duration.ofMillis(500);
+
+	private Duration maxWait = Duration.ofSeconds(5);
+
+	private OpenApiValidator validator;
+
+	/**
+	 * Create a new {@link OpenApiTenants} instance.
+	 * @param cache the cache shared by all tenants
+	 * @param base the base to merge with, e.g. for common info
+	 */
+	public OpenApiTenants(SpecCache cache, OpenAPI base) {
+		this.cache = cache;
+		this.base = base;
+	}
+
+	/**
+	 * Set the debounce period for the refreshes of all the tenants added afterwards.
+	 * @param debounce the debounce period
+	 */
+	public void setDebounce(Duration debounce) {
+		this.debounce = debounce;
+	}
+
+	/**
+	 * Set the maximum refresh delay for all the tenants added afterwards. It is also how
+	 * long the tenants use the content in the shared cache without revalidating it, so
+	 * one refresh cycle of all the tenants only revalidates each upstream once.
+	 * @param maxWait the maximum delay
+	 */
+	public void setMaxWait(Duration maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Set a validator for the refreshes of all the tenants added afterwards.
+	 * @param validator the validator to use
+	 */
+	public void setValidator(OpenApiValidator validator) {
+		this.validator = validator;
+	}
+
+	/**
+	 * Add a tenant.
+	 * @param name the name of the tenant
+	 * @param specs the specs to aggregate for the tenant
+	 * @param hosts host names (without port) of requests that should be served this
+	 * tenant
+	 * @return this instance
+	 */
+	public synchronized OpenApiTenants tenant(String name, OpenApiAggregatorSpecs specs, String... hosts) {
+		if (this.tenants.containsKey(name)) {
+			throw new IllegalStateException("Duplicate tenant " + name);
+		}
+		OpenApiAggregator aggregator = new OpenApiAggregator(specs, this.base, this.cache);
+		aggregator.setMaxAge(this.maxWait);
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator, this.executor, false);
+		snapshots.setDebounce(this.debounce);
+		snapshots.setMaxWait(this.maxWait);
+		snapshots.setValidator(this.validator);
+		this.tenants.put(name, snapshots);
+		for (String host : hosts) {
+			this.hosts.put(host.toLowerCase(Locale.ROOT), name);
+		}
+		return this;
+	}
+
+	/**
+	 * The names of the tenants, in the order they were added.
+	 * @return the tenant names
+	 */
+	public synchronized Set<String> getNames() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(this.tenants.keySet()));
+	}
+
+	/**
+	 * The snapshots of a tenant.
+	 * @param name the name of the tenant
+	 * @return the snapshots, or null if there is no such tenant
+	 */
+	public synchronized OpenApiSnapshots getSnapshots(String name) {
+		return this.tenants.get(name);
+	}
+
+	/**
+	 * Find the tenant for a request host.
+	 * @param host the value of a Host header (with or without a port)
+	 * @return the snapshots for the tenant, or null if no tenant has that host
+	 */
+	public synchronized OpenApiSnapshots select(String host) {
+		if (host == null) {
+			return null;
+		}
+		String name = host.toLowerCase(Locale.ROOT);
+		if (name.startsWith("[")) {
+			// IPv6 literal
+			name = name.substring(0, name.indexOf(']') + 1);
+		}
+		else if (name.contains(":")) {
+			name = name.substring(0, name.indexOf(':'));
+		}
+		String tenant = this.hosts.get(name);
+		return tenant == null ? null : this.tenants.get(tenant);
+	}
+
+	/**
+	 * Refresh all the tenants. Upstreams that more than one tenant include are fetched
+	 * and parsed once, through the shared cache. The auto-configuration calls this
+	 * whenever the main aggregate publishes a new snapshot (however that refresh was
+	 * triggered), so the tenants do not listen for {@link OpenApiRefreshEvent}s
+	 * themselves, and they use the cache as the main aggregate left it instead of
+	 * revalidating every upstream again.
+	 * @return a future that completes when all the tenants have been refreshed
+	 */
+	public CompletableFuture<Void> refresh() {
+		List<CompletableFuture<OpenApiSnapshot>> futures = new ArrayList<>();
+		synchronized (this) {
+			for (OpenApiSnapshots snapshots : this.tenants.values()) {
+				futures.add(snapshots.refresh(false));
+			}
+		}
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new));
+	}
+
+	@Override
+	public synchronized void destroy() {
+		this.executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.oas.models.Components;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.PathItem.HttpMethod;
+import io.swagger.v3.oas.models.SpecVersion;
+import io.swagger.v3.oas.models.callbacks.Callback;
+import io.swagger.v3.oas.models.examples.Example;
+import io.swagger.v3.oas.models.headers.Header;
+import io.swagger.v3.oas.models.links.Link;
+import io.swagger.v3.oas.models.media.Content;
+import io.swagger.v3.oas.models.media.MediaType;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.oas.models.parameters.Parameter;
+import io.swagger.v3.oas.models.parameters.RequestBody;
+import io.swagger.v3.oas.models.responses.ApiResponse;
+import io.swagger.v3.oas.models.security.SecurityRequirement;
+
+/**
+ * Checks the internal consistency of an aggregated spec directly on the model, without
+ * serializing and re-parsing it. It finds the problems that aggregation typically causes:
+ * local <code>$ref</code>s to components that are not there, links to operation ids or
+ * operation refs that do not exist, operation ids used more than once, and security
+ * requirements that name an undefined security scheme. External references are not
+ * followed.
+ */
+public class OpenApiValidator {
+
+	/**
+	 * Validate a spec.
+	 * @param api the spec to validate
+	 * @return a description of each problem found (empty if the spec is valid)
+	 */
+	public List<String> validate(OpenAPI api) {
+		return new Validation(api).run();
+	}
+
+	/**
+	 * Validate a spec and fail if there are any problems.
+	 * @param api the spec to validate
+	 * @throws IllegalStateException if the spec is not valid
+	 */
+	public void check(OpenAPI api) {
+		List<String> problems = validate(api);
+		if (!problems.isEmpty()) {
+			throw new IllegalStateException("Invalid OpenAPI aggregate: " + String.join("; ", problems));
+		}
+	}
+
+	private static class Validation {
+
+		private final OpenAPI api;
+
+		private final Components components;
+
+		private final List<String> problems = new ArrayList<>();
+
+		private final Map<String, String> operationIds = new HashMap<>();
+
+		private final List<Link> links = new ArrayList<>();
+
+		private final List<String> linkLocations = new ArrayList<>();
+
+		private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private final Map<Object, JsonNode> trees = new IdentityHashMap<>();
+
+		Validation(OpenAPI api) {
+			this.api = api;
+			this.components = api.getComponents();
+		}
+
+		List<String> run() {
+			security(this.api.getSecurity(), "/security");
+			if (this.api.getPaths() != null) {
+				this.api.getPaths().forEach((path, item) -> pathItem(item, "/paths/" + FragmentIndex.escape(path)));
+			}
+			if (this.api.getWebhooks() != null) {
+				this.api.getWebhooks()
+					.forEach((name, item) -> pathItem(item, "/webhooks/" + FragmentIndex.escape(name)));
+			}
+			if (this.components != null) {
+				for (ComponentType type : ComponentType.values()) {
+					Map<String, Object> map = type.get(this.components);
+					if (map != null) {
+						String prefix = "/components/" + type.getKey() + "/";
+						map.forEach((name, value) -> component(value, prefix + FragmentIndex.escape(name)));
+					}
+				}
+			}
+			// Links last, when all the operation ids are known
+			for (int i = 0; i < this.links.size(); i++) {
+				linkTarget(this.links.get(i), this.linkLocations.get(i));
+			}
+			return this.problems;
+		}
+
+		private void component(Object value, String location) {
+			if (value instanceof Schema<?> schema) {
+				schema(schema, location);
+			}
+			else if (value instanceof ApiResponse response) {
+				response(response, location);
+			}
+			else if (value instanceof Parameter parameter) {
+				parameter(parameter, location);
+			}
+			else if (value instanceof Example example) {
+				ref(example.get$ref(), location);
+			}
+			else if (value instanceof RequestBody body) {
+				requestBody(body, location);
+			}
+			else if (value instanceof Header header) {
+				header(header, location);
+			}
+			else if (value instanceof Link link) {
+				link(link, location);
+			}
+			else if (value instanceof Callback callback) {
+				callback(callback, location);
+			}
+			else if (value instanceof PathItem item) {
+				pathItem(item, location);
+			}
+		}
+
+		private void pathItem(PathItem item, String location) {
+			if (item == null || !this.visited.add(item)) {
+				return;
+			}
+			ref(item.get$ref(), location);
+			parameters(item.getParameters(), location);
+			for (Map.Entry<HttpMethod, Operation> entry : item.readOperationsMap().entrySet()) {
+				operation(entry.getValue(), location + "/" + entry.getKey().name().toLowerCase());
+			}
+		}
+
+		private void operation(Operation operation, String location) {
+			String id = operation.getOperationId();
+			if (id != null) {
+				String existing = this.operationIds.putIfAbsent(id, location);
+				if (existing != null) {
+					this.problems.add(location + ": duplicate operationId " + id + " (also at " + existing + ")");
+				}
+			}
+			parameters(operation.getParameters(), location + "/parameters");
+			if (operation.getRequestBody() != null) {
+				requestBody(operation.getRequestBody(), location + "/requestBody");
+			}
+			if (operation.getResponses() != null) {
+				operation.getResponses()
+					.forEach((code, response) -> response(response, location + "/responses/" + code));
+			}
+			if (operation.getCallbacks() != null) {
+				operation.getCallbacks()
+					.forEach((name, callback) -> callback(callback, location + "/callbacks/" + name));
+			}
+			security(operation.getSecurity(), location + "/security");
+		}
+
+		private void parameters(List<Parameter> parameters, String location) {
+			if (parameters != null) {
+				for (int i = 0; i < parameters.size(); i++) {
+					parameter(parameters.get(i), location + "/" + i);
+				}
+			}
+		}
+
+		private void parameter(Parameter parameter, String location) {
+			ref(parameter.get$ref(), location);
+			schema(parameter.getSchema(), location + "/schema");
+			content(parameter.getContent(), location + "/content");
+			examples(parameter.getExamples(), location + "/examples");
+		}
+
+		private void requestBody(RequestBody body, String location) {
+			ref(body.get$ref(), location);
+			content(body.getContent(), location + "/content");
+		}
+
+		private void response(ApiResponse response, String location) {
+			if (response == null) {
+				return;
+			}
+			ref(response.get$ref(), location);
+			content(response.getContent(), location + "/content");
+			if (response.getHeaders() != null) {
+				response.getHeaders().forEach((name, header) -> header(header, location + "/headers/" + name));
+			}
+			if (response.getLinks() != null) {
+				response.getLinks().forEach((name, link) -> link(link, location + "/links/" + name));
+			}
+		}
+
+		private void header(Header header, String location) {
+			ref(header.get$ref(), location);
+			schema(header.getSchema(), location + "/schema");
+			content(header.getContent(), location + "/content");
+			examples(header.getExamples(), location + "/examples");
+		}
+
+		private void callback(Callback callback, String location) {
+			ref(callback.get$ref(), location);
+			callback.forEach((expression, item) -> pathItem(item, location + "/" + FragmentIndex.escape(expression)));
+		}
+
+		private void link(Link link, String location) {
+			ref(link.get$ref(), location);
+			if (link.get$ref() == null) {
+				this.links.add(link);
+				this.linkLocations.add(location);
+			}
+		}
+
+		private void linkTarget(Link link, String location) {
+			if (link.getOperationId() != null && !this.operationIds.containsKey(link.getOperationId())) {
+				this.problems.add(location + ": link to unknown operationId " + link.getOperationId());
+			}
+			String ref = link.getOperationRef();
+			if (ref != null && ref.startsWith("#/paths/")) {
+				String[] segments = decode(ref.substring("#/paths/".length())).split("/");
+				PathItem item = this.api.getPaths() == null ? null : this.api.getPaths().get(unescape(segments[0]));
+				Operation operation = null;
+				if (item != null && segments.length > 1) {
+					try {
+						operation = item.readOperationsMap()
+							.get(HttpMethod.valueOf(unescape(segments[1]).toUpperCase(Locale.ROOT)));
+					}
+					catch (IllegalArgumentException e) {
+						// Not a method
+					}
+				}
+				if (operation == null) {
+					this.problems.add(location + ": link to unknown operationRef " + ref);
+				}
+			}
+		}
+
+		private void content(Content content, String location) {
+			if (content != null) {
+				content.forEach((type, media) -> mediaType(media, location + "/" + FragmentIndex.escape(type)));
+			}
+		}
+
+		private void mediaType(MediaType media, String location) {
+			if (media == null) {
+				return;
+			}
+			schema(media.getSchema(), location + "/schema");
+			examples(media.getExamples(), location + "/examples");
+			if (media.getEncoding() != null) {
+				media.getEncoding().forEach((name, encoding) -> {
+					if (encoding.getHeaders() != null) {
+						encoding.getHeaders()
+							.forEach((header, value) -> header(value,
+									location + "/encoding/" + name + "/headers/" + header));
+					}
+				});
+			}
+		}
+
+		private void examples(Map<String, Example> examples, String location) {
+			if (examples != null) {
+				examples.forEach((name, example) -> ref(example.get$ref(), location + "/" + name));
+			}
+		}
+
+		/**
+		 * Walk a schema and everything nested in it with an explicit stack (in the same
+		 * order as a recursive walk), so that deeply nested schemas cannot overflow the
+		 * call stack.
+		 */
+		private void schema(Schema<?> root, String rootLocation) {
+			Deque<Pending> stack = new ArrayDeque<>();
+			stack.push(new Pending(root, rootLocation));
+			List<Pending> children = new ArrayList<>();
+			while (!stack.isEmpty()) {
+				Pending pending = stack.pop();
+				Schema<?> schema = pending.schema();
+				String location = pending.location();
+				if (schema == null || !this.visited.add(schema)) {
+					continue;
+				}
+				ref(schema.get$ref(), location);
+				children.clear();
+				if (schema.getProperties() != null) {
+					schema.getProperties()
+						.forEach((name, property) -> children
+							.add(new Pending(property, location + "/properties/" + FragmentIndex.escape(name))));
+				}
+				child(schema.getItems(), location, "/items", children);
+				child(schema.getNot(), location, "/not", children);
+				schemas(schema.getAllOf(), location + "/allOf", children);
+				schemas(schema.getAnyOf(), location + "/anyOf", children);
+				schemas(schema.getOneOf(), location + "/oneOf", children);
+				if (schema.getAdditionalProperties() instanceof Schema<?> additional) {
+					child(additional, location, "/additionalProperties", children);
+				}
+				// 3.1 (JSON Schema 2020-12) keywords
+				schemas(schema.getPatternProperties(), location + "/patternProperties", children);
+				schemas(schema.getDependentSchemas(), location + "/dependentSchemas", children);
+				schemas(schema.getPrefixItems(), location + "/prefixItems", children);
+				child(schema.getContains(), location, "/contains", children);
+				child(schema.getIf(), location, "/if", children);
+				child(schema.getThen(), location, "/then", children);
+				child(schema.getElse(), location, "/else", children);
+				child(schema.getPropertyNames(), location, "/propertyNames", children);
+				child(schema.getUnevaluatedProperties(), location, "/unevaluatedProperties", children);
+				child(schema.getUnevaluatedItems(), location, "/unevaluatedItems", children);
+				child(schema.getAdditionalItems(), location, "/additionalItems", children);
+				child(schema.getContentSchema(), location, "/contentSchema", children);
+				if (schema.getExtensions() != null && schema.getExtensions().get("$defs") != null) {
+					// The model has no $defs, so the parser leaves them as plain maps
+					raw(schema.getExtensions().get("$defs"), location + "/$defs");
+				}
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+
+		private static void child(Schema<?> schema, String location, String keyword, List<Pending> children) {
+			// Only build the location of a schema that is there, since it grows with
+			// depth
+			if (schema != null) {
+				children.add(new Pending(schema, location + keyword));
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		private static void schemas(List<Schema> schemas, String location, List<Pending> children) {
+			if (schemas != null) {
+				for (int i = 0; i < schemas.size(); i++) {
+					children.add(new Pending(schemas.get(i), location + "/" + i));
+				}
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		private static void schemas(Map<String, Schema> schemas, String location, List<Pending> children) {
+			if (schemas != null) {
+				schemas.forEach((name, schema) -> children
+					.add(new Pending(schema, location + "/" + FragmentIndex.escape(name))));
+			}
+		}
+
+		/**
+		 * Check the <code>$ref</code>s in a part of a schema that is only plain maps and
+		 * lists, again with an explicit stack.
+		 */
+		private void raw(Object root, String rootLocation) {
+			Deque<Object> values = new ArrayDeque<>();
+			Deque<String> locations = new ArrayDeque<>();
+			values.push(root);
+			locations.push(rootLocation);
+			while (!values.isEmpty()) {
+				Object value = values.pop();
+				String location = locations.pop();
+				if (value instanceof Map<?, ?> map) {
+					if (map.get("$ref") instanceof String ref) {
+						ref(ref, location);
+					}
+					map.forEach((key, child) -> {
+						values.push(child);
+						locations.push(location + "/" + FragmentIndex.escape(String.valueOf(key)));
+					});
+				}
+				else if (value instanceof List<?> list) {
+					for (int i = 0; i < list.size(); i++) {
+						values.push(list.get(i));
+						locations.push(location + "/" + i);
+					}
+				}
+			}
+		}
+
+		private void security(List<SecurityRequirement> requirements, String location) {
+			if (requirements == null) {
+				return;
+			}
+			Map<String, Object> schemes = ComponentType.SECURITY_SCHEMES.get(this.components);
+			for (SecurityRequirement requirement : requirements) {
+				for (String name : requirement.keySet()) {
+					if (schemes == null || !schemes.containsKey(name)) {
+						this.problems.add(location + ": unknown security scheme " + name);
+					}
+				}
+			}
+		}
+
+		private void ref(String ref, String location) {
+			if (ref == null || !ref.startsWith("#/components/")) {
+				return;
+			}
+			// Type, name and (for a ref into a component) a JSON Pointer inside it
+			String[] segments = decode(ref.substring("#/components/".length())).split("/", 3);
+			ComponentType type = ComponentType.forKey(segments[0]);
+			Map<String, Object> map = type == null ? null : type.get(this.components);
+			Object component = segments.length < 2 || map == null ? null : map.get(unescape(segments[1]));
+			if (component == null || (segments.length > 2 && tree(component).at("/" + segments[2]).isMissingNode())) {
+				this.problems.add(location + ": dangling $ref " + ref);
+			}
+		}
+
+		private JsonNode tree(Object component) {
+			return this.trees.computeIfAbsent(component, key -> mapper().valueToTree(key));
+		}
+
+		private ObjectMapper mapper() {
+			return this.api.getSpecVersion() == SpecVersion.V31 ? Json31.mapper() : Json.mapper();
+		}
+
+		/**
+		 * Percent-decode the JSON Pointer in a URI fragment, e.g. braces in a path,
+		 * before it is split into segments.
+		 */
+		private static String decode(String fragment) {
+			try {
+				return StringUtils.uriDecode(fragment, StandardCharsets.UTF_8);
+			}
+			catch (IllegalArgumentException e) {
+				// Not valid percent-encoding, so take it literally
+				return fragment;
+			}
+		}
+
+		private static String unescape(String segment) {
+			return segment.replace("~1", "/").replace("~0", "~");
+		}
+
+	}
+
+	private record Pending(Schema<?> schema, String location) {
+	}
+
+}
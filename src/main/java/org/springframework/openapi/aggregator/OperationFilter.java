@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.PathItem.HttpMethod;
+
+/**
+ * Selects the operations to keep from a spec, by tag, path glob, HTTP method and vendor
+ * extension. Use it as a {@link OpenApiAggregatorSpecs.Spec#filter(Function) filter} on a
+ * spec, e.g. <code>spec.filter(new OperationFilter().excludeTags("internal"))</code>. All
+ * the criteria are evaluated together in a single pass over the operations, and path
+ * items that are left without any operations are removed.
+ * <p>
+ * An operation is kept if it matches all the kinds of include criteria that have been
+ * given (any tag, any path glob, any method and any extension) and none of the exclude
+ * criteria. Path globs are matched against the paths as they are when the filter is
+ * applied, so put it before any {@link OpenApiAggregatorSpecs.Spec#prefix(String) prefix}
+ * to match the upstream paths.
+ */
+public class OperationFilter implements Function<OpenAPI, OpenAPI> {
+
+	private final Set<String> includeTags = new HashSet<>();
+
+	private final Set<String> excludeTags = new HashSet<>();
+
+	private final List<String> includePaths = new ArrayList<>();
+
+	private final List<String> excludePaths = new ArrayList<>();
+
+	private final Set<HttpMethod> includeMethods = EnumSet.noneOf(HttpMethod.class);
+
+	private final Set<HttpMethod> excludeMethods = EnumSet.noneOf(HttpMethod.class);
+
+	private final Map<String, Object> includeExtensions = new HashMap<>();
+
+	private final Map<String, Object> excludeExtensions = new HashMap<>();
+
+	private Pattern includePattern;
+
+	private Pattern excludePattern;
+
+	/**
+	 * Keep only operations with at least one of these tags.
+	 * @param tags the tags to include
+	 * @return this instance
+	 */
+	public OperationFilter includeTags(String... tags) {
+		this.includeTags.addAll(Arrays.asList(tags));
+		return this;
+	}
+
+	/**
+	 * Remove operations with any of these tags.
+	 * @param tags the tags to exclude
+	 * @return this instance
+	 */
+	public OperationFilter excludeTags(String... tags) {
+		this.excludeTags.addAll(Arrays.asList(tags));
+		return this;
+	}
+
+	/**
+	 * Keep only operations on paths that match at least one of these globs ("*" for any
+	 * characters in a segment, "**" for any number of segments).
+	 * @param globs the path globs to include
+	 * @return this instance
+	 */
+	public OperationFilter includePaths(String... globs) {
+		this.includePaths.addAll(Arrays.asList(globs));
+		this.includePattern = PathRewriter.compile(this.includePaths);
+		return this;
+	}
+
+	/**
+	 * Remove operations on paths that match any of these globs.
+	 * @param globs the path globs to exclude
+	 * @return this instance
+	 */
+	public OperationFilter excludePaths(String... globs) {
+		this.excludePaths.addAll(Arrays.asList(globs));
+		this.excludePattern = PathRewriter.compile(this.excludePaths);
+		return this;
+	}
+
+	/**
+	 * Keep only operations with one of these HTTP methods.
+	 * @param methods the methods to include
+	 * @return this instance
+	 */
+	public OperationFilter includeMethods(HttpMethod... methods) {
+		this.includeMethods.addAll(Arrays.asList(methods));
+		return this;
+	}
+
+	/**
+	 * Remove operations with any of these HTTP methods.
+	 * @param methods the methods to exclude
+	 * @return this instance
+	 */
+	public OperationFilter excludeMethods(HttpMethod... methods) {
+		this.excludeMethods.addAll(Arrays.asList(methods));
+		return this;
+	}
+
+	/**
+	 * Keep only operations with this vendor extension (or one of the other included
+	 * extensions).
+	 * @param name the name of the extension (e.g. "x-public")
+	 * @param value the value it must have, or null to match any value
+	 * @return this instance
+	 */
+	public OperationFilter includeExtension(String name, Object value) {
+		this.includeExtensions.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Remove operations with this vendor extension.
+	 * @param name the name of the extension (e.g. "x-internal")
+	 * @param value the value it must have, or null to match any value
+	 * @return this instance
+	 */
+	public OperationFilter excludeExtension(String name, Object value) {
+		this.excludeExtensions.put(name, value);
+		return this;
+	}
+
+	@Override
+	public OpenAPI apply(OpenAPI api) {
+		if (api.getPaths() == null) {
+			return api;
+		}
+		for (Iterator<Map.Entry<String, PathItem>> paths = api.getPaths().entrySet().iterator(); paths.hasNext();) {
+			Map.Entry<String, PathItem> entry = paths.next();
+			String path = entry.getKey();
+			if ((this.includePattern != null && !this.includePattern.matcher(path).matches())
+					|| (this.excludePattern != null && this.excludePattern.matcher(path).matches())) {
+				paths.remove();
+				continue;
+			}
+			PathItem item = entry.getValue();
+			int kept = 0;
+			for (Map.Entry<HttpMethod, Operation> operation : item.readOperationsMap().entrySet()) {
+				if (matches(operation.getKey(), operation.getValue())) {
+					kept++;
+				}
+				else {
+					item.operation(operation.getKey(), null);
+				}
+			}
+			if (kept == 0 && item.get$ref() == null) {
+				paths.remove();
+			}
+		}
+		return api;
+	}
+
+	private boolean matches(HttpMethod method, Operation operation) {
+		if (!this.includeMethods.isEmpty() && !this.includeMethods.contains(method)) {
+			return false;
+		}
+		if (this.excludeMethods.contains(method)) {
+			return false;
+		}
+		List<String> tags = operation.getTags();
+		if (!this.includeTags.isEmpty() && (tags == null || tags.stream().noneMatch(this.includeTags::contains))) {
+			return false;
+		}
+		if (tags != null && !this.excludeTags.isEmpty() && tags.stream().anyMatch(this.excludeTags::contains)) {
+			return false;
+		}
+		Map<String, Object> extensions = operation.getExtensions();
+		if (!this.includeExtensions.isEmpty() && !matches(extensions, this.includeExtensions)) {
+			return false;
+		}
+		return this.excludeExtensions.isEmpty() || !matches(extensions, this.excludeExtensions);
+	}
+
+	private static boolean matches(Map<String, Object> extensions, Map<String, Object> criteria) {
+		if (extensions == null) {
+			return false;
+		}
+		for (Map.Entry<String, Object> criterion : criteria.entrySet()) {
+			if (extensions.containsKey(criterion.getKey()) && (criterion.getValue() == null
+					|| Objects.equals(criterion.getValue(), extensions.get(criterion.getKey())))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * A precompiled rewrite plan for the paths of a spec: include and exclude globs, then
+ * literal replacements, then a prefix. All the include globs are compiled into a single
+ * pattern (and likewise the excludes), so each path is matched once however many globs
+ * there are, and the whole plan is applied as one function in a single pass over the
+ * spec. Globs use "*" for any characters in a path segment, "**" for any number of
+ * segments and "?" for a single character.
+ */
+class PathRewriter implements Function<String, String> {
+
+	private final Pattern includes;
+
+	private final Pattern excludes;
+
+	private final String[] patterns;
+
+	private final String[] replacements;
+
+	private final String prefix;
+
+	PathRewriter(Collection<String> includes, Collection<String> excludes, Map<String, String> replacements,
+			String prefix) {
+		this.includes = compile(includes);
+		this.excludes = compile(excludes);
+		Map<String, String> map = replacements == null ? Map.of() : new LinkedHashMap<>(replacements);
+		this.patterns = map.keySet().toArray(new String[0]);
+		this.replacements = map.values().toArray(new String[0]);
+		this.prefix = prefix == null ? "" : prefix;
+	}
+
+	/**
+	 * Rewrite a path.
+	 * @param path the path in the upstream spec
+	 * @return the path to use in the aggregate, or null if the path is excluded
+	 */
+	@Override
+	public String apply(String path) {
+		if (this.includes != null && !this.includes.matcher(path).matches()) {
+			return null;
+		}
+		if (this.excludes != null && this.excludes.matcher(path).matches()) {
+			return null;
+		}
+		for (int i = 0; i < this.patterns.length; i++) {
+			path = path.replace(this.patterns[i], this.replacements[i]);
+		}
+		return this.prefix + path;
+	}
+
+	boolean isIdentity() {
+		return this.includes == null && this.excludes == null && this.patterns.length == 0 && this.prefix.isEmpty();
+	}
+
+	static Pattern compile(Collection<String> globs) {
+		if (globs == null || globs.isEmpty()) {
+			return null;
+		}
+		List<String> alternatives = new ArrayList<>();
+		for (String glob : globs) {
+			alternatives.add(regex(glob));
+		}
+		return Pattern.compile("(?:" + String.join("|", alternatives) + ")");
+	}
+
+	static String regex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c != '*' && c != '?') {
+				literal.append(c);
+				continue;
+			}
+			boolean segments = c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*';
+			boolean whole = segments && literal.length() > 0 && literal.charAt(literal.length() - 1) == '/'
+					&& (i + 2 == glob.length() || glob.charAt(i + 2) == '/');
+			if (whole) {
+				// A "**" segment matches no segments too, so "/foo/**" matches "/foo"
+				// and "/foo/**/bar" matches "/foo/bar"
+				literal.setLength(literal.length() - 1);
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			if (c == '?') {
+				regex.append("[^/]");
+			}
+			else if (whole) {
+				i++;
+				regex.append("(?:/.*)?");
+			}
+			else if (segments) {
+				i++;
+				regex.append(".*");
+			}
+			else {
+				regex.append("[^/]*");
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Serves the current snapshot to other instances of the same gateway (see
+ * {@link OpenApiPeers}). It never aggregates: if this instance has no snapshot yet it
+ * answers 404, so that peers that start together do not wait for each other.
+ */
+@RestController
+class PeerEndpoint {
+
+	private final OpenApiSnapshots snapshots;
+
+	private final OpenApiPeers peers;
+
+	private volatile Encoded encoded;
+
+	PeerEndpoint(OpenApiSnapshots snapshots, OpenApiPeers peers) {
+		this.snapshots = snapshots;
+		this.peers = peers;
+	}
+
+	@GetMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/snapshot", produces = OpenApiPeers.SNAPSHOT)
+	public ResponseEntity<byte[]> snapshot(
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String etag) {
+		OpenApiSnapshot snapshot = this.snapshots.getIfAvailable();
+		if (snapshot == null) {
+			return ResponseEntity.notFound().build();
+		}
+		String tag = this.peers.etag(snapshot);
+		if (ETags.matches(etag, tag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+		}
+		Encoded encoded = this.encoded;
+		if (encoded == null || encoded.snapshot() != snapshot) {
+			encoded = new Encoded(snapshot, this.peers.encode(snapshot));
+			this.encoded = encoded;
+		}
+		return ResponseEntity.ok()
+			.contentType(MediaType.parseMediaType(OpenApiPeers.SNAPSHOT))
+			.eTag(tag)
+			.body(encoded.bytes());
+	}
+
+	private record Encoded(OpenApiSnapshot snapshot, byte[] bytes) {
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Webhook that lets external systems (e.g. a deployment pipeline) request a refresh of
+ * the aggregated spec. The request is accepted immediately and the refresh is debounced
+ * along with any other triggers.
+ */
+@RestController
+class RefreshEndpoint {
+
+	private final OpenApiSnapshots snapshots;
+
+	public RefreshEndpoint(OpenApiSnapshots snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	@PostMapping(path = "${spring.openapi.aggregator.path:/v3/api-docs}/refresh")
+	public ResponseEntity<Void> refresh() {
+		this.snapshots.refresh();
+		return ResponseEntity.accepted().build();
+	}
+
+}
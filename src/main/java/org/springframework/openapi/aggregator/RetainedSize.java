@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.swagger.v3.core.util.Json;
+
+/**
+ * Rough estimates of the heap retained by specs and their serialized forms (on a 64 bit
+ * JVM with compressed pointers), for accounting against an {@link OpenApiHeapBudget}. A
+ * model is measured from a scan of its JSON form rather than by walking the objects, so
+ * it is cheap and works for any model: every object or map costs about the same, and
+ * every distinct string is counted once, as it is after the {@link SnapshotCompactor} has
+ * run.
+ */
+final class RetainedSize {
+
+	private static final int OBJECT = 56;
+
+	private static final int ARRAY = 40;
+
+	private static final int ENTRY = 32;
+
+	private static final int REFERENCE = 4;
+
+	private static final int NUMBER = 24;
+
+	private RetainedSize() {
+	}
+
+	/**
+	 * The size of a byte array.
+	 * @param bytes the array (or null)
+	 * @return the estimated size in bytes
+	 */
+	static long of(byte[] bytes) {
+		return bytes == null ? 0 : 16 + ((bytes.length + 7) & ~7L);
+	}
+
+	/**
+	 * The size of the model of a spec, broken down in the same way as
+	 * {@link FragmentIndex#fingerprints(byte[])}: by path, by component (type and name)
+	 * and by the other top level entries (e.g. "/info").
+	 * @param json the JSON form of the spec
+	 * @return the estimated size of each part in document order
+	 */
+	static Map<String, Long> model(byte[] json) {
+		try (JsonParser parser = Json.mapper().getFactory().createParser(json)) {
+			return scan(parser);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot measure spec", e);
+		}
+	}
+
+	/**
+	 * The size of a parsed JSON tree, which has about the same shape as the model.
+	 * @param tree the tree
+	 * @return the estimated size in bytes
+	 */
+	static long tree(JsonNode tree) {
+		try (JsonParser parser = tree.traverse()) {
+			return scan(parser).values().stream().mapToLong(Long::longValue).sum();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot measure tree", e);
+		}
+	}
+
+	private static Map<String, Long> scan(JsonParser parser) throws IOException {
+		Map<String, Long> result = new LinkedHashMap<>();
+		Set<String> strings = new HashSet<>();
+		String[] names = new String[4];
+		String key = "";
+		long size = 0;
+		int depth = 0;
+		JsonToken token;
+		while ((token = parser.nextToken()) != null) {
+			switch (token) {
+				case START_OBJECT -> {
+					size += OBJECT;
+					depth++;
+				}
+				case START_ARRAY -> {
+					size += ARRAY;
+					depth++;
+				}
+				case END_OBJECT, END_ARRAY -> depth--;
+				case FIELD_NAME -> {
+					String name = parser.currentName();
+					if (depth < names.length) {
+						names[depth] = name;
+						String next = key(names, depth);
+						if (!next.equals(key)) {
+							result.merge(key, size, Long::sum);
+							key = next;
+							size = 0;
+						}
+					}
+					size += ENTRY + string(strings, name);
+				}
+				case VALUE_STRING -> size += REFERENCE + string(strings, parser.getText());
+				case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> size += NUMBER;
+				default -> size += REFERENCE;
+			}
+		}
+		result.merge(key, size, Long::sum);
+		return result;
+	}
+
+	private static long string(Set<String> strings, String value) {
+		return strings.add(value) ? SnapshotCompactor.stringSize(value) : 0;
+	}
+
+	private static String key(String[] names, int depth) {
+		String top = names[1];
+		if ("paths".equals(top) && depth >= 2) {
+			return "/paths/" + FragmentIndex.escape(names[2]);
+		}
+		if ("components".equals(top) && depth >= 3) {
+			return "/components/" + FragmentIndex.escape(names[2]) + "/" + FragmentIndex.escape(names[3]);
+		}
+		return "/" + FragmentIndex.escape(top);
+	}
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import io.swagger.v3.oas.models.Components;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.headers.Header;
+import io.swagger.v3.oas.models.links.Link;
+import io.swagger.v3.oas.models.media.Content;
+import io.swagger.v3.oas.models.media.MediaType;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.oas.models.parameters.Parameter;
+import io.swagger.v3.oas.models.parameters.RequestBody;
+import io.swagger.v3.oas.models.responses.ApiResponse;
+import io.swagger.v3.oas.models.responses.ApiResponses;
+
+/**
+ * Shrinks the model of a snapshot before it is published, since it is kept for as long as
+ * it is current. An aggregate with thousands of operations repeats the same strings over
+ * and over (media types, status codes, <code>$ref</code>s, schema types and formats,
+ * parameter names), and has a default sized map for every small set of properties,
+ * headers or links. Repeated strings are replaced with one canonical instance, and small
+ * maps inside schemas, operations and responses with a {@link CompactMap}, keeping their
+ * order. The content, and so the serialized form, is the same.
+ * <p>
+ * The top level maps (paths and components) are left alone, because a SpringDoc
+ * integration may still add to them. Other parts of the model are read only afterwards.
+ */
+class SnapshotCompactor {
+
+	/**
+	 * Maps with more entries than this are left as they are, so lookups stay cheap.
+	 */
+	static final int MAX_COMPACT = 16;
+
+	private final Map<String, String> strings = new HashMap<>();
+
+	private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final Deque<Schema<?>> schemas = new ArrayDeque<>();
+
+	private int duplicates;
+
+	private int maps;
+
+	private long saved;
+
+	/**
+	 * Compact the model in place.
+	 * @param api the model to compact
+	 * @return what was saved
+	 */
+	static Result compact(OpenAPI api) {
+		SnapshotCompactor compactor = new SnapshotCompactor();
+		compactor.api(api);
+		return new Result(compactor.duplicates, compactor.maps, compactor.saved);
+	}
+
+	private void api(OpenAPI api) {
+		if (api.getPaths() != null) {
+			for (PathItem item : api.getPaths().values()) {
+				pathItem(item);
+			}
+		}
+		Components components = api.getComponents();
+		if (components != null) {
+			values(components.getSchemas(), this::schema);
+			values(components.getResponses(), this::response);
+			values(components.getParameters(), this::parameter);
+			values(components.getRequestBodies(), this::requestBody);
+			values(components.getHeaders(), this::header);
+			values(components.getLinks(), this::link);
+		}
+		while (!this.schemas.isEmpty()) {
+			walk(this.schemas.pop());
+		}
+	}
+
+	private void pathItem(PathItem item) {
+		if (item == null || !this.visited.add(item)) {
+			return;
+		}
+		item.setExtensions(map(item.getExtensions()));
+		parameters(item.getParameters());
+		for (Operation operation : item.readOperations()) {
+			operation(operation);
+		}
+	}
+
+	private void operation(Operation operation) {
+		strings(operation.getTags());
+		operation.setExtensions(map(operation.getExtensions()));
+		parameters(operation.getParameters());
+		requestBody(operation.getRequestBody());
+		ApiResponses responses = operation.getResponses();
+		if (responses != null) {
+			rekey(responses);
+			responses.setExtensions(map(responses.getExtensions()));
+			for (ApiResponse response : responses.values()) {
+				response(response);
+			}
+		}
+	}
+
+	private void parameters(List<Parameter> parameters) {
+		if (parameters != null) {
+			for (Parameter parameter : parameters) {
+				parameter(parameter);
+			}
+		}
+	}
+
+	private void parameter(Parameter parameter) {
+		if (parameter == null || !this.visited.add(parameter)) {
+			return;
+		}
+		parameter.set$ref(string(parameter.get$ref()));
+		parameter.setName(string(parameter.getName()));
+		parameter.setIn(string(parameter.getIn()));
+		parameter.setDescription(string(parameter.getDescription()));
+		parameter.setExtensions(map(parameter.getExtensions()));
+		parameter.setExamples(map(parameter.getExamples()));
+		schema(parameter.getSchema());
+		content(parameter.getContent());
+	}
+
+	private void requestBody(RequestBody body) {
+		if (body == null || !this.visited.add(body)) {
+			return;
+		}
+		body.set$ref(string(body.get$ref()));
+		body.setDescription(string(body.getDescription()));
+		body.setExtensions(map(body.getExtensions()));
+		content(body.getContent());
+	}
+
+	private void response(ApiResponse response) {
+		if (response == null || !this.visited.add(response)) {
+			return;
+		}
+		response.set$ref(string(response.get$ref()));
+		response.setDescription(string(response.getDescription()));
+		response.setExtensions(map(response.getExtensions()));
+		response.setHeaders(map(response.getHeaders()));
+		response.setLinks(map(response.getLinks()));
+		values(response.getHeaders(), this::header);
+		values(response.getLinks(), this::link);
+		content(response.getContent());
+	}
+
+	private void header(Header header) {
+		if (header == null || !this.visited.add(header)) {
+			return;
+		}
+		header.set$ref(string(header.get$ref()));
+		header.setDescription(string(header.getDescription()));
+		header.setExtensions(map(header.getExtensions()));
+		schema(header.getSchema());
+		content(header.getContent());
+	}
+
+	private void link(Link link) {
+		if (link == null || !this.visited.add(link)) {
+			return;
+		}
+		link.setParameters(map(link.getParameters()));
+		link.setExtensions(map(link.getExtensions()));
+	}
+
+	private void content(Content content) {
+		if (content == null || !this.visited.add(content)) {
+			return;
+		}
+		rekey(content);
+		for (MediaType media : content.values()) {
+			if (media != null && this.visited.add(media)) {
+				media.setExamples(map(media.getExamples()));
+				media.setEncoding(map(media.getEncoding()));
+				media.setExtensions(map(media.getExtensions()));
+				schema(media.getSchema());
+			}
+		}
+	}
+
+	private void schema(Schema<?> schema) {
+		if (schema != null) {
+			// Schemas can nest deeply, so they are walked without recursion
+			this.schemas.push(schema);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void walk(Schema schema) {
+		if (!this.visited.add(schema)) {
+			return;
+		}
+		schema.set$ref(string(schema.get$ref()));
+		schema.setType(string(schema.getType()));
+		schema.setFormat(string(schema.getFormat()));
+		schema.setDescription(string(schema.getDescription()));
+		schema.setExtensions(map(schema.getExtensions()));
+		strings(schema.getRequired());
+		Map<String, Schema> properties = schema.getProperties();
+		if (properties != null) {
+			for (Schema property : properties.values()) {
+				schema(property);
+			}
+			schema.setProperties(map(properties));
+		}
+		schema(schema.getItems());
+		schema(schema.getNot());
+		if (schema.getAdditionalProperties() instanceof Schema additional) {
+			schema(additional);
+		}
+		for (List<Schema> list : new List[] { schema.getAllOf(), schema.getAnyOf(), schema.getOneOf() }) {
+			if (list != null) {
+				for (Schema item : list) {
+					schema(item);
+				}
+			}
+		}
+	}
+
+	private <T> void values(Map<String, T> map, Consumer<T> action) {
+		if (map != null) {
+			for (T value : map.values()) {
+				action.accept(value);
+			}
+		}
+	}
+
+	private String string(String value) {
+		if (value == null) {
+			return null;
+		}
+		String canonical = this.strings.putIfAbsent(value, value);
+		if (canonical == null) {
+			return value;
+		}
+		if (canonical != value) {
+			this.duplicates++;
+			this.saved += stringSize(value);
+		}
+		return canonical;
+	}
+
+	private void strings(List<String> values) {
+		if (values != null) {
+			try {
+				values.replaceAll(this::string);
+			}
+			catch (UnsupportedOperationException e) {
+				// Immutable already
+			}
+		}
+	}
+
+	/**
+	 * Replace the keys of a map that has to keep its type with canonical instances.
+	 */
+	private <V> void rekey(LinkedHashMap<String, V> map) {
+		boolean changed = false;
+		for (String key : map.keySet()) {
+			changed |= string(key) != key;
+		}
+		if (changed) {
+			Map<String, V> copy = new LinkedHashMap<>(map);
+			map.clear();
+			copy.forEach((key, value) -> map.put(this.strings.get(key), value));
+		}
+	}
+
+	private <V> Map<String, V> map(Map<String, V> map) {
+		// Only the plain maps that the parser and the model create, not subclasses or
+		// maps that are already compact
+		if (map == null || map.size() > MAX_COMPACT
+				|| (map.getClass() != LinkedHashMap.class && map.getClass() != HashMap.class)) {
+			return map;
+		}
+		this.maps++;
+		Map<String, V> result;
+		if (map.isEmpty()) {
+			result = Collections.emptyMap();
+		}
+		else if (map.size() == 1) {
+			Map.Entry<String, V> entry = map.entrySet().iterator().next();
+			result = Collections.singletonMap(string(entry.getKey()), entry.getValue());
+		}
+		else {
+			Map<String, V> keys = new LinkedHashMap<>();
+			map.forEach((key, value) -> keys.put(string(key), value));
+			result = new CompactMap<>(keys);
+		}
+		this.saved += Math.max(0, mapSize(map) - mapSize(result));
+		return result;
+	}
+
+	/**
+	 * Estimate the memory used by a string (on a 64 bit JVM with compressed pointers and
+	 * compact strings), not counting the reference to it.
+	 * @param value the string
+	 * @return the estimated size in bytes
+	 */
+	static long stringSize(String value) {
+		return 24 + align(16 + value.length());
+	}
+
+	/**
+	 * Estimate the memory used by the structure of a map (the same assumptions as
+	 * {@link #stringSize(String)}), not counting the keys and values.
+	 * @param map the map
+	 * @return the estimated size in bytes
+	 */
+	static long mapSize(Map<?, ?> map) {
+		int size = map.size();
+		if (map instanceof CompactMap) {
+			return 16 + align(16 + 8L * size);
+		}
+		if (map instanceof HashMap) {
+			int capacity = 16;
+			while (capacity * 3 / 4 < size) {
+				capacity *= 2;
+			}
+			boolean linked = map instanceof LinkedHashMap;
+			return (linked ? 56 : 48) + (size == 0 ? 0 : 16 + 4L * capacity) + (linked ? 40L : 32L) * size;
+		}
+		if (size == 0) {
+			// Probably the shared empty map
+			return 0;
+		}
+		if (size == 1) {
+			// Probably a singleton map
+			return 32;
+		}
+		// Something else, e.g. a TreeMap
+		return 48 + 40L * size;
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	/**
+	 * What a compaction saved.
+	 *
+	 * @param strings the number of duplicate strings replaced with a canonical instance
+	 * @param maps the number of maps replaced with a compact one
+	 * @param saved the estimated number of bytes saved
+	 */
+	record Result(int strings, int maps, long saved) {
+
+	}
+
+}
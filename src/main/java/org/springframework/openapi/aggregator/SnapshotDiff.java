@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The structural difference between two snapshots, as sets of JSON Pointers to the top
+ * level fields, paths and components that were added, removed or modified. Nodes are
+ * compared by their {@link OpenApiSnapshot#getFingerprints() fingerprints} (MD5 hashes of
+ * their JSON form, computed once per snapshot), so a node that did not change costs a
+ * single comparison however big it is.
+ *
+ * @param added pointers to nodes that are only in the new snapshot
+ * @param removed pointers to nodes that are only in the old snapshot
+ * @param modified pointers to nodes that are in both with different content
+ */
+record SnapshotDiff(Set<String> added, Set<String> removed, Set<String> modified) {
+
+	static SnapshotDiff between(OpenApiSnapshot previous, OpenApiSnapshot current) {
+		Map<String, String> before = previous.getFingerprints();
+		Map<String, String> after = current.getFingerprints();
+		Set<String> added = new LinkedHashSet<>();
+		Set<String> removed = new LinkedHashSet<>();
+		Set<String> modified = new LinkedHashSet<>();
+		for (Map.Entry<String, String> entry : after.entrySet()) {
+			String hash = before.get(entry.getKey());
+			if (hash == null) {
+				added.add(entry.getKey());
+			}
+			else if (!hash.equals(entry.getValue())) {
+				modified.add(entry.getKey());
+			}
+		}
+		for (String pointer : before.keySet()) {
+			if (!after.containsKey(pointer)) {
+				removed.add(pointer);
+			}
+		}
+		return new SnapshotDiff(Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed),
+				Collections.unmodifiableSet(modified));
+	}
+
+	boolean isEmpty() {
+		return this.added.isEmpty() && this.removed.isEmpty() && this.modified.isEmpty();
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Remembers the fingerprints of a few recent snapshots, so that a client that has an old
+ * version can be sent a JSON Patch (RFC 6902) to bring it up to date instead of the whole
+ * document. Only the fingerprints of old versions are kept, not their content, because
+ * the patch values all come from the current snapshot. Nothing is recorded until the
+ * first patch is requested, so the fingerprints are not computed at all unless clients
+ * use deltas.
+ */
+class SnapshotHistory {
+
+	/**
+	 * Media type for JSON Patch documents.
+	 */
+	static final String JSON_PATCH = "application/json-patch+json";
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final OpenApiSnapshots snapshots;
+
+	private final int size;
+
+	private final Deque<Version> versions = new ArrayDeque<>();
+
+	private final Map<String, byte[]> patches = new ConcurrentHashMap<>();
+
+	private OpenApiSnapshot latest;
+
+	private boolean active;
+
+	SnapshotHistory(OpenApiSnapshots snapshots, int size) {
+		this.snapshots = snapshots;
+		this.size = Math.max(1, size);
+		snapshots.addListener(this::record);
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * A patch from an earlier version to the current snapshot.
+	 * @param since the ETag of the earlier version (with or without quotes)
+	 * @return the serialized patch, or null if the version is not known (any more)
+	 */
+	byte[] patch(String since) {
+		OpenApiSnapshot current = this.snapshots.getCurrent();
+		Version version = find(unquote(since), current);
+		if (version == null) {
+			return null;
+		}
+		return this.patches.computeIfAbsent(version.etag() + current.getEtag(),
+				key -> diff(version.fingerprints(), current));
+	}
+
+	private synchronized Version find(String since, OpenApiSnapshot current) {
+		this.active = true;
+		if (current != this.latest) {
+			record(current);
+		}
+		for (Version version : this.versions) {
+			if (unquote(version.etag()).equals(since)) {
+				return version;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void record(OpenApiSnapshot snapshot) {
+		if (!this.active || snapshot == this.latest) {
+			return;
+		}
+		this.latest = snapshot;
+		this.patches.clear();
+		String etag = snapshot.getEtag();
+		this.versions.removeIf(version -> version.etag().equals(etag));
+		Map<String, String> fingerprints = snapshot.getFingerprints();
+		this.versions.addFirst(new Version(etag, fingerprints, size(fingerprints)));
+		while (this.versions.size() > this.size) {
+			this.versions.removeLast();
+		}
+	}
+
+	/**
+	 * An estimate of the heap used by the remembered versions and the cached patches.
+	 * @return the estimated size in bytes
+	 */
+	synchronized long size() {
+		long size = 0;
+		for (Version version : this.versions) {
+			size += version.size();
+		}
+		for (byte[] patch : this.patches.values()) {
+			size += RetainedSize.of(patch);
+		}
+		return size;
+	}
+
+	/**
+	 * Forget all the versions but the latest, and the cached patches. Clients with an
+	 * older version get the whole document instead of a patch.
+	 * @return the estimated number of bytes freed
+	 */
+	synchronized long evict() {
+		long size = size();
+		this.patches.clear();
+		while (this.versions.size() > 1) {
+			this.versions.removeLast();
+		}
+		return size - size();
+	}
+
+	private static long size(Map<String, String> fingerprints) {
+		long size = 0;
+		for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+			size += 40 + SnapshotCompactor.stringSize(entry.getKey()) + SnapshotCompactor.stringSize(entry.getValue());
+		}
+		return size;
+	}
+
+	private byte[] diff(Map<String, String> previous, OpenApiSnapshot current) {
+		Map<String, String> fingerprints = current.getFingerprints();
+		FragmentIndex index = current.index();
+		ArrayNode patch = this.mapper.createArrayNode();
+		String removed = null;
+		for (Map.Entry<String, String> entry : previous.entrySet()) {
+			String pointer = entry.getKey();
+			if (removed != null && pointer.startsWith(removed + "/")) {
+				continue;
+			}
+			if (!fingerprints.containsKey(pointer)) {
+				patch.add(operation("remove", pointer));
+				removed = pointer;
+			}
+		}
+		String added = null;
+		for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+			String pointer = entry.getKey();
+			if (added != null && pointer.startsWith(added + "/")) {
+				continue;
+			}
+			String hash = previous.get(pointer);
+			if (hash == null) {
+				patch.add(operation("add", pointer).set("value", index.node(pointer)));
+				added = pointer;
+			}
+			else if (!hash.equals(entry.getValue())) {
+				patch.add(operation("replace", pointer).set("value", index.node(pointer)));
+			}
+		}
+		try {
+			return this.mapper.writeValueAsBytes(patch);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot serialize patch", e);
+		}
+	}
+
+	private ObjectNode operation(String op, String pointer) {
+		ObjectNode operation = this.mapper.createObjectNode();
+		operation.put("op", op);
+		operation.put("path", pointer);
+		return operation;
+	}
+
+	private static String unquote(String etag) {
+		if (etag.startsWith("W/")) {
+			etag = etag.substring(2);
+		}
+		if (etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+			return etag.substring(1, etag.length() - 1);
+		}
+		return etag;
+	}
+
+	private record Version(String etag, Map<String, String> fingerprints, long size) {
+	}
+
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.SpecLimits.SpecLimitException;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.parser.SwaggerParser;
+import io.swagger.parser.SwaggerResolver;
+import io.swagger.parser.util.SwaggerDeserializationResult;
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.SpecVersion;
+import io.swagger.v3.parser.OpenAPIV3Parser;
+import io.swagger.v3.parser.converter.SwaggerConverter;
+import io.swagger.v3.parser.core.extensions.SwaggerParserExtension;
+import io.swagger.v3.parser.core.models.ParseOptions;
+import io.swagger.v3.parser.core.models.SwaggerParseResult;
+
+/**
+ * Fetches and caches the raw content of upstream specs. HTTP upstreams are revalidated
+ * with conditional requests, so an unchanged spec costs a round trip but no download. The
+ * parsed model is cached as a JSON tree, and every read gets a fresh copy of it (because
+ * the aggregator filters mutate the model), so a spec is only parsed (and converted from
+ * Swagger 2.0, and its references resolved) again when its content changes. A cache can
+ * be shared by several aggregators, e.g. for {@link OpenApiTenants}.
+ * <p>
+ * So each upstream is held twice: the raw content (needed to revalidate it and to parse
+ * it again) and the parsed tree. The tree is the bigger of the two, typically 4 to 5
+ * times the size of the raw JSON, and {@link #getRetainedSize()} counts both. Building
+ * the model from the tree on every read trades that memory, and a copy per read, for not
+ * parsing and resolving the spec again. {@link #evictParsed()} drops the trees and keeps
+ * the raw content when memory is short.
+ */
+public class SpecCache {
+
+	private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+	private final Map<Resource, Content> cache = new ConcurrentHashMap<>();
+
+	private final Map<Resource, Long> fetched = new ConcurrentHashMap<>();
+
+	private final Map<Resource, Parsed> parsed = new ConcurrentHashMap<>();
+
+	private final Set<Resource> expired = ConcurrentHashMap.newKeySet();
+
+	private boolean revalidate = true;
+
+	private Duration maxAge = Duration.ZERO;
+
+	private Duration timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Whether to revalidate with the upstream every time a spec is read. Set it to false
+	 * if something else (e.g. a {@link SpecPoller}) keeps the cache fresh by calling
+	 * {@link #fetch(Spec)}. A spec that has been {@link #expire(Spec) expired} is
+	 * revalidated on the next read either way. Default true.
+	 * @param revalidate the flag to set
+	 */
+	public void setRevalidate(boolean revalidate) {
+		this.revalidate = revalidate;
+	}
+
+	/**
+	 * Set how long content can be used without revalidating it, even if
+	 * {@link #setRevalidate(boolean) revalidate} is true. This lets several aggregators
+	 * that refresh at about the same time share a single fetch. Default zero.
+	 * @param maxAge the maximum age of content that is used as it is
+	 */
+	public void setMaxAge(Duration maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Set the connect and read timeout for fetching HTTP upstreams. A fetch that times
+	 * out fails like any other, so a {@link SpecPoller} backs off. Default 10 seconds.
+	 * @param timeout the timeout
+	 */
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Read and parse a spec, using the cached content if it is still valid.
+	 * @param spec the spec to read
+	 * @return a freshly parsed copy of the upstream spec
+	 * @throws SpecLimitException if the spec is over its {@link SpecLimits}
+	 */
+	public OpenAPI read(Spec spec) {
+		return load(spec).api();
+	}
+
+	/**
+	 * Read and parse a spec like {@link #read(Spec)}, together with the digest of the
+	 * content that it was parsed from.
+	 * @param spec the spec to read
+	 * @return the parsed copy and its digest
+	 */
+	Loaded load(Spec spec) {
+		return load(spec, this.maxAge);
+	}
+
+	/**
+	 * Read and parse a spec like {@link #load(Spec)}, but with a maximum age for this
+	 * read only, instead of the one {@link #setMaxAge(Duration) set} for the cache.
+	 * @param spec the spec to read
+	 * @param maxAge the maximum age of content that is used as it is
+	 * @return the parsed copy and its digest
+	 */
+	Loaded load(Spec spec, Duration maxAge) {
+		Resource resource = spec.resource();
+		Content content = this.cache.get(resource);
+		if (content == null || this.expired.remove(resource) || (this.revalidate && !isFresh(resource, maxAge))) {
+			content = fetch(spec);
+		}
+		// The content may have been fetched for another spec with the same upstream and
+		// looser limits (e.g. in another tenant), so it is checked against these ones
+		spec.limits().checkLength(content.bytes().length, resource.getDescription());
+		Parsed parsed = this.parsed.get(resource);
+		if (parsed != null && parsed.digest().equals(content.digest())) {
+			OpenAPI api = parsed.copy();
+			if (!parsed.limits().equals(spec.limits())) {
+				spec.limits().checkDepth(content.bytes(), resource.getDescription());
+				spec.limits().checkCounts(api, resource.getDescription());
+			}
+			return new Loaded(api, content.digest());
+		}
+		OpenAPI api = check(spec, content);
+		JsonNode tree = mapper(api.getSpecVersion()).valueToTree(api);
+		this.parsed.put(resource,
+				new Parsed(content.digest(), spec.limits(), api.getSpecVersion(), tree, RetainedSize.tree(tree)));
+		return new Loaded(api, content.digest());
+	}
+
+	/**
+	 * Read and parse a spec without caching anything, for an {@link OpenApiAggregator}
+	 * that has no cache.
+	 * @param spec the spec to read
+	 * @return the parsed spec and its digest
+	 * @throws SpecLimitException if the spec is over its {@link SpecLimits}
+	 */
+	static Loaded loadUncached(Spec spec) {
+		Content content;
+		try {
+			content = download(spec.resource(), spec.limits(), null, DEFAULT_TIMEOUT);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot fetch spec from " + spec.resource(), e);
+		}
+		return new Loaded(check(spec, content), content.digest());
+	}
+
+	private static OpenAPI check(Spec spec, Content content) {
+		String location = spec.resource().getDescription();
+		spec.limits().checkDepth(content.bytes(), location);
+		OpenAPI api = parse(spec, content);
+		spec.limits().checkCounts(api, location);
+		return api;
+	}
+
+	private boolean isFresh(Resource resource, Duration maxAge) {
+		Long time = this.fetched.get(resource);
+		return time != null && System.nanoTime() - time < maxAge.toNanos();
+	}
+
+	/**
+	 * Fetch the content of a spec from upstream, updating the cache.
+	 * @param spec the spec to fetch
+	 * @return the current content
+	 * @throws SpecLimitException if the spec is bigger than its {@link SpecLimits}
+	 */
+	public Content fetch(Spec spec) {
+		Content previous = this.cache.get(spec.resource());
+		Content content;
+		try {
+			content = download(spec.resource(), spec.limits(), previous, this.timeout);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot fetch spec from " + spec.resource(), e);
+		}
+		this.cache.put(spec.resource(), content);
+		this.fetched.put(spec.resource(), System.nanoTime());
+		this.expired.remove(spec.resource());
+		return content;
+	}
+
+	/**
+	 * Mark the cached content of a spec as stale, so that the next read revalidates it
+	 * with the upstream, even if {@link #setRevalidate(boolean) revalidate} is false or
+	 * the content is younger than the {@link #setMaxAge(Duration) maximum age}.
+	 * @param spec the spec to expire
+	 */
+	public void expire(Spec spec) {
+		this.fetched.remove(spec.resource());
+		if (this.cache.containsKey(spec.resource())) {
+			this.expired.add(spec.resource());
+		}
+	}
+
+	/**
+	 * Discard the cached content of a spec.
+	 * @param spec the spec to evict
+	 */
+	public void evict(Spec spec) {
+		this.cache.remove(spec.resource());
+		this.fetched.remove(spec.resource());
+		this.parsed.remove(spec.resource());
+		this.expired.remove(spec.resource());
+	}
+
+	/**
+	 * An estimate of the heap used by the cache: the raw content of each upstream, and
+	 * the parsed tree (which is usually several times bigger).
+	 * @return the estimated size in bytes
+	 */
+	public long getRetainedSize() {
+		long size = 0;
+		for (Content content : this.cache.values()) {
+			size += RetainedSize.of(content.bytes());
+		}
+		for (Parsed parsed : this.parsed.values()) {
+			size += parsed.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Discard the parsed copies of the upstreams, keeping the raw content so they can
+	 * still be revalidated. The next read of each spec parses it again.
+	 * @return the estimated number of bytes freed
+	 */
+	long evictParsed() {
+		long size = 0;
+		for (Resource resource : this.parsed.keySet()) {
+			Parsed parsed = this.parsed.remove(resource);
+			if (parsed != null) {
+				size += parsed.size();
+			}
+		}
+		return size;
+	}
+
+	private static Content download(Resource resource, SpecLimits limits, Content previous, Duration timeout)
+			throws IOException {
+		if (resource instanceof UrlResource && resource.getURL().getProtocol().startsWith("http")) {
+			URL url = resource.getURL();
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setConnectTimeout((int) timeout.toMillis());
+				connection.setReadTimeout((int) timeout.toMillis());
+				if (previous != null && previous.etag() != null) {
+					connection.setRequestProperty("If-None-Match", previous.etag());
+				}
+				if (previous != null && previous.lastModified() != null) {
+					connection.setRequestProperty("If-Modified-Since", previous.lastModified());
+				}
+				int status = connection.getResponseCode();
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+					return previous.unchanged();
+				}
+				if (status >= 400) {
+					throw new IOException("Unexpected status " + status + " from " + url);
+				}
+				limits.checkLength(connection.getContentLengthLong(), url.toString());
+				try (InputStream stream = connection.getInputStream()) {
+					return content(limits.read(stream, url.toString()), connection.getHeaderField("ETag"),
+							connection.getHeaderField("Last-Modified"), previous);
+				}
+			}
+			finally {
+				connection.disconnect();
+			}
+		}
+		try (InputStream stream = resource.getInputStream()) {
+			return content(limits.read(stream, resource.getDescription()), null, null, previous);
+		}
+	}
+
+	private static Content content(byte[] bytes, String etag, String lastModified, Content previous) {
+		String digest = DigestUtils.md5DigestAsHex(bytes);
+		boolean changed = previous == null || !previous.digest().equals(digest);
+		return new Content(bytes, digest, etag, lastModified, changed);
+	}
+
+	static OpenAPI parse(Spec spec, Content content) {
+		String location;
+		try {
+			location = spec.resource().getURL().toString();
+		}
+		catch (IOException e) {
+			location = null;
+		}
+		String text = new String(content.bytes(), StandardCharsets.UTF_8);
+		ParseOptions options = new ParseOptions();
+		options.setResolve(true);
+		// Same order as OpenAPIV3Parser.read(), so Swagger 2.0 specs get converted
+		for (SwaggerParserExtension extension : OpenAPIV3Parser.getExtensions()) {
+			SwaggerParseResult result;
+			if (extension instanceof OpenAPIV3Parser parser) {
+				result = parser.readContents(text, null, options, location);
+			}
+			else if (extension instanceof SwaggerConverter converter) {
+				result = convert(converter, text, location);
+			}
+			else {
+				result = extension.readContents(text, null, options);
+			}
+			if (result != null && result.getOpenAPI() != null) {
+				return result.getOpenAPI();
+			}
+		}
+		throw new IllegalStateException("Cannot parse spec from " + spec.resource());
+	}
+
+	/**
+	 * Like {@link SwaggerConverter#readContents}, but resolving relative references
+	 * against the location of the spec, which that method does not know.
+	 */
+	private static SwaggerParseResult convert(SwaggerConverter converter, String text, String location) {
+		SwaggerDeserializationResult result = new SwaggerParser().readWithInfo(text, false);
+		if (result == null || result.getSwagger() == null) {
+			return null;
+		}
+		result.setSwagger(new SwaggerResolver(result.getSwagger(), null, location).resolve());
+		return converter.convert(result);
+	}
+
+	private static ObjectMapper mapper(SpecVersion version) {
+		// The 3.0 mapper would drop 3.1 fields like webhooks and type arrays
+		return version == SpecVersion.V31 ? Json31.mapper() : Json.mapper();
+	}
+
+	/**
+	 * A freshly parsed upstream spec.
+	 *
+	 * @param api the parsed spec
+	 * @param digest a hash of the content it was parsed from
+	 */
+	record Loaded(OpenAPI api, String digest) {
+	}
+
+	private record Parsed(String digest, SpecLimits limits, SpecVersion version, JsonNode tree, long size) {
+
+		OpenAPI copy() {
+			try {
+				OpenAPI api = mapper(this.version).treeToValue(this.tree, OpenAPI.class);
+				api.setSpecVersion(this.version);
+				return api;
+			}
+			catch (JsonProcessingException e) {
+				throw new IllegalStateException("Cannot copy parsed spec", e);
+			}
+		}
+
+	}
+
+	/**
+	 * The raw content of an upstream spec.
+	 *
+	 * @param bytes the content
+	 * @param digest a hash of the content
+	 * @param etag the HTTP ETag if there was one
+	 * @param lastModified the HTTP Last-Modified header if there was one
+	 * @param changed whether the content changed in the last fetch
+	 */
+	public record Content(byte[] bytes, String digest, String etag, String lastModified, boolean changed) {
+
+		Content unchanged() {
+			return new Content(bytes, digest, etag, lastModified, false);
+		}
+
+	}
+
+}
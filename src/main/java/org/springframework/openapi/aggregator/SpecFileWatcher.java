@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+
+/**
+ * Watches the specs that are plain files and requests a refresh when any of them changes.
+ */
+class SpecFileWatcher implements SmartLifecycle {
+
+	private static final Log logger = LogFactory.getLog(SpecFileWatcher.class);
+
+	private final OpenApiAggregatorSpecs specs;
+
+	private final OpenApiSnapshots snapshots;
+
+	private WatchService watcher;
+
+	private Thread thread;
+
+	public SpecFileWatcher(OpenApiAggregatorSpecs specs, OpenApiSnapshots snapshots) {
+		this.specs = specs;
+		this.snapshots = snapshots;
+	}
+
+	@Override
+	public synchronized void start() {
+		Map<Path, Set<Path>> files = new HashMap<>();
+		for (Spec spec : this.specs.getSpecs()) {
+			if (spec.resource().isFile()) {
+				try {
+					Path path = spec.resource().getFile().toPath().toAbsolutePath();
+					files.computeIfAbsent(path.getParent(), dir -> new HashSet<>()).add(path.getFileName());
+				}
+				catch (IOException e) {
+					logger.debug("Cannot watch " + spec.resource(), e);
+				}
+			}
+		}
+		if (files.isEmpty()) {
+			return;
+		}
+		try {
+			this.watcher = FileSystems.getDefault().newWatchService();
+			for (Path dir : files.keySet()) {
+				dir.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot watch spec files", e);
+		}
+		WatchService watcher = this.watcher;
+		this.thread = new Thread(() -> watch(watcher, files), "openapi-spec-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (this.watcher != null) {
+			try {
+				this.watcher.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+			this.watcher = null;
+			this.thread = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return this.watcher != null;
+	}
+
+	private void watch(WatchService watcher, Map<Path, Set<Path>> files) {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path dir = (Path) key.watchable();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.context() instanceof Path path && files.get(dir).contains(path)) {
+						changed = true;
+					}
+				}
+				key.reset();
+				if (changed) {
+					this.snapshots.refresh();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Yaml;
+import io.swagger.v3.oas.models.OpenAPI;
+
+/**
+ * Limits on the size and complexity of an upstream spec, so that a runaway upstream is
+ * rejected before it can exhaust the heap or the stack of the gateway. The size is
+ * enforced while the spec is downloaded, and the nesting depth with a streaming scan
+ * before it is parsed, so neither needs the whole document in memory as a model. The
+ * counts of paths and schemas are checked on the parsed model before it is filtered.
+ *
+ * @param maxBytes the maximum size of the raw spec in bytes
+ * @param maxPaths the maximum number of paths
+ * @param maxSchemas the maximum number of schemas in the components
+ * @param maxDepth the maximum nesting depth of objects and arrays in the raw spec
+ */
+public record SpecLimits(long maxBytes, int maxPaths, int maxSchemas, int maxDepth) {
+
+	/**
+	 * No limits at all.
+	 */
+	public static final SpecLimits NONE = new SpecLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+			Integer.MAX_VALUE);
+
+	/**
+	 * Limit the size of the raw spec.
+	 * @param maxBytes the maximum number of bytes
+	 * @return a new instance
+	 */
+	public SpecLimits maxBytes(long maxBytes) {
+		return new SpecLimits(maxBytes, maxPaths, maxSchemas, maxDepth);
+	}
+
+	/**
+	 * Limit the number of paths.
+	 * @param maxPaths the maximum number of paths
+	 * @return a new instance
+	 */
+	public SpecLimits maxPaths(int maxPaths) {
+		return new SpecLimits(maxBytes, maxPaths, maxSchemas, maxDepth);
+	}
+
+	/**
+	 * Limit the number of schemas in the components.
+	 * @param maxSchemas the maximum number of schemas
+	 * @return a new instance
+	 */
+	public SpecLimits maxSchemas(int maxSchemas) {
+		return new SpecLimits(maxBytes, maxPaths, maxSchemas, maxDepth);
+	}
+
+	/**
+	 * Limit the nesting depth of the raw spec (JSON or YAML objects and arrays).
+	 * @param maxDepth the maximum depth
+	 * @return a new instance
+	 */
+	public SpecLimits maxDepth(int maxDepth) {
+		return new SpecLimits(maxBytes, maxPaths, maxSchemas, maxDepth);
+	}
+
+	/**
+	 * Read a stream, failing as soon as it is longer than {@link #maxBytes()}.
+	 * @param stream the stream to read
+	 * @param location a description of the upstream for error messages
+	 * @return the content
+	 * @throws IOException if the stream cannot be read
+	 */
+	byte[] read(InputStream stream, String location) throws IOException {
+		if (this.maxBytes == Long.MAX_VALUE) {
+			return stream.readAllBytes();
+		}
+		byte[] bytes = stream.readNBytes((int) Math.min(this.maxBytes + 1, Integer.MAX_VALUE - 8));
+		if (bytes.length > this.maxBytes) {
+			throw exceeded(location, "more than " + this.maxBytes + " bytes");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Check the declared length of a download before reading it.
+	 * @param length the content length (negative if not known)
+	 * @param location a description of the upstream for error messages
+	 */
+	void checkLength(long length, String location) {
+		if (length > this.maxBytes) {
+			throw exceeded(location, length + " bytes, more than " + this.maxBytes);
+		}
+	}
+
+	/**
+	 * Check the nesting depth of raw content without building a tree.
+	 * @param bytes the content (JSON or YAML)
+	 * @param location a description of the upstream for error messages
+	 */
+	void checkDepth(byte[] bytes, String location) {
+		if (this.maxDepth == Integer.MAX_VALUE) {
+			return;
+		}
+		JsonFactory factory = isJson(bytes) ? Json.mapper().getFactory() : Yaml.mapper().getFactory();
+		try (JsonParser parser = factory.createParser(bytes)) {
+			int depth = 0;
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token.isStructStart()) {
+					if (++depth > this.maxDepth) {
+						throw exceeded(location, "nesting deeper than " + this.maxDepth + " at line "
+								+ parser.currentLocation().getLineNr());
+					}
+				}
+				else if (token.isStructEnd()) {
+					depth--;
+				}
+			}
+		}
+		catch (IOException e) {
+			// Not well-formed, so let the parser report it
+		}
+	}
+
+	/**
+	 * Check the number of paths and schemas in a parsed spec.
+	 * @param api the parsed spec
+	 * @param location a description of the upstream for error messages
+	 */
+	void checkCounts(OpenAPI api, String location) {
+		int paths = api.getPaths() == null ? 0 : api.getPaths().size();
+		if (paths > this.maxPaths) {
+			throw exceeded(location, paths + " paths, more than " + this.maxPaths);
+		}
+		Map<?, ?> schemas = api.getComponents() == null ? null : api.getComponents().getSchemas();
+		int count = schemas == null ? 0 : schemas.size();
+		if (count > this.maxSchemas) {
+			throw exceeded(location, count + " schemas, more than " + this.maxSchemas);
+		}
+	}
+
+	private static boolean isJson(byte[] bytes) {
+		String start = new String(bytes, 0, Math.min(bytes.length, 64), StandardCharsets.UTF_8).stripLeading();
+		return start.startsWith("{") || start.startsWith("[");
+	}
+
+	private static SpecLimitException exceeded(String location, String reason) {
+		return new SpecLimitException("Spec from " + location + " rejected: " + reason, location);
+	}
+
+	/**
+	 * Thrown when an upstream spec is over one of its {@link SpecLimits}. Only that
+	 * upstream is rejected, and the rest of the aggregation carries on without it.
+	 */
+	public static class SpecLimitException extends IllegalStateException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String location;
+
+		SpecLimitException(String message, String location) {
+			super(message);
+			this.location = location;
+		}
+
+		/**
+		 * The upstream that was rejected.
+		 * @return a description of the upstream
+		 */
+		public String getLocation() {
+			return this.location;
+		}
+
+	}
+
+}
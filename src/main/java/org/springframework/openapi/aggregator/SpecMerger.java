@@ -0,0 +1,332 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Collision;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Contribution;
+
+import io.swagger.v3.oas.models.Components;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.PathItem.HttpMethod;
+import io.swagger.v3.oas.models.Paths;
+import io.swagger.v3.oas.models.parameters.Parameter;
+
+/**
+ * Merges specs into an aggregate one at a time, keeping an index of the paths and
+ * components that are already there and who contributed them, so that collisions are
+ * detected with a single hash lookup per key and resolved according to a
+ * {@link ConflictPolicy}. Paths are indexed by their template (with the variable names
+ * removed) so that paths that only differ in the names of their variables also collide.
+ * The contribution of each spec is kept up to date, so a spec that loses a key to a later
+ * one no longer lists it.
+ */
+class SpecMerger {
+
+	private static final Log logger = LogFactory.getLog(SpecMerger.class);
+
+	private static final Pattern VARIABLE = Pattern.compile("\\{([^}]*)\\}");
+
+	private final OpenAPI api;
+
+	private final ConflictPolicy policy;
+
+	private final Map<String, Owner> paths = new HashMap<>();
+
+	private final Map<String, Spec> pathOwners = new HashMap<>();
+
+	private final Map<String, Spec> components = new HashMap<>();
+
+	private final Map<Spec, Contribution> contributions = new LinkedHashMap<>();
+
+	private final List<Collision> collisions = new ArrayList<>();
+
+	private int count;
+
+	SpecMerger(OpenAPI api, ConflictPolicy policy) {
+		this.api = api;
+		this.policy = policy;
+	}
+
+	/**
+	 * Merge a spec into the aggregate. Depending on the policy the item may be modified
+	 * (e.g. paths that lost a collision are removed), so that afterwards it only contains
+	 * what it actually contributed.
+	 * @param item the filtered spec
+	 * @param spec the spec it came from (or null for the base)
+	 * @return the item as it was merged
+	 */
+	OpenAPI merge(OpenAPI item, Spec spec) {
+		if (spec != null) {
+			this.count++;
+			if (this.policy == ConflictPolicy.NAMESPACE) {
+				item = namespace(item, spec);
+			}
+		}
+		mergePaths(item, spec);
+		mergeComponents(item, spec);
+		if (spec != null) {
+			this.contributions.put(spec, Contribution.of(item));
+		}
+		return item;
+	}
+
+	List<Collision> getCollisions() {
+		return Collections.unmodifiableList(this.collisions);
+	}
+
+	/**
+	 * The keys that each spec merged so far contributed and still owns.
+	 * @return the contributions in merge order
+	 */
+	Map<Spec, Contribution> getContributions() {
+		return this.contributions;
+	}
+
+	private void mergePaths(OpenAPI item, Spec spec) {
+		Paths source = item.getPaths();
+		if (source == null) {
+			return;
+		}
+		if (this.api.getPaths() == null) {
+			this.api.paths(new Paths());
+		}
+		Paths target = this.api.getPaths();
+		for (Map.Entry<String, PathItem> entry : new ArrayList<>(source.entrySet())) {
+			String path = entry.getKey();
+			PathItem pathItem = entry.getValue();
+			String template = template(path);
+			Owner owner = this.paths.get(template);
+			if (owner == null) {
+				this.paths.put(template, new Owner(path, spec));
+				this.pathOwners.put(path, spec);
+				target.addPathItem(path, pathItem);
+				continue;
+			}
+			PathItem existing = target.get(owner.path());
+			if (owner.path().equals(path) && Objects.equals(existing, pathItem)) {
+				continue;
+			}
+			collide("paths", owner.path(), owner.spec(), path, spec);
+			if (this.policy == ConflictPolicy.FIRST_WINS) {
+				source.remove(path);
+			}
+			else if (this.policy == ConflictPolicy.MERGE_OPERATIONS) {
+				PathItem merged = mergeOperations(existing, owner.path(), pathItem, path);
+				target.addPathItem(owner.path(), merged);
+				source.remove(path);
+				source.addPathItem(owner.path(), merged);
+			}
+			else {
+				// Paths that only differ in variable names are both kept (as they were
+				// before collisions were detected), only an exact match is replaced
+				if (target.containsKey(path)) {
+					lose(this.pathOwners.get(path), "paths", path);
+				}
+				target.addPathItem(path, pathItem);
+				this.paths.put(template, new Owner(path, spec));
+				this.pathOwners.put(path, spec);
+			}
+		}
+		if (source.getExtensions() != null) {
+			if (target.getExtensions() == null) {
+				target.setExtensions(new HashMap<>());
+			}
+			target.getExtensions().putAll(source.getExtensions());
+		}
+	}
+
+	private void mergeComponents(OpenAPI item, Spec spec) {
+		Components target = this.api.getComponents();
+		if (target == null) {
+			target = new Components();
+			this.api.components(target);
+		}
+		Components source = item.getComponents();
+		if (source == null) {
+			return;
+		}
+		for (ComponentType type : ComponentType.values()) {
+			Map<String, Object> map = type.get(source);
+			if (map == null) {
+				continue;
+			}
+			Map<String, Object> existing = type.get(target);
+			if (existing == null) {
+				existing = new HashMap<>();
+				type.set(target, existing);
+			}
+			for (Map.Entry<String, Object> entry : new ArrayList<>(map.entrySet())) {
+				String name = entry.getKey();
+				String key = type.getKey() + "/" + name;
+				if (existing.containsKey(name)) {
+					if (Objects.equals(existing.get(name), entry.getValue())) {
+						continue;
+					}
+					collide(type.getKey(), name, this.components.get(key), name, spec);
+					if (this.policy == ConflictPolicy.FIRST_WINS) {
+						map.remove(name);
+						continue;
+					}
+					lose(this.components.get(key), type.getKey(), name);
+				}
+				existing.put(name, entry.getValue());
+				this.components.put(key, spec);
+			}
+		}
+		if (source.getExtensions() != null) {
+			if (target.getExtensions() == null) {
+				target.setExtensions(new HashMap<>());
+			}
+			target.getExtensions().putAll(source.getExtensions());
+		}
+	}
+
+	private void collide(String type, String existing, Spec previous, String key, Spec spec) {
+		Collision collision = new Collision(type, existing, previous, key, spec);
+		if (this.policy == ConflictPolicy.FAIL) {
+			throw new IllegalStateException("Conflicting " + collision.getDescription());
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Resolving with " + this.policy + ": " + collision.getDescription());
+		}
+		this.collisions.add(collision);
+	}
+
+	private void lose(Spec previous, String type, String key) {
+		Contribution contribution = this.contributions.get(previous);
+		if (contribution == null) {
+			return;
+		}
+		if ("paths".equals(type)) {
+			contribution.paths().remove(key);
+		}
+		else {
+			Set<String> names = contribution.components().get(type);
+			if (names != null && names.remove(key) && names.isEmpty()) {
+				contribution.components().remove(type);
+			}
+		}
+	}
+
+	private OpenAPI namespace(OpenAPI item, Spec spec) {
+		String name = spec.name() != null ? spec.name() : "spec" + this.count;
+		Spec namespaced = new Spec(spec.resource());
+		boolean changed = false;
+		if (item.getPaths() != null) {
+			for (String path : item.getPaths().keySet()) {
+				Owner owner = this.paths.get(template(path));
+				if (owner != null) {
+					collide("paths", owner.path(), owner.spec(), path, spec);
+					namespaced = namespaced.prefix("/" + name);
+					changed = true;
+					break;
+				}
+			}
+		}
+		Map<String, Object> schemas = ComponentType.SCHEMAS.get(item.getComponents());
+		Map<String, Object> existing = ComponentType.SCHEMAS.get(this.api.getComponents());
+		if (schemas != null && existing != null) {
+			for (Map.Entry<String, Object> entry : schemas.entrySet()) {
+				String schema = entry.getKey();
+				if (existing.containsKey(schema) && !Objects.equals(existing.get(schema), entry.getValue())) {
+					collide("schemas", schema, this.components.get("schemas/" + schema), schema, spec);
+					namespaced = namespaced.schemaPrefix(name + "_");
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (!changed) {
+			return item;
+		}
+		if (item.getPaths() == null) {
+			item.setPaths(new Paths());
+		}
+		return namespaced.filter().apply(item);
+	}
+
+	private static PathItem mergeOperations(PathItem existing, String existingPath, PathItem item, String path) {
+		Map<String, String> names = new HashMap<>();
+		Matcher from = VARIABLE.matcher(path);
+		Matcher to = VARIABLE.matcher(existingPath);
+		while (from.find() && to.find()) {
+			if (!from.group(1).equals(to.group(1))) {
+				names.put(from.group(1), to.group(1));
+			}
+		}
+		// Copy so that the earlier spec (or the base) is not modified
+		PathItem merged = new PathItem().summary(existing.getSummary())
+			.description(existing.getDescription())
+			.servers(existing.getServers())
+			.extensions(existing.getExtensions())
+			.$ref(existing.get$ref());
+		existing.readOperationsMap().forEach(merged::operation);
+		if (existing.getParameters() != null) {
+			merged.setParameters(new ArrayList<>(existing.getParameters()));
+		}
+		rename(item.getParameters(), names);
+		if (item.getParameters() != null) {
+			for (Parameter parameter : item.getParameters()) {
+				if (merged.getParameters() == null || merged.getParameters()
+					.stream()
+					.noneMatch(other -> Objects.equals(other.getName(), parameter.getName())
+							&& Objects.equals(other.getIn(), parameter.getIn()))) {
+					merged.addParametersItem(parameter);
+				}
+			}
+		}
+		for (Map.Entry<HttpMethod, Operation> entry : item.readOperationsMap().entrySet()) {
+			rename(entry.getValue().getParameters(), names);
+			merged.operation(entry.getKey(), entry.getValue());
+		}
+		return merged;
+	}
+
+	private static void rename(List<Parameter> parameters, Map<String, String> names) {
+		if (parameters == null || names.isEmpty()) {
+			return;
+		}
+		for (Parameter parameter : parameters) {
+			if ("path".equals(parameter.getIn()) && names.containsKey(parameter.getName())) {
+				parameter.setName(names.get(parameter.getName()));
+			}
+		}
+	}
+
+	static String template(String path) {
+		return VARIABLE.matcher(path).replaceAll("{}");
+	}
+
+	private record Owner(String path, Spec spec) {
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.SpecCache.Content;
+
+/**
+ * Polls each upstream spec on its own schedule and requests a refresh when one of them
+ * changes. Specs that have not changed are polled less and less often (exponential
+ * backoff up to a maximum interval), and a spec that has just changed goes back to the
+ * minimum interval. Each delay is randomized with some jitter so that polls for different
+ * specs are spread out, and the number of concurrent fetches is bounded by the size of
+ * the thread pool. Polls are skipped while the snapshots come from a peer (see
+ * {@link OpenApiPeers}).
+ */
+public class SpecPoller implements SmartLifecycle {
+
+	private static final Log logger = LogFactory.getLog(SpecPoller.class);
+
+	private final OpenApiAggregatorSpecs specs;
+
+	private final SpecCache cache;
+
+	private final OpenApiSnapshots snapshots;
+
+	private final Map<Spec, Duration> intervals = new ConcurrentHashMap<>();
+
+	private Duration minInterval = Duration.ofSeconds(30);
+
+	private Duration maxInterval = Duration.ofHours(1);
+
+	private double jitter = 0.2;
+
+	private int concurrency = 4;
+
+	private ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * Create a new {@link SpecPoller} instance.
+	 * @param specs the specs to poll
+	 * @param cache the cache to fetch the specs through
+	 * @param snapshots the snapshots to refresh when a spec changes
+	 */
+	public SpecPoller(OpenApiAggregatorSpecs specs, SpecCache cache, OpenApiSnapshots snapshots) {
+		this.specs = specs;
+		this.cache = cache;
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Set the interval to poll a spec at just after it changed.
+	 * @param minInterval the minimum interval
+	 */
+	public void setMinInterval(Duration minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * Set the longest interval to back off to for a spec that does not change.
+	 * @param maxInterval the maximum interval
+	 */
+	public void setMaxInterval(Duration maxInterval) {
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * Set the amount of randomization to apply to each delay, as a fraction of the
+	 * interval (e.g. 0.2 means plus or minus 20%).
+	 * @param jitter the jitter fraction
+	 */
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Set the maximum number of upstream specs that are fetched at the same time.
+	 * @param concurrency the maximum number of concurrent fetches
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (this.executor != null) {
+			return;
+		}
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ScheduledThreadPoolExecutor(this.concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "openapi-poller-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.setRemoveOnCancelPolicy(true);
+		for (Spec spec : this.specs.getSpecs()) {
+			this.intervals.put(spec, this.minInterval);
+			// Spread the first polls over the whole minimum interval
+			long delay = ThreadLocalRandom.current().nextLong(Math.max(1, this.minInterval.toMillis()));
+			this.executor.schedule(() -> poll(spec), delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return this.executor != null;
+	}
+
+	/**
+	 * The current polling interval for a spec (before jitter).
+	 * @param spec the spec
+	 * @return the interval
+	 */
+	public Duration getInterval(Spec spec) {
+		return this.intervals.getOrDefault(spec, this.minInterval);
+	}
+
+	void poll(Spec spec) {
+		if (this.snapshots.isFollowingPeer()) {
+			// A peer reads the upstreams for us, so check again later in case it goes
+			// away
+			schedule(spec, getInterval(spec));
+			return;
+		}
+		boolean changed = false;
+		try {
+			Content content = this.cache.fetch(spec);
+			changed = content.changed();
+		}
+		catch (RuntimeException e) {
+			logger.debug("Could not poll " + spec.resource(), e);
+		}
+		Duration interval = changed ? this.minInterval : backoff(getInterval(spec));
+		this.intervals.put(spec, interval);
+		if (changed) {
+			// Only this spec changed, and it is already in the cache
+			this.snapshots.refresh(false);
+		}
+		schedule(spec, interval);
+	}
+
+	private Duration backoff(Duration interval) {
+		Duration next = interval.multipliedBy(2);
+		return next.compareTo(this.maxInterval) > 0 ? this.maxInterval : next;
+	}
+
+	private synchronized void schedule(Spec spec, Duration interval) {
+		if (this.executor == null || this.executor.isShutdown()) {
+			return;
+		}
+		long millis = interval.toMillis();
+		double random = this.jitter > 0 ? ThreadLocalRandom.current().nextDouble(-this.jitter, this.jitter) : 0;
+		long delay = Math.max(1, Math.round(millis * (1 + random)));
+		this.executor.schedule(() -> poll(spec), delay, TimeUnit.MILLISECONDS);
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import org.springdoc.core.models.GroupedOpenApi;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+
+import io.swagger.v3.oas.models.OpenAPI;
+
+/**
+ * Factory for SpringDoc groups that each show a single upstream spec. Declare them as
+ * beans, e.g.
+ *
+ * <pre class="code">
+ * &#64;Bean
+ * GroupedOpenApi wizards(OpenApiSnapshots snapshots) {
+ * 	return SpringDocGroups.group("wizards", wizardsSpec, snapshots);
+ * }
+ * </pre>
+ *
+ * The group content is copied from the current snapshot whenever SpringDoc regenerates
+ * it, so it follows refreshes.
+ */
+public abstract class SpringDocGroups {
+
+	private SpringDocGroups() {
+	}
+
+	/**
+	 * Create a group for a spec. The group contains the paths and components that the
+	 * spec contributed to the aggregate, with the same names as in the aggregate, and
+	 * none of the local endpoints.
+	 * @param name the group name
+	 * @param spec the spec (the same instance that was added to the
+	 * {@link OpenApiAggregatorSpecs})
+	 * @param snapshots the source of snapshots
+	 * @return a group
+	 */
+	public static GroupedOpenApi group(String name, Spec spec, OpenApiSnapshots snapshots) {
+		return GroupedOpenApi.builder().group(name).pathsToMatch("/**").addOpenApiCustomizer(openApi -> {
+			OpenAPI slice = snapshots.getCurrent().slice(spec);
+			if (slice != null) {
+				// A copy that customizers can modify without touching the snapshot
+				slice = OpenApiAggregator.copy(slice);
+				openApi.setPaths(slice.getPaths());
+				openApi.setComponents(slice.getComponents());
+			}
+		}).build();
+	}
+
+}
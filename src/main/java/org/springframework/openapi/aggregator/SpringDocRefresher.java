@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springdoc.core.customizers.OpenApiLocaleCustomizer;
+import org.springdoc.core.service.OpenAPIService;
+import org.springframework.beans.factory.ObjectProvider;
+
+import io.swagger.v3.oas.models.Components;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Paths;
+import io.swagger.v3.oas.models.tags.Tag;
+
+/**
+ * Merges the current aggregate into every document that SpringDoc generates, and clears
+ * the documents that SpringDoc has cached when a new snapshot is published. Each
+ * generated document gets its own deep copy of the published (fully built) snapshot, so
+ * it never sees half of an update and can be customized freely, and the paths and
+ * components of the local endpoints take precedence over the aggregate.
+ */
+class SpringDocRefresher implements OpenApiLocaleCustomizer {
+
+	private final OpenApiSnapshots snapshots;
+
+	private final ObjectProvider<OpenAPIService> services;
+
+	private final Set<Locale> locales = ConcurrentHashMap.newKeySet();
+
+	SpringDocRefresher(OpenApiSnapshots snapshots, ObjectProvider<OpenAPIService> services) {
+		this.snapshots = snapshots;
+		this.services = services;
+		snapshots.addListener(snapshot -> invalidate());
+	}
+
+	@Override
+	public void customise(OpenAPI openApi, Locale locale) {
+		// Remember the locale, so that its cached document can be cleared later
+		this.locales.add(locale != null ? locale : Locale.getDefault());
+		// A copy, because the published model is compacted (with immutable maps) and
+		// shared, and SpringDoc and other customizers modify the document in place
+		merge(OpenApiAggregator.copy(this.snapshots.getCurrent().getApi()), openApi);
+	}
+
+	/**
+	 * Clear the documents that SpringDoc has cached, so they are regenerated from the
+	 * current snapshot on the next request.
+	 */
+	void invalidate() {
+		this.services.ifAvailable(service -> {
+			service.setCachedOpenAPI(null, Locale.getDefault());
+			for (Locale locale : this.locales) {
+				service.setCachedOpenAPI(null, locale);
+			}
+		});
+	}
+
+	static OpenAPI merge(OpenAPI source, OpenAPI target) {
+		if (source.getOpenapi() != null) {
+			target.setOpenapi(source.getOpenapi());
+		}
+		if (source.getInfo() != null) {
+			target.setInfo(source.getInfo());
+		}
+		if (source.getExternalDocs() != null) {
+			target.setExternalDocs(source.getExternalDocs());
+		}
+		if (source.getServers() != null && !source.getServers().isEmpty()) {
+			target.setServers(source.getServers());
+		}
+		if (source.getSecurity() != null) {
+			target.setSecurity(source.getSecurity());
+		}
+		if (source.getWebhooks() != null) {
+			target.setWebhooks(source.getWebhooks());
+		}
+		if (source.getJsonSchemaDialect() != null) {
+			target.setJsonSchemaDialect(source.getJsonSchemaDialect());
+		}
+		target.setExtensions(merge(source.getExtensions(), target.getExtensions()));
+		if (source.getTags() != null) {
+			List<Tag> tags = new ArrayList<>(source.getTags());
+			if (target.getTags() != null) {
+				for (Tag tag : target.getTags()) {
+					if (tags.stream().noneMatch(existing -> existing.getName().equals(tag.getName()))) {
+						tags.add(tag);
+					}
+				}
+			}
+			target.setTags(tags);
+		}
+		if (source.getPaths() != null) {
+			Paths paths = new Paths();
+			paths.putAll(source.getPaths());
+			if (target.getPaths() != null) {
+				paths.putAll(target.getPaths());
+				paths.setExtensions(target.getPaths().getExtensions());
+			}
+			target.setPaths(paths);
+		}
+		if (source.getComponents() != null) {
+			Components components = target.getComponents();
+			if (components == null) {
+				components = new Components();
+				target.setComponents(components);
+			}
+			for (ComponentType type : ComponentType.values()) {
+				Map<String, Object> map = merge(type.get(source.getComponents()), type.get(components));
+				if (map != null) {
+					type.set(components, map);
+				}
+			}
+		}
+		return target;
+	}
+
+	private static <T> Map<String, T> merge(Map<String, T> source, Map<String, T> target) {
+		if (source == null || source.isEmpty()) {
+			return target;
+		}
+		// A new map, so the snapshot is never modified, with the local entries winning
+		Map<String, T> result = new LinkedHashMap<>(source);
+		if (target != null) {
+			result.putAll(target);
+		}
+		return result;
+	}
+
+}
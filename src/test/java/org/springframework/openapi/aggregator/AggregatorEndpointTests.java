@@ -0,0 +1,393 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.core.util.Yaml;
+import io.swagger.v3.core.util.Yaml31;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.SpecVersion;
+import io.swagger.v3.oas.models.info.Info;
+import io.swagger.v3.oas.models.media.Schema;
+
+public class AggregatorEndpointTests {
+
+	private WebTestClient client;
+
+	@BeforeEach
+	public void init() throws Exception {
+		OpenAPI base = new OpenAPI();
+		base.setInfo(new Info().title("Test").version("v0"));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("openapi.json"))), base));
+		AggregatorEndpoint endpoint = new AggregatorEndpoint(snapshots, new SnapshotHistory(snapshots, 4));
+		endpoint.afterPropertiesSet();
+		client = WebTestClient.bindToController(endpoint).build();
+	}
+
+	@Test
+	public void json() throws Exception {
+		byte[] body = client.get()
+			.uri("/v3/api-docs")
+			.accept(MediaType.APPLICATION_JSON)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectHeader()
+			.contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+			.expectBody()
+			.returnResult()
+			.getResponseBody();
+		assertThat(Json.mapper().readValue(body, OpenAPI.class).getPaths()).containsKeys("/generated", "/manual");
+	}
+
+	@Test
+	public void yaml() throws Exception {
+		byte[] body = client.get()
+			.uri("/v3/api-docs")
+			.accept(MediaType.parseMediaType("application/yaml"))
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.returnResult()
+			.getResponseBody();
+		assertThat(Yaml.mapper().readValue(body, OpenAPI.class).getPaths()).containsKeys("/generated", "/manual");
+	}
+
+	@Test
+	public void smile() throws Exception {
+		byte[] body = client.get()
+			.uri("/v3/api-docs")
+			.accept(MediaType.parseMediaType("application/x-jackson-smile"))
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.returnResult()
+			.getResponseBody();
+		ObjectMapper mapper = Json.mapper().copyWith(new SmileFactory());
+		assertThat(mapper.readValue(body, OpenAPI.class).getPaths()).containsKeys("/generated", "/manual");
+	}
+
+	@Test
+	public void fragment() throws Exception {
+		String etag = client.get()
+			.uri("/v3/api-docs/paths/~1manual/get")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.jsonPath("$.operationId")
+			.isEqualTo("message")
+			.returnResult()
+			.getResponseHeaders()
+			.getETag();
+		assertThat(etag).isNotNull();
+		client.get().uri("/v3/api-docs/paths/~1manual/get").ifNoneMatch(etag).exchange().expectStatus().isNotModified();
+		client.get()
+			.uri("/v3/api-docs/paths/~1manual/get")
+			.header(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag)
+			.exchange()
+			.expectStatus()
+			.isNotModified();
+		client.get()
+			.uri("/v3/api-docs/paths/~1manual/get")
+			.header(HttpHeaders.IF_NONE_MATCH, "\"other\"")
+			.exchange()
+			.expectStatus()
+			.isOk();
+		client.get().uri("/v3/api-docs/components/schemas/Model").exchange().expectStatus().isOk();
+		client.get().uri("/v3/api-docs/paths/~1missing").exchange().expectStatus().isNotFound();
+	}
+
+	@Test
+	public void documents() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).prefix("/v1").schemaPrefix("V1").name("v1"))
+			.spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2").schemaPrefix("V2"));
+		WebTestClient client = WebTestClient
+			.bindToController(new DocumentsEndpoint(new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI())),
+					specs, "/docs"))
+			.build();
+		client.get()
+			.uri("/v3/api-docs/swagger-config")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.jsonPath("$.urls[0].url")
+			.isEqualTo("/docs/specs/v1")
+			.jsonPath("$.urls[1].name")
+			.isEqualTo("2");
+		byte[] body = client.get()
+			.uri("/v3/api-docs/specs/v1")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.returnResult()
+			.getResponseBody();
+		OpenAPI api = Json.mapper().readValue(body, OpenAPI.class);
+		assertThat(api.getPaths()).containsOnlyKeys("/v1/generated", "/v1/manual");
+		assertThat(api.getComponents().getSchemas()).containsOnlyKeys("V1Model");
+		client.get().uri("/v3/api-docs/specs/v3").exchange().expectStatus().isNotFound();
+	}
+
+	@Test
+	public void documentsWithRejectedSpec() {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).limits(SpecLimits.NONE.maxPaths(1)))
+			.spec(new Spec(new ClassPathResource("posts.json")));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI()));
+		assertThat(snapshots.getCurrent().getRejected()).hasSize(1);
+		// Unnamed specs keep their declared position when an earlier one is left out
+		assertThat(snapshots.getCurrent().getDocuments()).containsOnlyKeys("2");
+		WebTestClient client = WebTestClient.bindToController(new DocumentsEndpoint(snapshots, specs, "/docs")).build();
+		client.get()
+			.uri("/v3/api-docs/swagger-config")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.jsonPath("$.urls.length()")
+			.isEqualTo(1)
+			.jsonPath("$.urls[0].url")
+			.isEqualTo("/docs/specs/2");
+		client.get().uri("/v3/api-docs/specs/1").exchange().expectStatus().isNotFound();
+		client.get().uri("/v3/api-docs/specs/2").exchange().expectStatus().isOk();
+	}
+
+	@Test
+	public void documentsWithContextPath() {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("user api"));
+		WebTestClient client = WebTestClient
+			.bindToController(new DocumentsEndpoint(new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI())),
+					specs, "/docs"))
+			.webFilter((exchange, chain) -> chain
+				.filter(exchange.mutate().request(request -> request.contextPath("/app")).build()))
+			.build();
+		client.get()
+			.uri("/app/v3/api-docs/swagger-config")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.jsonPath("$.urls[0].url")
+			.isEqualTo("/app/docs/specs/user%20api");
+	}
+
+	@Test
+	public void documentsWithDuplicateNames() {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("users"))
+			.spec(new Spec(new ClassPathResource("posts.json")).name("users"));
+		assertThatIllegalStateException()
+			.isThrownBy(() -> new DocumentsEndpoint(new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI())),
+					specs, "/docs"))
+			.withMessageContaining("users");
+	}
+
+	@Test
+	public void deltaHistoryIsLazy(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))), new OpenAPI()));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		SnapshotHistory history = new SnapshotHistory(snapshots, 4);
+		String etag = snapshots.getCurrent().getEtag();
+		Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+		snapshots.refresh().get(5, TimeUnit.SECONDS);
+		// No fingerprints are kept until a client asks for a patch
+		assertThat(history.size()).isZero();
+		assertThat(history.patch(etag)).isNull();
+		assertThat(history.size()).isPositive();
+		assertThat(history.patch(snapshots.getCurrent().getEtag())).isEqualTo("[]".getBytes());
+		snapshots.destroy();
+	}
+
+	@Test
+	public void delta(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))), new OpenAPI()));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		WebTestClient client = WebTestClient
+			.bindToController(new AggregatorEndpoint(snapshots, new SnapshotHistory(snapshots, 4)))
+			.build();
+		String etag = client.get()
+			.uri("/v3/api-docs")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.returnResult()
+			.getResponseHeaders()
+			.getETag();
+		client.get().uri("/v3/api-docs").ifNoneMatch(etag).exchange().expectStatus().isNotModified();
+		client.get()
+			.uri("/v3/api-docs?since={etag}", etag)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectHeader()
+			.contentType(SnapshotHistory.JSON_PATCH)
+			.expectBody()
+			.json("[]");
+		Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+		snapshots.refresh().get(5, TimeUnit.SECONDS);
+		client.get()
+			.uri("/v3/api-docs?since={etag}", etag)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectHeader()
+			.contentType(SnapshotHistory.JSON_PATCH)
+			.expectBody()
+			.jsonPath("$.length()")
+			.isEqualTo(2)
+			.jsonPath("$[0].op")
+			.isEqualTo("remove")
+			.jsonPath("$[0].path")
+			.isEqualTo("/paths/~1manual")
+			.jsonPath("$[1].op")
+			.isEqualTo("add")
+			.jsonPath("$[1].path")
+			.isEqualTo("/paths/~1changed");
+		client.get()
+			.uri("/v3/api-docs?since=unknown")
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectHeader()
+			.contentType(MediaType.APPLICATION_JSON);
+		snapshots.destroy();
+	}
+
+	@Test
+	public void deltaOnlyFromFirstRequest(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))), new OpenAPI()));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		WebTestClient client = WebTestClient
+			.bindToController(new AggregatorEndpoint(snapshots, new SnapshotHistory(snapshots, 4)))
+			.build();
+		String etag = snapshots.getCurrent().getEtag();
+		Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+		snapshots.refresh().get(5, TimeUnit.SECONDS);
+		// Published before anyone asked for a delta, so it was not remembered
+		client.get()
+			.uri("/v3/api-docs?since={etag}", etag)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectHeader()
+			.contentType(MediaType.APPLICATION_JSON);
+		snapshots.destroy();
+	}
+
+	@Test
+	public void fragmentCache() {
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("openapi.json"))), new OpenAPI())
+			.snapshot();
+		assertThat(snapshot.getFragment("/paths/~1manual")).isSameAs(snapshot.getFragment("/paths/~1manual"));
+		long cached = snapshot.index().cached();
+		// Only paths, components and top level entries are cached, and misses are not
+		assertThat(snapshot.getFragment("/paths/~1manual/get"))
+			.isNotSameAs(snapshot.getFragment("/paths/~1manual/get"));
+		for (int i = 0; i < 100; i++) {
+			assertThat(snapshot.getFragment("/paths/~1missing" + i)).isNull();
+		}
+		assertThat(snapshot.index().cached()).isEqualTo(cached);
+	}
+
+	@Test
+	public void cachedPerSnapshot() {
+		OpenApiSnapshot snapshot = new OpenApiSnapshot(new OpenAPI().info(new Info().title("Test")));
+		assertThat(snapshot.getBytes(OpenApiSnapshot.Encoding.CBOR))
+			.isSameAs(snapshot.getBytes(OpenApiSnapshot.Encoding.CBOR));
+	}
+
+	@Test
+	public void openApi31Encodings() throws Exception {
+		OpenAPI api = Json31.mapper().readValue("""
+				{
+				  "openapi": "3.1.0",
+				  "info": { "title": "Users", "version": "v1" },
+				  "webhooks": {
+				    "user": { "post": { "responses": { "200": { "description": "OK" } } } }
+				  },
+				  "components": {
+				    "schemas": {
+				      "User": {
+				        "type": "object",
+				        "properties": { "name": { "type": [ "string", "null" ] } }
+				      }
+				    }
+				  }
+				}
+				""", OpenAPI.class);
+		api.setSpecVersion(SpecVersion.V31);
+		OpenApiSnapshot snapshot = new OpenApiSnapshot(api);
+		assertOpenApi31(Json31.mapper().readValue(snapshot.getBytes(OpenApiSnapshot.Encoding.JSON), OpenAPI.class));
+		assertOpenApi31(Yaml31.mapper().readValue(snapshot.getBytes(OpenApiSnapshot.Encoding.YAML), OpenAPI.class));
+		assertOpenApi31(Json31.mapper()
+			.copyWith(new SmileFactory())
+			.readValue(snapshot.getBytes(OpenApiSnapshot.Encoding.SMILE), OpenAPI.class));
+		assertOpenApi31(Json31.mapper()
+			.copyWith(new CBORFactory())
+			.readValue(snapshot.getBytes(OpenApiSnapshot.Encoding.CBOR), OpenAPI.class));
+	}
+
+	private void assertOpenApi31(OpenAPI api) {
+		assertThat(api.getOpenapi()).isEqualTo("3.1.0");
+		assertThat(api.getWebhooks()).containsKey("user");
+		Schema<?> user = api.getComponents().getSchemas().get("User");
+		Schema<?> name = user.getProperties().get("name");
+		assertThat(name.getTypes()).containsExactlyInAnyOrder("string", "null");
+	}
+
+}
@@ -2,10 +2,16 @@ package org.springframework.openapi.aggregator;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springdoc.core.configuration.SpringDocConfiguration;
+import org.springdoc.core.customizers.OpenApiCustomizer;
 import org.springdoc.core.properties.SpringDocConfigProperties;
 import org.springdoc.core.service.OpenAPIService;
 import org.springframework.boot.autoconfigure.AutoConfigurations;
@@ -13,6 +19,17 @@ import org.springframework.boot.autoconfigure.web.reactive.WebFluxAutoConfigurat
 import org.springframework.boot.test.context.FilteredClassLoader;
 import org.springframework.boot.test.context.runner.ApplicationContextRunner;
 import org.springframework.boot.test.context.runner.ReactiveWebApplicationContextRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.util.StreamUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Paths;
+import io.swagger.v3.oas.models.media.StringSchema;
 
 public class AutoconfigurationTests {
 
@@ -41,6 +58,157 @@ public class AutoconfigurationTests {
 		});
 	}
 
+	@Test
+	public void springdocRefresh(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		ReactiveWebApplicationContextRunner contextRunner = new ReactiveWebApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(OpenApiAggregatorConfiguration.class, SpringDocConfiguration.class,
+					SpringDocConfigProperties.class, WebFluxAutoConfiguration.class))
+			.withPropertyValues("spring.openapi.aggregator.refresh.debounce=10ms")
+			.withBean(OpenApiAggregatorSpecs.class,
+					() -> new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))));
+		contextRunner.run(context -> {
+			OpenAPIService service = context.getBean(OpenAPIService.class);
+			SpringDocRefresher refresher = context.getBean(SpringDocRefresher.class);
+			OpenAPI api = service.build(Locale.US);
+			refresher.customise(api, Locale.US);
+			service.setCachedOpenAPI(api, Locale.US);
+			assertThat(service.getCachedOpenAPI(Locale.US).getPaths()).containsKey("/manual");
+			Files.writeString(file, Files.readString(file).replace("/manual", "/changed"));
+			context.getBean(OpenApiSnapshots.class).refresh().get(5, TimeUnit.SECONDS);
+			assertThat(service.getCachedOpenAPI(Locale.US)).isNull();
+			api = service.build(Locale.US);
+			refresher.customise(api, Locale.US);
+			assertThat(api.getPaths()).containsKey("/changed").doesNotContainKey("/manual");
+			assertThat(service.build(Locale.US).getPaths()).isNullOrEmpty();
+		});
+	}
+
+	@Test
+	public void refreshEventWithPolling(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(OpenApiAggregatorConfiguration.class))
+			.withPropertyValues("spring.openapi.aggregator.refresh.debounce=10ms",
+					"spring.openapi.aggregator.polling.enabled=true",
+					"spring.openapi.aggregator.polling.min-interval=1h")
+			.withBean(OpenApiAggregatorSpecs.class,
+					() -> new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))))
+			.withClassLoader(new FilteredClassLoader(OpenAPIService.class));
+		contextRunner.run(context -> {
+			OpenApiSnapshots snapshots = context.getBean(OpenApiSnapshots.class);
+			assertThat(snapshots.getCurrent().getApi().getPaths()).containsKey("/manual");
+			CompletableFuture<OpenApiSnapshot> refreshed = new CompletableFuture<>();
+			snapshots.addListener(refreshed::complete);
+			// The poller will not get to it for an hour, so the event has to revalidate
+			Files.writeString(file, Files.readString(file).replace("/manual", "/changed"));
+			context.publishEvent(new OpenApiRefreshEvent(this));
+			assertThat(refreshed.get(5, TimeUnit.SECONDS).getApi().getPaths()).containsKey("/changed")
+				.doesNotContainKey("/manual");
+		});
+	}
+
+	@Test
+	public void springdocCustomizerModifiesMergedModel() {
+		ReactiveWebApplicationContextRunner contextRunner = new ReactiveWebApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(OpenApiAggregatorConfiguration.class, SpringDocConfiguration.class,
+					SpringDocConfigProperties.class, WebFluxAutoConfiguration.class))
+			.withBean(OpenApiAggregatorSpecs.class,
+					() -> new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("openapi.json"))));
+		contextRunner.run(context -> {
+			OpenAPIService service = context.getBean(OpenAPIService.class);
+			OpenAPI api = service.build(Locale.US);
+			context.getBean(SpringDocRefresher.class).customise(api, Locale.US);
+			customize(api);
+			assertThat(api.getPaths().get("/manual").getGet().getExtensions()).containsKey("x-local");
+			OpenAPI published = context.getBean(OpenApiSnapshots.class).getCurrent().getApi();
+			assertThat(published.getPaths().get("/manual").getGet().getExtensions()).isNull();
+			assertThat(published.getComponents().getSchemas().get("Model").getProperties()).doesNotContainKey("local");
+		});
+	}
+
+	private static void customize(OpenAPI api) {
+		// Like an OpenApiCustomizer that decorates the operations and schemas
+		OpenApiCustomizer customizer = openApi -> {
+			openApi.getPaths()
+				.values()
+				.forEach(item -> item.readOperations().forEach(operation -> operation.addExtension("x-local", true)));
+			openApi.getComponents()
+				.getSchemas()
+				.values()
+				.forEach(schema -> schema.addProperty("local", new StringSchema()));
+		};
+		customizer.customise(api);
+	}
+
+	@Test
+	public void springdocGroup() {
+		Spec spec = new Spec(new ClassPathResource("openapi.json")).prefix("/v1");
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(spec)
+			.spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2").schemaPrefix("V2"));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI()));
+		OpenAPI api = new OpenAPI().paths(new Paths());
+		SpringDocGroups.group("v1", spec, snapshots).getOpenApiCustomizers().forEach(c -> c.customise(api));
+		assertThat(api.getPaths()).containsOnlyKeys("/v1/generated", "/v1/manual");
+		assertThat(api.getComponents().getSchemas()).doesNotContainKey("V2Model");
+		customize(api);
+		assertThat(snapshots.getCurrent().getApi().getPaths().get("/v1/manual").getGet().getExtensions()).isNull();
+	}
+
+	@Test
+	public void declarativeSpecs() {
+		ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(
+					AutoConfigurations.of(OpenApiSpecsConfiguration.class, OpenApiAggregatorConfiguration.class))
+			.withPropertyValues("spring.openapi.aggregator.specs[0].uri=classpath:openapi.json",
+					"spring.openapi.aggregator.specs[0].name=one", "spring.openapi.aggregator.specs[0].prefix=/v1",
+					"spring.openapi.aggregator.specs[0].operation-prefix=V1",
+					"spring.openapi.aggregator.specs[0].schema-prefix=V1",
+					"spring.openapi.aggregator.specs[0].exclude=/gen*",
+					"spring.openapi.aggregator.specs[1].uri=classpath:posts.json",
+					"spring.openapi.aggregator.specs[1].replace[/manual]=/articles",
+					"spring.openapi.aggregator.specs[1].prefix=/v2",
+					"spring.openapi.aggregator.specs[1].include=/manual/**")
+			.withClassLoader(new FilteredClassLoader(OpenAPIService.class));
+		contextRunner.run(context -> {
+			OpenApiAggregatorSpecs specs = context.getBean(OpenApiAggregatorSpecs.class);
+			assertThat(specs.getSpecs()).hasSize(2);
+			assertThat(specs.getSpecs().iterator().next().name()).isEqualTo("one");
+			OpenAPI api = context.getBean(OpenApiAggregator.class).aggregate();
+			assertThat(api.getPaths()).containsKey("/v1/manual").doesNotContainKey("/v1/generated");
+			assertThat(api.getPaths().get("/v1/manual").getGet().getOperationId()).startsWith("V1");
+			assertThat(api.getComponents().getSchemas()).containsKey("V1Model");
+			assertThat(api.getPaths()).containsOnlyKeys("/v1/manual", "/v2/articles");
+		});
+	}
+
+	@Test
+	public void heapMetrics() {
+		ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(
+					AutoConfigurations.of(OpenApiSpecsConfiguration.class, OpenApiAggregatorConfiguration.class))
+			.withPropertyValues("spring.openapi.aggregator.specs[0].uri=classpath:openapi.json",
+					"spring.openapi.aggregator.specs[0].name=one",
+					"spring.openapi.aggregator.specs[1].uri=classpath:posts.json",
+					"spring.openapi.aggregator.heap-budget=1MB")
+			.withClassLoader(new FilteredClassLoader(OpenAPIService.class));
+		contextRunner.run(context -> {
+			MeterRegistry registry = new SimpleMeterRegistry();
+			context.getBean(MeterBinder.class).bindTo(registry);
+			assertThat(registry.get("openapi.aggregator.spec.size").tag("spec", "one").gauge().value()).isNaN();
+			OpenApiSnapshot snapshot = context.getBean(OpenApiSnapshots.class).getCurrent();
+			assertThat(registry.get("openapi.aggregator.spec.size").tag("spec", "one").gauge().value()).isPositive();
+			assertThat(registry.get("openapi.aggregator.spec.size").tag("spec", "2").gauge().value()).isPositive();
+			assertThat(registry.get("openapi.aggregator.heap").tag("kind", "models").gauge().value())
+				.isEqualTo(snapshot.getRetainedSize());
+			assertThat(registry.get("openapi.aggregator.encoding.size").tag("encoding", "json").gauge().value())
+				.isPositive();
+			assertThat(registry.get("openapi.aggregator.heap.budget").gauge().value()).isEqualTo(1024 * 1024);
+		});
+	}
+
 	@Test
 	public void plainWebApp() {
 		ReactiveWebApplicationContextRunner contextRunner = new ReactiveWebApplicationContextRunner()
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledInNativeImage;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.core.util.Yaml;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.info.Info;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.parser.converter.SwaggerConverter;
+
+/**
+ * Tests that run in a native image with <code>./mvnw -PnativeTest test</code> (as well as
+ * on the JVM). They load specs from the file system because test resources are not in the
+ * image.
+ */
+public class NativeImageTests {
+
+	@Test
+	@DisabledInNativeImage
+	public void runtimeHints() {
+		RuntimeHints hints = new RuntimeHints();
+		new OpenApiAggregatorRuntimeHints().registerHints(hints, getClass().getClassLoader());
+		assertThat(RuntimeHintsPredicates.reflection()
+			.onType(OpenAPI.class)
+			.withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS)).accepts(hints);
+		assertThat(RuntimeHintsPredicates.reflection().onType(Schema.class)).accepts(hints);
+		assertThat(RuntimeHintsPredicates.reflection()
+			.onType(SwaggerConverter.class)
+			.withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS)).accepts(hints);
+		assertThat(RuntimeHintsPredicates.resource()
+			.forResource("META-INF/services/io.swagger.v3.parser.core.extensions.SwaggerParserExtension"))
+			.accepts(hints);
+	}
+
+	@Test
+	public void aggregateAndServe() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new FileSystemResource("src/test/resources/openapi.json")).prefix("/v1"))
+			.spec(new Spec(new FileSystemResource("src/test/resources/swagger.json")).prefix("/v2"));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(
+				new OpenApiAggregator(specs, new OpenAPI().info(new Info().title("Test").version("v0"))));
+		AggregatorEndpoint endpoint = new AggregatorEndpoint(snapshots, new SnapshotHistory(snapshots, 4));
+		endpoint.afterPropertiesSet();
+		ResponseEntity<byte[]> json = endpoint.api(null, null, "application/json", null);
+		assertThat(json.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(Json.mapper().readValue(json.getBody(), OpenAPI.class).getPaths()).containsKeys("/v1/manual",
+				"/v2/manual");
+		ResponseEntity<byte[]> yaml = endpoint.api(null, null, "application/yaml", null);
+		assertThat(Yaml.mapper().readValue(yaml.getBody(), OpenAPI.class).getInfo().getTitle()).isEqualTo("Test");
+		assertThat(endpoint.api(null, json.getHeaders().getETag(), null, null).getStatusCode())
+			.isEqualTo(HttpStatus.NOT_MODIFIED);
+		snapshots.destroy();
+	}
+
+}
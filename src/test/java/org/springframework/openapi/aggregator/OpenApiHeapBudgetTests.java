@@ -0,0 +1,179 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Encoding;
+import org.springframework.util.StreamUtils;
+
+import io.swagger.v3.oas.models.OpenAPI;
+
+public class OpenApiHeapBudgetTests {
+
+	@Test
+	public void retainedSizes() {
+		Spec one = new Spec(new ClassPathResource("openapi.json")).prefix("/v1");
+		Spec two = new Spec(new ClassPathResource("posts.json")).prefix("/v2").schemaPrefix("V2");
+		OpenApiSnapshot snapshot = new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(one).spec(two),
+				new OpenAPI())
+			.snapshot();
+		long total = snapshot.getRetainedSize();
+		assertThat(snapshot.getRetainedSize(one)).isPositive();
+		assertThat(snapshot.getRetainedSize(two)).isPositive();
+		assertThat(snapshot.getRetainedSize(one) + snapshot.getRetainedSize(two)).isLessThan(total);
+		assertThat(snapshot.getRetainedSize(Encoding.JSON)).isGreaterThan(snapshot.getBytes(Encoding.JSON).length);
+		assertThat(snapshot.getRetainedSize(Encoding.YAML)).isZero();
+		snapshot.getBytes(Encoding.YAML);
+		assertThat(snapshot.getRetainedSize(Encoding.YAML)).isPositive();
+	}
+
+	@Test
+	public void cacheCountsContentAndTree() {
+		SpecCache cache = new SpecCache();
+		cache.read(new Spec(new ClassPathResource("openapi.json")));
+		long total = cache.getRetainedSize();
+		long tree = cache.evictParsed();
+		long content = cache.getRetainedSize();
+		assertThat(content).isPositive();
+		assertThat(tree).isGreaterThan(content);
+		assertThat(total).isEqualTo(content + tree);
+	}
+
+	@Test
+	public void accountingOnly() {
+		SpecCache cache = new SpecCache();
+		OpenApiSnapshots snapshots = snapshots(cache, new ClassPathResource("openapi.json"));
+		OpenApiHeapBudget budget = new OpenApiHeapBudget(Long.MAX_VALUE);
+		budget.register(snapshots);
+		budget.register(cache);
+		OpenApiSnapshot snapshot = snapshots.getCurrent();
+		snapshot.getBytes(Encoding.YAML);
+		snapshot.getFragment("/paths");
+		OpenApiHeapBudget.Usage usage = budget.getUsage();
+		assertThat(usage.models()).isEqualTo(snapshot.getRetainedSize());
+		assertThat(usage.encodings())
+			.isEqualTo(snapshot.getRetainedSize(Encoding.JSON) + snapshot.getRetainedSize(Encoding.YAML));
+		assertThat(usage.views()).isPositive();
+		assertThat(usage.upstream()).isEqualTo(cache.getRetainedSize()).isPositive();
+		assertThat(budget.getEvicted()).isZero();
+		snapshots.destroy();
+	}
+
+	@Test
+	public void evictColdViewsFirst() throws Exception {
+		SpecCache cache = new SpecCache();
+		OpenApiSnapshots cold = snapshots(cache, new ClassPathResource("openapi.json"));
+		OpenApiSnapshots hot = snapshots(cache, new ClassPathResource("posts.json"));
+		cold.getCurrent().getFragment("/paths");
+		cold.getCurrent().getBytes(Encoding.YAML);
+		Thread.sleep(1);
+		hot.getCurrent().getFragment("/paths");
+		hot.getCurrent().getBytes(Encoding.YAML);
+		OpenApiHeapBudget accounts = new OpenApiHeapBudget(Long.MAX_VALUE);
+		accounts.register(cold);
+		accounts.register(hot);
+		accounts.register(cache);
+		long total = accounts.getUsage().total();
+		long views = cold.getCurrent().viewed();
+		OpenApiHeapBudget budget = new OpenApiHeapBudget(total - views);
+		budget.register(cold);
+		budget.register(hot);
+		budget.register(cache);
+		budget.enforce();
+		assertThat(cold.getCurrent().viewed()).isZero();
+		assertThat(hot.getCurrent().viewed()).isPositive();
+		assertThat(cold.getCurrent().getRetainedSize(Encoding.YAML)).isPositive();
+		assertThat(budget.getEvicted()).isEqualTo(views);
+		assertThat(budget.getUsage().total()).isEqualTo(total - views);
+		cold.destroy();
+		hot.destroy();
+	}
+
+	@Test
+	public void neverEvictCurrent(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		SpecCache cache = new SpecCache();
+		OpenApiSnapshots snapshots = snapshots(cache, new FileSystemResource(file));
+		SnapshotHistory history = new SnapshotHistory(snapshots, 4);
+		OpenApiHeapBudget budget = new OpenApiHeapBudget(1);
+		budget.register(snapshots);
+		budget.register(cache);
+		budget.register(history);
+		OpenApiSnapshot first = snapshots.getCurrent();
+		String etag = first.getEtag();
+		Files.writeString(file, Files.readString(file).replace("/manual", "/changed"));
+		OpenApiSnapshot second = snapshots.refresh().get(5, TimeUnit.SECONDS);
+		assertThat(second).isNotSameAs(first);
+		budget.enforce();
+		// Only the latest version is left in the history
+		assertThat(history.patch(etag)).isNull();
+		// Caches that grow are evicted, but they still work
+		assertThat(second.getBytes(Encoding.YAML)).isNotEmpty();
+		assertThat(second.getFragment("/paths/~1changed")).isNotNull();
+		budget.enforce();
+		assertThat(second.getRetainedSize(Encoding.YAML)).isZero();
+		OpenApiHeapBudget.Usage usage = budget.getUsage();
+		assertThat(usage.views()).isZero();
+		assertThat(usage.encodings()).isEqualTo(second.getRetainedSize(Encoding.JSON));
+		assertThat(usage.models()).isEqualTo(second.getRetainedSize());
+		assertThat(usage.upstream()).isEqualTo(RetainedSize.of(Files.readAllBytes(file)));
+		assertThat(snapshots.getCurrent()).isSameAs(second);
+		assertThat(budget.getEvicted()).isPositive();
+		snapshots.destroy();
+		budget.destroy();
+	}
+
+	@Test
+	public void checkInBackground() throws Exception {
+		OpenApiSnapshots snapshots = snapshots(new SpecCache(), new ClassPathResource("openapi.json"));
+		OpenApiSnapshot snapshot = snapshots.getCurrent();
+		snapshot.getFragment("/paths");
+		OpenApiHeapBudget budget = new OpenApiHeapBudget(snapshot.getRetainedSize() + snapshot.encoded());
+		budget.register(snapshots);
+		assertThat(budget.getUsage().views()).isPositive();
+		// A new fragment is a cache that clients can grow
+		snapshot.getFragment("/paths/~1manual");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (budget.getUsage().views() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(budget.getUsage().views()).isZero();
+		assertThat(budget.getEvicted()).isPositive();
+		snapshots.destroy();
+		budget.destroy();
+	}
+
+	private OpenApiSnapshots snapshots(SpecCache cache, Resource resource) {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(
+				new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(new Spec(resource)), new OpenAPI(), cache));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		return snapshots;
+	}
+
+}
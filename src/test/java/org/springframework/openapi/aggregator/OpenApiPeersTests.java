@@ -0,0 +1,400 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.util.StreamUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.SpecVersion;
+import io.swagger.v3.oas.models.info.Info;
+import io.swagger.v3.oas.models.media.Schema;
+
+public class OpenApiPeersTests {
+
+	private final AtomicInteger aggregations = new AtomicInteger();
+
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	@Test
+	public void shareSnapshots(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiAggregatorSpecs specs = specs(file);
+		OpenApiSnapshots producer = new OpenApiSnapshots(aggregator(specs));
+		producer.setDebounce(Duration.ofMillis(10));
+		HttpServer server = serve(new PeerEndpoint(producer, producer(specs)));
+		URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/v3/api-docs/snapshot");
+		OpenApiPeers peers = new OpenApiPeers(specs, List.of(URI.create("http://localhost:1/unreachable"), uri));
+		peers.setInterval(Duration.ZERO);
+		OpenApiSnapshots consumer = new OpenApiSnapshots(aggregator(specs(file)));
+		consumer.setDebounce(Duration.ofMillis(10));
+		consumer.setPeers(peers);
+		try {
+			OpenApiSnapshot produced = producer.getCurrent();
+			assertThat(this.aggregations.get()).isEqualTo(1);
+			OpenApiSnapshot shared = consumer.getCurrent();
+			assertThat(this.aggregations.get()).isEqualTo(1);
+			assertThat(shared.getEtag()).isEqualTo(produced.getEtag());
+			assertThat(shared.getCreated()).isEqualTo(produced.getCreated());
+			assertThat(shared.getGeneration()).isEqualTo(produced.getGeneration()).isEqualTo(1);
+			assertThat(shared.getSource()).isEqualTo(produced.getSource());
+			assertThat(shared.getApi().getPaths()).containsKeys("/v1/generated", "/v1/manual");
+			assertThat(shared.getContributions().values()).extracting(OpenApiSnapshot.Contribution::paths)
+				.containsExactlyElementsOf(produced.getContributions()
+					.values()
+					.stream()
+					.map(OpenApiSnapshot.Contribution::paths)
+					.toList());
+			// Changed upstream and refreshed by the producer, then by the consumer
+			Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+			producer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(this.aggregations.get()).isEqualTo(2);
+			OpenApiSnapshot refreshed = consumer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(this.aggregations.get()).isEqualTo(2);
+			assertThat(refreshed.getApi().getPaths()).containsKey("/v1/changed");
+			assertThat(refreshed.getGeneration()).isEqualTo(2);
+			// Nothing new on the peer, so it answers 304 and the consumer keeps its own
+			int before = this.notModified.get();
+			assertThat(consumer.refresh().get(5, TimeUnit.SECONDS)).isSameAs(refreshed);
+			assertThat(this.notModified.get()).isEqualTo(before + 1);
+			assertThat(this.aggregations.get()).isEqualTo(2);
+			// No peer available, so the consumer falls back to aggregating
+			server.stop(0);
+			consumer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(this.aggregations.get()).isEqualTo(3);
+		}
+		finally {
+			server.stop(0);
+			producer.destroy();
+			consumer.destroy();
+		}
+	}
+
+	@Test
+	public void consumerLeavesUpstreams() throws Exception {
+		AtomicInteger fetches = new AtomicInteger();
+		AtomicReference<String> path = new AtomicReference<>("/manual");
+		byte[] body = StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream());
+		HttpServer upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		upstream.createContext("/openapi.json", exchange -> {
+			fetches.incrementAndGet();
+			byte[] content = new String(body, StandardCharsets.UTF_8).replace("/manual", path.get())
+				.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, content.length);
+			exchange.getResponseBody().write(content);
+			exchange.close();
+		});
+		upstream.start();
+		Spec spec = new Spec("http://localhost:" + upstream.getAddress().getPort() + "/openapi.json").name("v1");
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(spec);
+		OpenApiSnapshots producer = new OpenApiSnapshots(aggregator(specs));
+		producer.setDebounce(Duration.ofMillis(10));
+		HttpServer server = serve(new PeerEndpoint(producer, producer(specs)));
+		OpenApiPeers peers = new OpenApiPeers(specs,
+				List.of(URI.create("http://localhost:" + server.getAddress().getPort() + "/v3/api-docs/snapshot")));
+		peers.setInterval(Duration.ZERO);
+		SpecCache cache = new SpecCache();
+		cache.setRevalidate(false);
+		OpenApiSnapshots consumer = new OpenApiSnapshots(
+				new OpenApiAggregator(specs, new OpenAPI().info(new Info().title("Test").version("v0")), cache));
+		consumer.setDebounce(Duration.ofMillis(10));
+		consumer.setPeers(peers);
+		SpecPoller poller = new SpecPoller(specs, cache, consumer);
+		poller.setMinInterval(Duration.ofSeconds(10));
+		try {
+			producer.getCurrent();
+			assertThat(fetches.get()).isEqualTo(1);
+			// Only the producer reads the upstream
+			consumer.getCurrent();
+			poller.poll(spec);
+			assertThat(consumer.refresh().get(5, TimeUnit.SECONDS)).isSameAs(consumer.getCurrent());
+			assertThat(fetches.get()).isEqualTo(1);
+			assertThat(poller.getInterval(spec)).isEqualTo(Duration.ofSeconds(10));
+			path.set("/changed");
+			producer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(fetches.get()).isEqualTo(2);
+			assertThat(consumer.refresh().get(5, TimeUnit.SECONDS).getApi().getPaths()).containsKey("/changed");
+			poller.poll(spec);
+			assertThat(fetches.get()).isEqualTo(2);
+			// The producer is gone, so the consumer reads the upstream itself
+			server.stop(0);
+			path.set("/fallback");
+			assertThat(consumer.refresh().get(5, TimeUnit.SECONDS).getApi().getPaths()).containsKey("/fallback");
+			assertThat(fetches.get()).isEqualTo(3);
+			poller.poll(spec);
+			assertThat(fetches.get()).isEqualTo(4);
+		}
+		finally {
+			server.stop(0);
+			upstream.stop(0);
+			producer.destroy();
+			consumer.destroy();
+		}
+	}
+
+	@Test
+	public void incompatiblePeer(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiAggregatorSpecs specs = specs(file);
+		OpenApiSnapshots other = new OpenApiSnapshots(aggregator(specs));
+		OpenApiPeers otherPeers = producer(specs);
+		otherPeers.setVersion("other");
+		HttpServer incompatible = serve(new PeerEndpoint(other, otherPeers));
+		OpenApiSnapshots producer = new OpenApiSnapshots(aggregator(specs));
+		HttpServer compatible = serve(new PeerEndpoint(producer, producer(specs)));
+		OpenApiPeers peers = new OpenApiPeers(specs,
+				List.of(URI.create("http://localhost:" + incompatible.getAddress().getPort() + "/v3/api-docs/snapshot"),
+						URI.create("http://localhost:" + compatible.getAddress().getPort() + "/v3/api-docs/snapshot")));
+		peers.setInterval(Duration.ZERO);
+		OpenApiSnapshots consumer = new OpenApiSnapshots(aggregator(specs(file)));
+		consumer.setDebounce(Duration.ofMillis(10));
+		consumer.setPeers(peers);
+		try {
+			other.getCurrent();
+			OpenApiSnapshot produced = producer.getCurrent();
+			assertThat(this.aggregations.get()).isEqualTo(2);
+			// The first peer asked has a different configuration, so the next one is used
+			OpenApiSnapshot shared = consumer.getCurrent();
+			assertThat(this.aggregations.get()).isEqualTo(2);
+			assertThat(shared.getEtag()).isEqualTo(produced.getEtag());
+			// Only the incompatible peer is left, so the consumer aggregates
+			compatible.stop(0);
+			Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+			OpenApiSnapshot refreshed = consumer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(this.aggregations.get()).isEqualTo(3);
+			assertThat(refreshed.getApi().getPaths()).containsKey("/v1/changed");
+			assertThat(refreshed.getGeneration()).isEqualTo(2);
+		}
+		finally {
+			incompatible.stop(0);
+			compatible.stop(0);
+			other.destroy();
+			producer.destroy();
+			consumer.destroy();
+		}
+	}
+
+	@Test
+	public void producerRestarts(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiAggregatorSpecs specs = specs(file);
+		AtomicReference<PeerEndpoint> endpoint = new AtomicReference<>();
+		OpenApiSnapshots producer = producerSnapshots(specs, endpoint);
+		HttpServer server = serve(endpoint::get);
+		OpenApiPeers peers = new OpenApiPeers(specs, List.of(uri(server)));
+		peers.setInterval(Duration.ZERO);
+		OpenApiSnapshots consumer = new OpenApiSnapshots(aggregator(specs(file)));
+		consumer.setDebounce(Duration.ofMillis(10));
+		consumer.setPeers(peers);
+		OpenApiSnapshots restarted = null;
+		try {
+			producer.getCurrent();
+			change(file, "/manual", "/one");
+			producer.refresh().get(5, TimeUnit.SECONDS);
+			change(file, "/one", "/two");
+			assertThat(producer.refresh().get(5, TimeUnit.SECONDS).getGeneration()).isEqualTo(3);
+			assertThat(consumer.getCurrent().getGeneration()).isEqualTo(3);
+			// The producer restarts, and numbers its snapshots from 1 again
+			producer.destroy();
+			Thread.sleep(10);
+			change(file, "/two", "/restarted");
+			restarted = producerSnapshots(specs, endpoint);
+			assertThat(restarted.getCurrent().getGeneration()).isEqualTo(1);
+			int aggregations = this.aggregations.get();
+			OpenApiSnapshot refreshed = consumer.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(refreshed.getApi().getPaths()).containsKey("/v1/restarted");
+			assertThat(refreshed.getEtag()).isEqualTo(restarted.getCurrent().getEtag());
+			assertThat(this.aggregations.get()).isEqualTo(aggregations);
+		}
+		finally {
+			server.stop(0);
+			producer.destroy();
+			consumer.destroy();
+			if (restarted != null) {
+				restarted.destroy();
+			}
+		}
+	}
+
+	private OpenApiSnapshots producerSnapshots(OpenApiAggregatorSpecs specs, AtomicReference<PeerEndpoint> endpoint) {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator(specs));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiPeers peers = producer(specs);
+		snapshots.setPeers(peers);
+		endpoint.set(new PeerEndpoint(snapshots, peers));
+		return snapshots;
+	}
+
+	private static void change(Path file, String from, String to) throws Exception {
+		Files.writeString(file, Files.readString(file).replace("\"" + from + "\"", "\"" + to + "\""));
+	}
+
+	private static URI uri(HttpServer server) {
+		return URI.create("http://localhost:" + server.getAddress().getPort() + "/v3/api-docs/snapshot");
+	}
+
+	@Test
+	public void newerWithoutClocks() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("one"));
+		OpenApiSnapshot current = new OpenApiAggregator(specs, new OpenAPI()).snapshot();
+		current.setGeneration(2);
+		OpenApiSnapshot same = OpenApiPeers.decode(OpenApiPeers.encode(current, specs, ""), specs, "");
+		assertThat(same.getGeneration()).isEqualTo(2);
+		assertThat(same.getSource()).isEqualTo(current.getSource());
+		// Same upstream content, whatever the generation
+		same.setGeneration(3);
+		assertThat(OpenApiPeers.isNewer(same, current)).isFalse();
+		OpenApiSnapshot other = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("posts.json")).name("one")),
+				new OpenAPI())
+			.snapshot();
+		other.setGeneration(1);
+		assertThat(OpenApiPeers.isNewer(other, current)).isFalse();
+		other.setGeneration(3);
+		assertThat(OpenApiPeers.isNewer(other, current)).isTrue();
+		// Same generation, so both sides pick the same one
+		other.setGeneration(2);
+		assertThat(OpenApiPeers.isNewer(other, current)).isNotEqualTo(OpenApiPeers.isNewer(current, other));
+		assertThat(OpenApiPeers.isNewer(other, null)).isTrue();
+		// From a producer, so newer than a local aggregate whatever the generations
+		other.setGeneration(1);
+		other.setEpoch(100);
+		assertThat(OpenApiPeers.isNewer(other, current)).isTrue();
+		assertThat(OpenApiPeers.isNewer(current, other)).isFalse();
+		// From a producer that started later
+		current.setEpoch(50);
+		assertThat(OpenApiPeers.isNewer(other, current)).isTrue();
+		assertThat(OpenApiPeers.isNewer(current, other)).isFalse();
+		assertThat(OpenApiPeers.decode(OpenApiPeers.encode(current, specs, ""), specs, "").getEpoch()).isEqualTo(50);
+	}
+
+	@Test
+	public void differentSpecs() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("one"));
+		OpenApiSnapshot snapshot = new OpenApiAggregator(specs, new OpenAPI()).snapshot();
+		byte[] bytes = OpenApiPeers.encode(snapshot, specs, "1");
+		assertThat(OpenApiPeers.decode(bytes, specs, "1").getEtag()).isEqualTo(snapshot.getEtag());
+		OpenApiAggregatorSpecs other = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("two"));
+		assertThat(OpenApiPeers.decode(bytes, other, "1")).isNull();
+		// Same specs, but configured differently
+		assertThat(OpenApiPeers.decode(bytes, specs, "2")).isNull();
+		OpenApiAggregatorSpecs limited = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("one").limits(SpecLimits.NONE.maxPaths(10)));
+		assertThat(OpenApiPeers.decode(bytes, limited, "1")).isNull();
+		OpenApiAggregatorSpecs policy = new OpenApiAggregatorSpecs().conflicts(ConflictPolicy.FAIL)
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("one"));
+		assertThat(OpenApiPeers.decode(bytes, policy, "1")).isNull();
+	}
+
+	@Test
+	public void openApi31Snapshot() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).name("one"));
+		OpenAPI api = Json31.mapper().readValue("""
+				{
+				  "openapi": "3.1.0",
+				  "info": { "title": "Users", "version": "v1" },
+				  "webhooks": {
+				    "user": { "post": { "responses": { "200": { "description": "OK" } } } }
+				  },
+				  "components": {
+				    "schemas": {
+				      "User": { "type": [ "object", "null" ] }
+				    }
+				  }
+				}
+				""", OpenAPI.class);
+		api.setSpecVersion(SpecVersion.V31);
+		OpenApiSnapshot snapshot = new OpenApiSnapshot(api);
+		OpenApiSnapshot decoded = OpenApiPeers.decode(OpenApiPeers.encode(snapshot, specs, "1"), specs, "1");
+		assertThat(decoded.getEtag()).isEqualTo(snapshot.getEtag());
+		assertThat(decoded.getApi().getSpecVersion()).isEqualTo(SpecVersion.V31);
+		assertThat(decoded.getApi().getWebhooks()).containsKey("user");
+		Schema<?> user = decoded.getApi().getComponents().getSchemas().get("User");
+		assertThat(user.getTypes()).containsExactlyInAnyOrder("object", "null");
+	}
+
+	private OpenApiAggregatorSpecs specs(Path file) {
+		return new OpenApiAggregatorSpecs()
+			.spec(new Spec(new FileSystemResource(file)).prefix("/v1").name("v1").filter(api -> {
+				this.aggregations.incrementAndGet();
+				return api;
+			}));
+	}
+
+	private OpenApiPeers producer(OpenApiAggregatorSpecs specs) {
+		OpenApiPeers peers = new OpenApiPeers(specs, List.of());
+		peers.setRole(OpenApiPeers.Role.PRODUCER);
+		return peers;
+	}
+
+	private OpenApiAggregator aggregator(OpenApiAggregatorSpecs specs) {
+		return new OpenApiAggregator(specs, new OpenAPI().info(new Info().title("Test").version("v0")));
+	}
+
+	private HttpServer serve(PeerEndpoint endpoint) throws Exception {
+		return serve(() -> endpoint);
+	}
+
+	private HttpServer serve(Supplier<PeerEndpoint> endpoint) throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/v3/api-docs/snapshot", exchange -> {
+			ResponseEntity<byte[]> response = endpoint.get()
+				.snapshot(exchange.getRequestHeaders().getFirst("If-None-Match"));
+			if (response.getStatusCode().value() == 304) {
+				this.notModified.incrementAndGet();
+			}
+			response.getHeaders().forEach((name, values) -> exchange.getResponseHeaders().put(name, values));
+			byte[] body = response.getBody();
+			exchange.sendResponseHeaders(response.getStatusCode().value(), body == null ? -1 : body.length);
+			if (body != null) {
+				exchange.getResponseBody().write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+		return server;
+	}
+
+}
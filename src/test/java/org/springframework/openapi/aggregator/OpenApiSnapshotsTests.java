@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.util.StreamUtils;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.info.Info;
+import io.swagger.v3.oas.models.security.SecurityRequirement;
+
+public class OpenApiSnapshotsTests {
+
+	private AtomicInteger count = new AtomicInteger();
+
+	private volatile boolean fail = false;
+
+	private OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs(), new OpenAPI()) {
+		@Override
+		public OpenApiSnapshot snapshot() {
+			if (fail) {
+				throw new IllegalStateException("Planned");
+			}
+			return new OpenApiSnapshot(
+					new OpenAPI().info(new Info().title("Test").version("v" + count.incrementAndGet())));
+		}
+	};
+
+	@Test
+	public void coalesceBurst() throws Exception {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setDebounce(Duration.ofMillis(50));
+		List<CompletableFuture<OpenApiSnapshot>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(snapshots.refresh());
+		}
+		OpenApiSnapshot snapshot = futures.get(0).get(5, TimeUnit.SECONDS);
+		assertThat(futures).allMatch(future -> future.join() == snapshot);
+		assertThat(count.get()).isEqualTo(1);
+		assertThat(snapshots.getCurrent()).isSameAs(snapshot);
+		snapshots.destroy();
+	}
+
+	@Test
+	public void failureKeepsPrevious() throws Exception {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot previous = snapshots.getCurrent();
+		fail = true;
+		CompletableFuture<OpenApiSnapshot> future = snapshots.refresh();
+		assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+		assertThat(snapshots.getCurrent()).isSameAs(previous);
+		snapshots.destroy();
+	}
+
+	@Test
+	public void invalidKeepsPrevious() throws Exception {
+		AtomicInteger version = new AtomicInteger(1);
+		OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs(), new OpenAPI()) {
+			@Override
+			public OpenApiSnapshot snapshot() {
+				Operation operation = new Operation().operationId("one");
+				if (version.get() > 1) {
+					operation.addSecurityItem(new SecurityRequirement().addList("missing"));
+				}
+				return new OpenApiSnapshot(new OpenAPI().info(new Info().title("Test").version("v" + version.get()))
+					.path("/one", new PathItem().get(operation)));
+			}
+		};
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setValidator(new OpenApiValidator());
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot previous = snapshots.getCurrent();
+		version.set(2);
+		assertThatThrownBy(() -> snapshots.refresh().get(5, TimeUnit.SECONDS)).hasMessageContaining("missing");
+		assertThat(snapshots.getCurrent()).isSameAs(previous);
+		snapshots.destroy();
+	}
+
+	@Test
+	public void refreshOnEvent() throws Exception {
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setDebounce(Duration.ofMillis(10));
+		snapshots.getCurrent();
+		snapshots.onApplicationEvent(new OpenApiRefreshEvent(this));
+		assertThat(snapshots.refresh().get(5, TimeUnit.SECONDS).getApi().getInfo().getVersion()).isEqualTo("v2");
+		snapshots.destroy();
+	}
+
+	@Test
+	public void changeEvents() throws Exception {
+		AtomicInteger version = new AtomicInteger(1);
+		OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs(), new OpenAPI()) {
+			@Override
+			public OpenApiSnapshot snapshot() {
+				OpenAPI api = new OpenAPI().info(new Info().title("Test").version("v" + version.get()))
+					.path("/one", new PathItem().get(new Operation().operationId("one")));
+				if (version.get() > 1) {
+					api.path("/two", new PathItem());
+				}
+				return new OpenApiSnapshot(api);
+			}
+		};
+		List<OpenApiChangeEvent> events = new ArrayList<>();
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setApplicationEventPublisher(event -> events.add((OpenApiChangeEvent) event));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot initial = snapshots.getCurrent();
+		assertThat(snapshots.refresh().get(5, TimeUnit.SECONDS)).isSameAs(initial);
+		assertThat(events).isEmpty();
+		version.set(2);
+		OpenApiSnapshot snapshot = snapshots.refresh().get(5, TimeUnit.SECONDS);
+		assertThat(snapshot).isNotSameAs(initial);
+		assertThat(events).hasSize(1);
+		OpenApiChangeEvent event = events.get(0);
+		assertThat(event.getPrevious()).isSameAs(initial);
+		assertThat(event.getSnapshot()).isSameAs(snapshot);
+		assertThat(event.getAdded()).containsExactly("/paths/~1two");
+		assertThat(event.getModified()).containsExactly("/info");
+		assertThat(event.getRemoved()).isEmpty();
+		snapshots.destroy();
+	}
+
+	@Test
+	public void changesWithSameHashCode() throws Exception {
+		AtomicInteger version = new AtomicInteger(1);
+		OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs(), new OpenAPI()) {
+			@Override
+			public OpenApiSnapshot snapshot() {
+				// "Aa" and "BB" have the same hashCode()
+				OpenAPI api = new OpenAPI().info(new Info().title("Test").version("v1"))
+					.path("/one", new PathItem().get(new Operation().description(version.get() > 1 ? "BB" : "Aa")));
+				if (version.get() > 2) {
+					api.getPaths().addExtension("x-owner", "team");
+				}
+				return new OpenApiSnapshot(api);
+			}
+		};
+		List<OpenApiChangeEvent> events = new ArrayList<>();
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setApplicationEventPublisher(event -> events.add((OpenApiChangeEvent) event));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot initial = snapshots.getCurrent();
+		version.set(2);
+		OpenApiSnapshot snapshot = snapshots.refresh().get(5, TimeUnit.SECONDS);
+		assertThat(snapshot).isNotSameAs(initial);
+		assertThat(snapshot.getApi().getPaths().get("/one").getGet().getDescription()).isEqualTo("BB");
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).getModified()).containsExactly("/paths/~1one");
+		version.set(3);
+		assertThat(snapshots.refresh().get(5, TimeUnit.SECONDS)).isNotSameAs(snapshot);
+		assertThat(events).hasSize(2);
+		assertThat(events.get(1).getAdded()).containsExactly("/paths/x-owner");
+		snapshots.destroy();
+	}
+
+	@Test
+	public void unchangedSourceNotSerialized(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		List<OpenApiSnapshot> created = new ArrayList<>();
+		OpenApiAggregator aggregator = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file))), new OpenAPI()) {
+			@Override
+			public OpenApiSnapshot snapshot() {
+				OpenApiSnapshot snapshot = super.snapshot();
+				created.add(snapshot);
+				return snapshot;
+			}
+		};
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(aggregator);
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot initial = snapshots.getCurrent();
+		assertThat(snapshots.refresh().get(5, TimeUnit.SECONDS)).isSameAs(initial);
+		assertThat(created).hasSize(2);
+		// Same upstream content, so the new aggregate was discarded without serializing
+		// it
+		assertThat(created.get(1).getSource()).isEqualTo(initial.getSource());
+		assertThat(created.get(1).getRetainedSize(OpenApiSnapshot.Encoding.JSON)).isZero();
+		Files.writeString(file, Files.readString(file).replace("\"/manual\"", "\"/changed\""));
+		OpenApiSnapshot changed = snapshots.refresh().get(5, TimeUnit.SECONDS);
+		assertThat(changed).isNotSameAs(initial);
+		assertThat(changed.getSource()).isNotEqualTo(initial.getSource());
+		assertThat(changed.getApi().getPaths()).containsKey("/changed");
+		snapshots.destroy();
+	}
+
+	@Test
+	public void compact() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).prefix("/v1").schemaPrefix("V1"))
+			.spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2").schemaPrefix("V2"));
+		OpenAPI plain = new OpenApiAggregator(specs, new OpenAPI()).aggregate();
+		OpenAPI compacted = new OpenApiAggregator(specs, new OpenAPI()).aggregate();
+		SnapshotCompactor.Result result = SnapshotCompactor.compact(compacted);
+		assertThat(result.strings()).isPositive();
+		assertThat(result.maps()).isPositive();
+		assertThat(result.saved()).isPositive();
+		assertThat(Json.mapper().writeValueAsString(compacted)).isEqualTo(Json.mapper().writeValueAsString(plain));
+		String first = compacted.getPaths().get("/v1/manual").getGet().getResponses().keySet().iterator().next();
+		String second = compacted.getPaths().get("/v2/manual").getPost().getResponses().keySet().iterator().next();
+		assertThat(first).isEqualTo("200").isSameAs(second);
+		assertThat(SnapshotCompactor.compact(compacted).saved()).isZero();
+	}
+
+	@Test
+	public void compactLeavesBase() throws Exception {
+		Operation operation = new Operation().operationId("base");
+		operation.addExtension("x-base", "yes");
+		OpenAPI base = new OpenAPI().info(new Info().title("Base").version("v1"))
+			.path("/base", new PathItem().get(operation));
+		OpenAPI api = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("openapi.json"))), base)
+			.aggregate();
+		SnapshotCompactor.compact(api);
+		assertThat(api.getPaths().get("/base").getGet()).isNotSameAs(operation);
+		assertThat(api.getPaths().get("/base").getGet().getExtensions()).containsEntry("x-base", "yes");
+		assertThat(operation.getExtensions()).isInstanceOf(LinkedHashMap.class);
+		operation.addExtension("x-other", "no");
+		assertThat(base.getPaths().get("/base").getGet().getExtensions()).containsOnlyKeys("x-base", "x-other");
+		assertThat(api.getInfo()).isNotSameAs(base.getInfo()).isEqualTo(base.getInfo());
+	}
+
+	@Test
+	public void compactMap() {
+		Map<String, Integer> source = new LinkedHashMap<>();
+		source.put("b", 1);
+		source.put("a", 2);
+		source.put("c", 3);
+		Map<String, Integer> map = new CompactMap<>(source);
+		assertThat(map).isEqualTo(source).hasSameHashCodeAs(source);
+		assertThat(map.keySet()).containsExactly("b", "a", "c");
+		assertThat(map.get("a")).isEqualTo(2);
+		assertThat(map.get("d")).isNull();
+		assertThatThrownBy(() -> map.put("d", 4)).isInstanceOf(UnsupportedOperationException.class);
+		assertThat(SnapshotCompactor.mapSize(map)).isLessThan(SnapshotCompactor.mapSize(source));
+	}
+
+	@Test
+	public void watchFiles(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(new Spec(new FileSystemResource(file)));
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI()));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		OpenApiSnapshot initial = snapshots.getCurrent();
+		CompletableFuture<OpenApiSnapshot> refreshed = new CompletableFuture<>();
+		snapshots.addListener(refreshed::complete);
+		SpecFileWatcher watcher = new SpecFileWatcher(specs, snapshots);
+		watcher.start();
+		try {
+			Files.writeString(file, Files.readString(file).replace("/manual", "/changed"));
+			OpenApiSnapshot snapshot = refreshed.get(30, TimeUnit.SECONDS);
+			assertThat(snapshot).isNotSameAs(initial);
+			assertThat(snapshot.getApi().getPaths()).containsKey("/changed");
+		}
+		finally {
+			watcher.stop();
+			snapshots.destroy();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.StreamUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.swagger.v3.core.util.Json;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.info.Info;
+
+public class OpenApiTenantsTests {
+
+	@Test
+	public void sharedFetch() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		for (String name : new String[] { "openapi.json", "posts.json" }) {
+			byte[] body = StreamUtils.copyToByteArray(new ClassPathResource(name).getInputStream());
+			server.createContext("/" + name, exchange -> {
+				requests.incrementAndGet();
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+			});
+		}
+		server.start();
+		try {
+			String root = "http://localhost:" + server.getAddress().getPort();
+			Spec users = new Spec(root + "/openapi.json").prefix("/v1");
+			Spec posts = new Spec(root + "/posts.json").prefix("/v2").schemaPrefix("V2");
+			SpecCache cache = new SpecCache();
+			OpenApiTenants tenants = new OpenApiTenants(cache,
+					new OpenAPI().info(new Info().title("Test").version("v0")));
+			tenants.setDebounce(Duration.ofMillis(10));
+			tenants.setMaxWait(Duration.ofMinutes(1));
+			tenants.tenant("public", new OpenApiAggregatorSpecs().spec(users), "api.example.com")
+				.tenant("partner", new OpenApiAggregatorSpecs().spec(users).spec(posts), "partner.example.com");
+			assertThat(tenants.getSnapshots("public").getCurrent().getApi().getPaths())
+				.containsOnlyKeys("/v1/generated", "/v1/manual");
+			assertThat(tenants.getSnapshots("partner").getCurrent().getApi().getPaths()).containsKeys("/v1/manual",
+					"/v2/manual");
+			assertThat(requests.get()).isEqualTo(2);
+			tenants.refresh().get(5, TimeUnit.SECONDS);
+			assertThat(requests.get()).isEqualTo(2);
+			// The max age only applies to the tenants, not to other readers of the cache
+			cache.read(users);
+			assertThat(requests.get()).isEqualTo(3);
+			assertThat(tenants.select("partner.example.com:8080")).isSameAs(tenants.getSnapshots("partner"));
+			assertThat(tenants.select("other.example.com")).isNull();
+			tenants.destroy();
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void parsedOnce() {
+		SpecCache cache = new SpecCache();
+		Spec spec = new Spec(new ClassPathResource("swagger.json"));
+		OpenAPI first = cache.read(spec);
+		OpenAPI second = cache.read(spec);
+		assertThat(second).isNotSameAs(first);
+		assertThat(second.getPaths().get("/manual")).isNotSameAs(first.getPaths().get("/manual"));
+		assertThat(Json.pretty(second)).isEqualTo(Json.pretty(first));
+	}
+
+	@Test
+	public void servedByHostAndPath() throws Exception {
+		OpenAPI base = new OpenAPI().info(new Info().title("Test").version("v0"));
+		SpecCache cache = new SpecCache();
+		Spec users = new Spec(new ClassPathResource("openapi.json")).prefix("/v1");
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(
+				new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(users), base, cache));
+		OpenApiTenants tenants = new OpenApiTenants(cache, base).tenant("partner",
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2")),
+				"partner.example.com");
+		WebTestClient client = WebTestClient
+			.bindToController(new AggregatorEndpoint(snapshots, new SnapshotHistory(snapshots, 4), tenants))
+			.build();
+		assertThat(paths(client, "/v3/api-docs", "api.example.com")).contains("/v1/manual")
+			.doesNotContain("/v2/manual");
+		assertThat(paths(client, "/v3/api-docs", "partner.example.com")).contains("/v2/manual")
+			.doesNotContain("/v1/manual");
+		assertThat(paths(client, "/v3/api-docs/tenants/partner", "api.example.com")).contains("/v2/manual");
+		client.get().uri("/v3/api-docs/tenants/other").exchange().expectStatus().isNotFound();
+		client.get()
+			.uri("/v3/api-docs/paths/~1v2~1manual")
+			.header("Host", "partner.example.com")
+			.exchange()
+			.expectStatus()
+			.isOk();
+		tenants.destroy();
+		snapshots.destroy();
+	}
+
+	private String paths(WebTestClient client, String path, String host) throws Exception {
+		byte[] body = client.get()
+			.uri(path)
+			.header("Host", host)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody()
+			.returnResult()
+			.getResponseBody();
+		return Json.mapper().readValue(body, OpenAPI.class).getPaths().keySet().toString();
+	}
+
+}
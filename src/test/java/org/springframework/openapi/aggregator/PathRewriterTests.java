@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class PathRewriterTests {
+
+	@Test
+	public void pathGlobs() {
+		PathRewriter rewriter = new PathRewriter(List.of("/users/**", "/teams/*/members"), List.of("/users/*/secret"),
+				Map.of("/users", "/people"), "/v1");
+		assertThat(rewriter.apply("/users")).isEqualTo("/v1/people");
+		assertThat(rewriter.apply("/users/{id}")).isEqualTo("/v1/people/{id}");
+		assertThat(rewriter.apply("/users/{id}/secret")).isNull();
+		assertThat(rewriter.apply("/teams/{id}/members")).isEqualTo("/v1/teams/{id}/members");
+		assertThat(rewriter.apply("/teams/{id}/owners")).isNull();
+		assertThat(rewriter.apply("/usersx")).isNull();
+	}
+
+	@Test
+	public void segmentsInTheMiddle() {
+		PathRewriter rewriter = new PathRewriter(List.of("/a/**/b"), null, null, null);
+		assertThat(rewriter.apply("/a/b")).isEqualTo("/a/b");
+		assertThat(rewriter.apply("/a/x/b")).isEqualTo("/a/x/b");
+		assertThat(rewriter.apply("/a/x/y/b")).isEqualTo("/a/x/y/b");
+		assertThat(rewriter.apply("/ab")).isNull();
+		assertThat(rewriter.apply("/a/xb")).isNull();
+		assertThat(rewriter.apply("/a/b/c")).isNull();
+	}
+
+	@Test
+	public void segmentsAtTheStart() {
+		PathRewriter rewriter = new PathRewriter(null, List.of("/**/secret"), null, null);
+		assertThat(rewriter.apply("/secret")).isNull();
+		assertThat(rewriter.apply("/users/{id}/secret")).isNull();
+		assertThat(rewriter.apply("/users/{id}/secrets")).isEqualTo("/users/{id}/secrets");
+	}
+
+	@Test
+	public void segmentsWithinASegment() {
+		PathRewriter rewriter = new PathRewriter(List.of("/a**"), null, null, null);
+		assertThat(rewriter.apply("/a")).isEqualTo("/a");
+		assertThat(rewriter.apply("/ab/c")).isEqualTo("/ab/c");
+		assertThat(rewriter.apply("/b")).isNull();
+	}
+
+}
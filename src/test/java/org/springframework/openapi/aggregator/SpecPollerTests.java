@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.openapi.aggregator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.SpecCache.Content;
+import org.springframework.util.StreamUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.swagger.v3.core.util.Json31;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.SpecVersion;
+import io.swagger.v3.oas.models.media.Schema;
+
+public class SpecPollerTests {
+
+	@Test
+	public void conditionalFetch() throws Exception {
+		byte[] body = StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream());
+		AtomicInteger downloads = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/openapi.json", exchange -> {
+			if ("v1".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			}
+			else {
+				downloads.incrementAndGet();
+				exchange.getResponseHeaders().add("ETag", "v1");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			Spec spec = new Spec("http://localhost:" + server.getAddress().getPort() + "/openapi.json");
+			SpecCache cache = new SpecCache();
+			Content first = cache.fetch(spec);
+			assertThat(first.changed()).isTrue();
+			Content second = cache.fetch(spec);
+			assertThat(second.changed()).isFalse();
+			assertThat(second.bytes()).isSameAs(first.bytes());
+			assertThat(downloads.get()).isEqualTo(1);
+			assertThat(cache.read(spec).getPaths()).containsKeys("/generated", "/manual");
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void timeoutBacksOff() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/openapi.json", exchange -> {
+			try {
+				Thread.sleep(2000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			Spec spec = new Spec("http://localhost:" + server.getAddress().getPort() + "/openapi.json");
+			OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(spec);
+			SpecCache cache = new SpecCache();
+			cache.setRevalidate(false);
+			cache.setTimeout(Duration.ofMillis(100));
+			SpecPoller poller = new SpecPoller(specs, cache,
+					new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI(), cache)));
+			poller.setMinInterval(Duration.ofSeconds(10));
+			long start = System.nanoTime();
+			poller.poll(spec);
+			assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+			assertThat(poller.getInterval(spec)).isEqualTo(Duration.ofSeconds(20));
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void swaggerSpec() {
+		OpenAPI api = new SpecCache().read(new Spec(new ClassPathResource("swagger.json")));
+		assertThat(api.getOpenapi()).startsWith("3.0");
+		assertThat(api.getPaths()).containsKeys("/generated", "/manual");
+	}
+
+	@Test
+	public void openApi31Spec(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.writeString(file, """
+				{
+				  "openapi": "3.1.0",
+				  "info": { "title": "Users", "version": "v1" },
+				  "jsonSchemaDialect": "https://json-schema.org/draft/2020-12/schema",
+				  "paths": {},
+				  "webhooks": {
+				    "user": { "post": { "responses": { "200": { "description": "OK" } } } }
+				  },
+				  "components": {
+				    "schemas": {
+				      "User": {
+				        "type": "object",
+				        "properties": {
+				          "name": { "type": [ "string", "null" ] },
+				          "kind": { "const": "user" }
+				        }
+				      }
+				    }
+				  }
+				}
+				""");
+		Spec spec = new Spec(new FileSystemResource(file));
+		SpecCache cache = new SpecCache();
+		cache.read(spec);
+		// The second read is a copy of the cached model
+		OpenAPI api = cache.read(spec);
+		assertThat(api.getSpecVersion()).isEqualTo(SpecVersion.V31);
+		assertThat(api.getOpenapi()).isEqualTo("3.1.0");
+		assertThat(api.getJsonSchemaDialect()).isEqualTo("https://json-schema.org/draft/2020-12/schema");
+		assertThat(api.getWebhooks()).containsKey("user");
+		Schema<?> user = api.getComponents().getSchemas().get("User");
+		Schema<?> name = user.getProperties().get("name");
+		assertThat(name.getTypes()).containsExactlyInAnyOrder("string", "null");
+		assertThat(user.getProperties().get("kind").getConst()).isEqualTo("user");
+		assertThat(Json31.pretty(api)).isEqualTo(Json31.pretty(new SpecCache().read(spec)));
+	}
+
+	@Test
+	public void backoffAndRefresh(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("openapi.json");
+		Files.write(file, StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream()));
+		Spec spec = new Spec(new FileSystemResource(file));
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(spec);
+		SpecCache cache = new SpecCache();
+		cache.setRevalidate(false);
+		OpenApiSnapshots snapshots = new OpenApiSnapshots(new OpenApiAggregator(specs, new OpenAPI(), cache));
+		snapshots.setDebounce(Duration.ofMillis(10));
+		snapshots.getCurrent();
+		SpecPoller poller = new SpecPoller(specs, cache, snapshots);
+		poller.setMinInterval(Duration.ofSeconds(10));
+		poller.setMaxInterval(Duration.ofSeconds(40));
+		poller.poll(spec);
+		assertThat(poller.getInterval(spec)).isEqualTo(Duration.ofSeconds(20));
+		poller.poll(spec);
+		poller.poll(spec);
+		assertThat(poller.getInterval(spec)).isEqualTo(Duration.ofSeconds(40));
+		CompletableFuture<OpenApiSnapshot> refreshed = new CompletableFuture<>();
+		snapshots.addListener(refreshed::complete);
+		Files.writeString(file, Files.readString(file).replace("/manual", "/changed"));
+		poller.poll(spec);
+		assertThat(poller.getInterval(spec)).isEqualTo(Duration.ofSeconds(10));
+		assertThat(refreshed.get(5, TimeUnit.SECONDS).getApi().getPaths()).containsKey("/changed");
+		snapshots.destroy();
+	}
+
+}
@@ -16,17 +16,53 @@
 package org.springframework.openapi.tests;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.openapi.aggregator.ConflictPolicy;
 import org.springframework.openapi.aggregator.OpenApiAggregator;
 import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs;
 import org.springframework.openapi.aggregator.OpenApiAggregatorSpecs.Spec;
+import org.springframework.openapi.aggregator.OpenApiSnapshot;
+import org.springframework.openapi.aggregator.OpenApiSnapshot.Collision;
+import org.springframework.openapi.aggregator.OperationFilter;
+import org.springframework.openapi.aggregator.SpecCache;
+import org.springframework.openapi.aggregator.SpecLimits;
+import org.springframework.util.StreamUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
 
 import io.swagger.v3.core.util.Json;
 import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.PathItem.HttpMethod;
+import io.swagger.v3.oas.models.Paths;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.media.Schema;
 import io.swagger.v3.parser.OpenAPIV3Parser;
@@ -74,6 +110,98 @@ public class OpenApiAggregatorTests {
 		assertThat(api.getInfo().getTitle()).isEqualTo("Test");
 	}
 
+	@Test
+	public void testItemProcessor() throws Exception {
+		List<String> titles = new ArrayList<>();
+		OpenApiAggregator aggregator = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(new Spec(new ClassPathResource("openapi.json")).prefix("/v1"))
+					.spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2"))
+					.itemProcessor((api, spec, item) -> {
+						assertThat(api.getPaths()).containsAllEntriesOf(item.getPaths());
+						titles.add(item.getInfo().getTitle());
+					}),
+				base);
+		aggregator.aggregate();
+		assertThat(titles).hasSize(2);
+	}
+
+	@Test
+	public void testSnapshotKeepsNoItems() throws Exception {
+		assertSnapshotKeepsNoItems(false);
+	}
+
+	@Test
+	public void testSnapshotKeepsNoItemsAfterParallelMerge() throws Exception {
+		assertSnapshotKeepsNoItems(true);
+	}
+
+	private void assertSnapshotKeepsNoItems(boolean parallel) throws Exception {
+		Set<Object> items = Collections.newSetFromMap(new IdentityHashMap<>());
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().parallel(parallel)
+			.spec(new Spec(new ClassPathResource("openapi.json")).prefix("/v1"))
+			.spec(new Spec(new ClassPathResource("posts.json")).prefix("/v2"))
+			.itemProcessor((api, spec, item) -> items.add(item));
+		assertThat(specs.isRetainItems()).isFalse();
+		OpenApiSnapshot snapshot = new OpenApiAggregator(specs, base).snapshot();
+		assertThat(items).hasSize(2);
+		// The merged paths and components live on, but not the (filtered) specs they came
+		// from, so each of those can be collected as soon as it is merged
+		assertThat(reachable(snapshot)).doesNotContainAnyElementsOf(items);
+	}
+
+	private static Set<Object> reachable(Object root) throws IllegalAccessException {
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Object> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Object object = stack.pop();
+			Class<?> type = object.getClass();
+			if (!seen.add(object) || type.isEnum()) {
+				continue;
+			}
+			if (object instanceof Map<?, ?> map) {
+				map.forEach((key, value) -> push(stack, key, value));
+			}
+			else if (object instanceof Iterable<?> iterable) {
+				iterable.forEach(value -> push(stack, value));
+			}
+			else if (type.getName().startsWith("org.springframework.openapi.")
+					|| type.getName().startsWith("io.swagger.")) {
+				// Only the models and the snapshot, not whatever they were loaded with
+				for (; type != Object.class; type = type.getSuperclass()) {
+					for (Field field : type.getDeclaredFields()) {
+						if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+							field.setAccessible(true);
+							push(stack, field.get(object));
+						}
+					}
+				}
+			}
+		}
+		return seen;
+	}
+
+	private static void push(Deque<Object> stack, Object... values) {
+		for (Object value : values) {
+			if (value != null) {
+				stack.push(value);
+			}
+		}
+	}
+
+	@Test
+	public void testProcessorRetainsItemsOnlyWhenNeeded() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")));
+		assertThat(specs.isRetainItems()).isFalse();
+		specs.processor((api, items) -> {
+			assertThat(items).hasSize(1);
+			return api;
+		});
+		assertThat(specs.isRetainItems()).isTrue();
+		new OpenApiAggregator(specs, base).aggregate();
+	}
+
 	@Test
 	public void testRequestBody() throws Exception {
 		OpenApiAggregator aggregator = new OpenApiAggregator(
@@ -227,4 +355,332 @@ public class OpenApiAggregatorTests {
 		assertThat(result.getMessages()).isEmpty();
 	}
 
+	@Test
+	public void testSelectOperations() throws Exception {
+		OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).select(new OperationFilter().excludeTags("generated"))
+				.prefix("/v1"))
+			.spec(new Spec(new ClassPathResource("openapi.json")).select(new OperationFilter().includePaths("/gen*"))
+				.prefix("/v2"))
+			.spec(new Spec(new ClassPathResource("posts.json"))
+				.select(new OperationFilter().includeMethods(HttpMethod.GET, HttpMethod.POST)
+					.excludeMethods(HttpMethod.POST))
+				.prefix("/v3")), base);
+		OpenAPI api = aggregator.aggregate();
+		assertThat(api.getPaths()).containsOnlyKeys("/v1/manual", "/v2/generated");
+	}
+
+	@Test
+	public void testSelectOperationsByExtension() throws Exception {
+		Operation internal = new Operation().operationId("b");
+		internal.addExtension("x-internal", true);
+		Operation hidden = new Operation().operationId("c");
+		hidden.addExtension("x-internal", true);
+		OpenAPI api = new OpenAPI().paths(
+				new Paths().addPathItem("/public", new PathItem().get(new Operation().operationId("a")).post(internal))
+					.addPathItem("/internal", new PathItem().get(hidden)));
+		new OperationFilter().excludeExtension("x-internal", true).apply(api);
+		assertThat(api.getPaths()).containsOnlyKeys("/public");
+		assertThat(api.getPaths().get("/public").readOperations()).hasSize(1);
+		api.getPaths().get("/public").getGet().addExtension("x-audience", "partner");
+		new OperationFilter().includeExtension("x-audience", null).apply(api);
+		assertThat(api.getPaths()).containsOnlyKeys("/public");
+		new OperationFilter().includeExtension("x-audience", "public").apply(api);
+		assertThat(api.getPaths()).isEmpty();
+	}
+
+	@Test
+	public void testCollisionsLastWins() throws Exception {
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(users("id", "getUser", "A").name("one"))
+					.spec(users("userId", "findUser", "B").name("two")),
+				base)
+			.snapshot();
+		// Paths that only differ in variable names are reported but both kept
+		assertThat(snapshot.getApi().getPaths()).containsOnlyKeys("/users/{id}", "/users/{userId}");
+		assertThat(snapshot.getApi().getComponents().getSchemas().get("User").getDescription()).isEqualTo("B");
+		assertThat(snapshot.getCollisions()).hasSize(2);
+		Collision collision = snapshot.getCollisions().get(0);
+		assertThat(collision.existing()).isEqualTo("/users/{id}");
+		assertThat(collision.key()).isEqualTo("/users/{userId}");
+		assertThat(collision.previous().name()).isEqualTo("one");
+		assertThat(collision.spec().name()).isEqualTo("two");
+		assertThat(snapshot.getContributions().values()).first().satisfies(contribution -> {
+			assertThat(contribution.paths()).containsExactly("/users/{id}");
+			assertThat(contribution.components()).isEmpty();
+		});
+	}
+
+	@Test
+	public void testCollisionsLastWinsReplacesExactPath() throws Exception {
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(users("id", "getUser", "A").name("one"))
+					.spec(users("id", "findUser", "B").name("two")),
+				base)
+			.snapshot();
+		assertThat(snapshot.getApi().getPaths()).containsOnlyKeys("/users/{id}");
+		assertThat(snapshot.getApi().getPaths().get("/users/{id}").getGet().getOperationId()).isEqualTo("findUser");
+		assertThat(snapshot.getContributions().values()).first().satisfies(contribution -> {
+			assertThat(contribution.paths()).isEmpty();
+			assertThat(contribution.components()).isEmpty();
+		});
+		assertThat(snapshot.getContributions().values()).last().satisfies(contribution -> {
+			assertThat(contribution.paths()).containsExactly("/users/{id}");
+			assertThat(contribution.components()).containsOnlyKeys("schemas");
+		});
+	}
+
+	@Test
+	public void testCollisionsFirstWins() throws Exception {
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().conflicts(ConflictPolicy.FIRST_WINS)
+					.spec(users("id", "getUser", "A"))
+					.spec(users("userId", "findUser", "B")),
+				base)
+			.snapshot();
+		assertThat(snapshot.getApi().getPaths()).containsOnlyKeys("/users/{id}");
+		assertThat(snapshot.getApi().getComponents().getSchemas().get("User").getDescription()).isEqualTo("A");
+		assertThat(snapshot.getContributions().values()).last().satisfies(contribution -> {
+			assertThat(contribution.paths()).isEmpty();
+			assertThat(contribution.components()).isEmpty();
+		});
+	}
+
+	@Test
+	public void testCollisionsFail() throws Exception {
+		OpenApiAggregator aggregator = new OpenApiAggregator(new OpenApiAggregatorSpecs().conflicts(ConflictPolicy.FAIL)
+			.spec(users("id", "getUser", "A"))
+			.spec(users("userId", "findUser", "B").name("two")), base);
+		assertThatThrownBy(aggregator::snapshot).isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("/users/{userId} from two");
+	}
+
+	@Test
+	public void testCollisionsMergeOperations() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().conflicts(ConflictPolicy.MERGE_OPERATIONS)
+			.spec(users("id", "getUser", "A"))
+			.spec(users("userId", "findUser", "B").filter(api -> {
+				PathItem item = api.getPaths().get("/users/{userId}");
+				item.setPost(item.getGet());
+				item.setGet(null);
+				return api;
+			}));
+		OpenAPI api = new OpenApiAggregator(specs, base).aggregate();
+		assertThat(api.getPaths()).containsOnlyKeys("/users/{id}");
+		PathItem item = api.getPaths().get("/users/{id}");
+		assertThat(item.getGet().getOperationId()).isEqualTo("getUser");
+		assertThat(item.getPost().getOperationId()).isEqualTo("findUser");
+		assertThat(item.getPost().getParameters().get(0).getName()).isEqualTo("id");
+	}
+
+	@Test
+	public void testCollisionsNamespace() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().conflicts(ConflictPolicy.NAMESPACE)
+			.spec(users("id", "getUser", "A"))
+			.spec(users("userId", "findUser", "B").name("two"));
+		OpenAPI api = new OpenApiAggregator(specs, base).aggregate();
+		assertThat(api.getPaths()).containsOnlyKeys("/users/{id}", "/two/users/{userId}");
+		assertThat(api.getComponents().getSchemas()).containsOnlyKeys("User", "two_User");
+		assertThat(api.getPaths()
+			.get("/two/users/{userId}")
+			.getGet()
+			.getResponses()
+			.get("200")
+			.getContent()
+			.get("application/json")
+			.getSchema()
+			.get$ref()).isEqualTo("#/components/schemas/two_User");
+	}
+
+	@Test
+	public void testParallelSameAsSequential() throws Exception {
+		OpenApiSnapshot sequential = new OpenApiAggregator(manyUsers(false), base).snapshot();
+		OpenApiSnapshot parallel = new OpenApiAggregator(manyUsers(true), base).snapshot();
+		assertThat(Json.mapper().writeValueAsString(parallel.getApi()))
+			.isEqualTo(Json.mapper().writeValueAsString(sequential.getApi()));
+		assertThat(parallel.getApi().getPaths().get("/users/{id}").getGet().getOperationId()).isEqualTo("getUser19");
+		assertThat(parallel.getCollisions()).extracting(Collision::getDescription)
+			.containsExactlyElementsOf(sequential.getCollisions().stream().map(Collision::getDescription).toList());
+		assertThat(parallel.getContributions().keySet()).extracting(Spec::name)
+			.containsExactlyElementsOf(sequential.getContributions().keySet().stream().map(Spec::name).toList());
+	}
+
+	private OpenApiAggregatorSpecs manyUsers(boolean parallel) {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().parallel(parallel);
+		for (int i = 0; i < 20; i++) {
+			specs.spec(users("id", "getUser" + i, "User " + i).name("users" + i));
+		}
+		return specs.spec(new Spec(new ClassPathResource("openapi.json")).prefix("/v1").name("v1"));
+	}
+
+	@Test
+	public void testLimitsRejectOnlyThatSpec() throws Exception {
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs()
+			.spec(new Spec(new ClassPathResource("openapi.json")).limits(SpecLimits.NONE.maxPaths(1)))
+			.spec(users("id", "getUser", "A"));
+		OpenApiSnapshot snapshot = new OpenApiAggregator(specs, base).snapshot();
+		assertThat(snapshot.getApi().getPaths()).containsOnlyKeys("/users/{id}");
+		assertThat(snapshot.getRejected()).hasSize(1);
+		assertThat(snapshot.getRejected().values().iterator().next()).contains("2 paths, more than 1");
+	}
+
+	@Test
+	public void testLimitsOnSize() throws Exception {
+		Spec spec = users("id", "getUser", "A");
+		OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().spec(spec.limits(SpecLimits.NONE.maxBytes(100)));
+		OpenApiSnapshot snapshot = new OpenApiAggregator(specs, base).snapshot();
+		assertThat(snapshot.getApi().getPaths()).isNullOrEmpty();
+		assertThat(snapshot.getRejected().values().iterator().next()).contains("more than 100 bytes");
+		specs = new OpenApiAggregatorSpecs().spec(spec.limits(SpecLimits.NONE.maxBytes(10_000).maxSchemas(1)));
+		assertThat(new OpenApiAggregator(specs, base).snapshot().getRejected()).isEmpty();
+	}
+
+	@Test
+	public void testLimitsOnCachedContent() throws Exception {
+		SpecCache cache = new SpecCache();
+		cache.setRevalidate(false);
+		Spec spec = users("id", "getUser", "A");
+		new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(spec), base, cache).snapshot();
+		// The same upstream is cached (and parsed) already, but without any limits
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(spec.limits(SpecLimits.NONE.maxPaths(0))), base, cache)
+			.snapshot();
+		assertThat(snapshot.getRejected().values().iterator().next()).contains("1 paths, more than 0");
+		snapshot = new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(spec.limits(SpecLimits.NONE.maxBytes(100))),
+				base, cache)
+			.snapshot();
+		assertThat(snapshot.getRejected().values().iterator().next()).contains("more than 100");
+		snapshot = new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(spec), base, cache).snapshot();
+		assertThat(snapshot.getRejected()).isEmpty();
+	}
+
+	@Test
+	public void testLimitsOnDepth() throws Exception {
+		Spec spec = deep(300);
+		OpenApiSnapshot snapshot = new OpenApiAggregator(
+				new OpenApiAggregatorSpecs().spec(spec.limits(SpecLimits.NONE.maxDepth(100))), base)
+			.snapshot();
+		assertThat(snapshot.getRejected().values().iterator().next()).contains("nesting deeper than 100");
+		// Without a limit the schema rewrite copes with any depth
+		OpenAPI api = new OpenApiAggregator(new OpenApiAggregatorSpecs().spec(spec.schemaPrefix("Deep")), base)
+			.aggregate();
+		Schema<?> schema = api.getComponents().getSchemas().get("DeepNode");
+		while (schema.getProperties() != null) {
+			schema = schema.getProperties().get("child");
+		}
+		assertThat(schema.get$ref()).isEqualTo("#/components/schemas/DeepLeaf");
+	}
+
+	@Test
+	public void testParallelFailureCancelsTheRest() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		byte[] body = StreamUtils.copyToByteArray(new ClassPathResource("openapi.json").getInputStream());
+		ExecutorService executor = Executors.newCachedThreadPool();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", exchange -> {
+			requests.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		try {
+			OpenApiAggregatorSpecs specs = new OpenApiAggregatorSpecs().parallel(true)
+				.spec(new Spec(new ByteArrayResource("not a spec".getBytes(StandardCharsets.UTF_8), "broken")));
+			// More specs than the pool can read at the same time
+			int count = Runtime.getRuntime().availableProcessors() * 4 + 10;
+			for (int i = 0; i < count; i++) {
+				specs.spec(new Spec("http://localhost:" + server.getAddress().getPort() + "/" + i + ".json")
+					.prefix("/v" + i));
+			}
+			assertThatThrownBy(() -> new OpenApiAggregator(specs, base).snapshot())
+				.isInstanceOf(IllegalStateException.class);
+			release.countDown();
+			Thread.sleep(1000);
+			assertThat(requests.get()).isLessThan(count);
+		}
+		finally {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSwagger2RelativeRefs(@TempDir Path dir) throws Exception {
+		Files.writeString(dir.resolve("models.json"), """
+				{ "definitions": { "Pet": { "type": "object", "properties": { "name": { "type": "string" } } } } }
+				""");
+		Files.writeString(dir.resolve("swagger.json"),
+				"""
+						{
+						  "swagger": "2.0",
+						  "info": { "title": "Pets", "version": "v1" },
+						  "paths": {
+						    "/pets": {
+						      "get": {
+						        "produces": [ "application/json" ],
+						        "responses": { "200": { "description": "OK", "schema": { "$ref": "models.json#/definitions/Pet" } } }
+						      }
+						    }
+						  }
+						}
+						""");
+		SpecCache cache = new SpecCache();
+		OpenAPI api = cache.read(new Spec(new FileSystemResource(dir.resolve("swagger.json"))));
+		assertThat(api.getComponents().getSchemas()).containsKey("Pet");
+		assertThat(api.getComponents().getSchemas().get("Pet").getProperties()).containsKey("name");
+	}
+
+	private Spec deep(int depth) {
+		StringBuilder schema = new StringBuilder("{ \"$ref\": \"#/components/schemas/Leaf\" }");
+		for (int i = 0; i < depth; i++) {
+			schema.insert(0, "{ \"type\": \"object\", \"properties\": { \"child\": ").append(" } }");
+		}
+		String json = """
+				{
+				  "openapi": "3.0.1",
+				  "info": { "title": "Deep", "version": "v1" },
+				  "paths": {},
+				  "components": { "schemas": { "Node": %s, "Leaf": { "type": "string" } } }
+				}
+				""".formatted(schema);
+		return new Spec(new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8), "deep"));
+	}
+
+	private Spec users(String variable, String operationId, String description) {
+		String json = """
+				{
+				  "openapi": "3.0.1",
+				  "info": { "title": "Users", "version": "v1" },
+				  "paths": {
+				    "/users/{%1$s}": {
+				      "get": {
+				        "operationId": "%2$s",
+				        "parameters": [ { "name": "%1$s", "in": "path", "required": true, "schema": { "type": "string" } } ],
+				        "responses": {
+				          "200": {
+				            "description": "OK",
+				            "content": { "application/json": { "schema": { "$ref": "#/components/schemas/User" } } }
+				          }
+				        }
+				      }
+				    }
+				  },
+				  "components": {
+				    "schemas": { "User": { "type": "object", "description": "%3$s" } }
+				  }
+				}
+				"""
+			.formatted(variable, operationId, description);
+		return new Spec(new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8), operationId));
+	}
+
 }
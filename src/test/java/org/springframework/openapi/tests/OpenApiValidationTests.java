@@ -16,13 +16,28 @@
 package org.springframework.openapi.tests;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.openapi.aggregator.OpenApiValidator;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.swagger.v3.core.util.Json;
+import io.swagger.v3.oas.models.Components;
 import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.media.ArraySchema;
+import io.swagger.v3.oas.models.media.Content;
+import io.swagger.v3.oas.models.media.MediaType;
+import io.swagger.v3.oas.models.media.ObjectSchema;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.oas.models.media.StringSchema;
+import io.swagger.v3.oas.models.responses.ApiResponse;
+import io.swagger.v3.oas.models.responses.ApiResponses;
 import io.swagger.v3.parser.OpenAPIV3Parser;
 import io.swagger.v3.parser.core.models.ParseOptions;
 import io.swagger.v3.parser.core.models.SwaggerParseResult;
@@ -73,4 +88,154 @@ public class OpenApiValidationTests {
 		assertThat(api.getMessages()).contains("attribute paths is missing");
 	}
 
+	@Test
+	public void testValidateModel() throws Exception {
+		OpenAPIV3Parser parser = new OpenAPIV3Parser();
+		OpenAPI api = parser.read("src/test/resources/links.json", null, new ParseOptions());
+		assertThat(new OpenApiValidator().validate(api)).isEmpty();
+		api.getComponents().getSchemas().clear();
+		assertThat(new OpenApiValidator().validate(api)).isNotEmpty().allMatch(problem -> problem.contains("$ref"));
+	}
+
+	@Test
+	public void testValidateModelInvalid() {
+		OpenAPI api = new OpenAPIV3Parser().readContents("""
+				{
+					"openapi": "3.0.1",
+					"info": { "title": "Test", "version": "1.0.0" },
+					"security": [ { "oauth": [] } ],
+					"paths": {
+						"/one": {
+							"get": {
+								"operationId": "same",
+								"responses": {
+									"200": {
+										"$ref": "#/components/responses/Missing"
+									}
+								}
+							}
+						},
+						"/two": {
+							"get": {
+								"operationId": "same",
+								"responses": {
+									"200": {
+										"description": "OK",
+										"links": {
+											"byId": { "operationId": "nothing" },
+											"byRef": { "operationRef": "#/paths/~1three/get" }
+										}
+									}
+								}
+							}
+						}
+					}
+				}
+				""", null, new ParseOptions()).getOpenAPI();
+		List<String> problems = new OpenApiValidator().validate(api);
+		assertThat(problems).hasSize(5);
+		assertThat(problems).anyMatch(problem -> problem.contains("unknown security scheme oauth"));
+		assertThat(problems).anyMatch(problem -> problem.contains("duplicate operationId same"));
+		assertThat(problems).anyMatch(problem -> problem.contains("dangling $ref #/components/responses/Missing"));
+		assertThat(problems).anyMatch(problem -> problem.contains("unknown operationId nothing"));
+		assertThat(problems).anyMatch(problem -> problem.contains("unknown operationRef #/paths/~1three/get"));
+		assertThatThrownBy(() -> new OpenApiValidator().check(api)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void testValidateEncodedOperationRef() {
+		OpenAPI api = new OpenAPIV3Parser().readContents("""
+				{
+					"openapi": "3.0.1",
+					"info": { "title": "Test", "version": "1.0.0" },
+					"paths": {
+						"/pets/{id}": {
+							"get": {
+								"responses": {
+									"200": {
+										"description": "OK",
+										"links": {
+											"escaped": { "operationRef": "#/paths/~1pets~1{id}/get" },
+											"encoded": { "operationRef": "#/paths/~1pets~1%7Bid%7D/get" },
+											"missing": { "operationRef": "#/paths/~1pets~1%7Bname%7D/get" }
+										}
+									}
+								}
+							}
+						}
+					}
+				}
+				""", null, new ParseOptions()).getOpenAPI();
+		assertThat(new OpenApiValidator().validate(api))
+			.containsExactly("/paths/~1pets~1{id}/get/responses/200/links/missing"
+					+ ": link to unknown operationRef #/paths/~1pets~1%7Bname%7D/get");
+	}
+
+	@Test
+	public void testValidateJsonSchemaKeywords() {
+		OpenAPI api = new OpenAPIV3Parser()
+			.readContents(
+					"""
+							{
+								"openapi": "3.1.0",
+								"info": { "title": "Test", "version": "1.0.0" },
+								"components": {
+									"schemas": {
+										"Pet": {
+											"type": "object",
+											"prefixItems": [ { "$ref": "#/components/schemas/Pet" }, { "$ref": "#/components/schemas/Tuple" } ],
+											"dependentSchemas": { "name": { "$ref": "#/components/schemas/Name" } },
+											"if": { "$ref": "#/components/schemas/Condition" },
+											"$defs": { "Tag": { "properties": { "value": { "$ref": "#/components/schemas/Value" } } } }
+										}
+									}
+								}
+							}
+							""",
+					null, new ParseOptions())
+			.getOpenAPI();
+		assertThat(new OpenApiValidator().validate(api)).containsExactlyInAnyOrder(
+				"/components/schemas/Pet/prefixItems/1: dangling $ref #/components/schemas/Tuple",
+				"/components/schemas/Pet/dependentSchemas/name: dangling $ref #/components/schemas/Name",
+				"/components/schemas/Pet/if: dangling $ref #/components/schemas/Condition",
+				"/components/schemas/Pet/$defs/Tag/properties/value: dangling $ref #/components/schemas/Value");
+	}
+
+	@Test
+	public void testValidateRefIntoComponent() {
+		OpenAPI api = new OpenAPI()
+			.components(new Components().addSchemas("Foo",
+					new ObjectSchema().addProperty("bar", new StringSchema()).addProperty("a/b", new StringSchema())))
+			.path("/foo",
+					new PathItem().get(new Operation().responses(new ApiResponses().addApiResponse("200",
+							new ApiResponse().description("OK")
+								.content(new Content().addMediaType("application/json",
+										new MediaType().schema(new ObjectSchema()
+											.addProperty("bar", ref("#/components/schemas/Foo/properties/bar"))
+											.addProperty("slash", ref("#/components/schemas/Foo/properties/a~1b"))
+											.addProperty("baz", ref("#/components/schemas/Foo/properties/baz")))))))));
+		assertThat(new OpenApiValidator().validate(api))
+			.containsExactly("/paths/~1foo/get/responses/200/content/application~1json/schema/properties/baz"
+					+ ": dangling $ref #/components/schemas/Foo/properties/baz");
+	}
+
+	@Test
+	public void testValidateDeepSchema() {
+		Schema<?> root = new ArraySchema();
+		Schema<?> schema = root;
+		for (int i = 0; i < 20_000; i++) {
+			Schema<?> items = new ArraySchema();
+			schema.setItems(items);
+			schema = items;
+		}
+		schema.setItems(ref("#/components/schemas/Missing"));
+		OpenAPI api = new OpenAPI().components(new Components().addSchemas("Deep", root));
+		assertThat(new OpenApiValidator().validate(api)).hasSize(1)
+			.allMatch(problem -> problem.endsWith("dangling $ref #/components/schemas/Missing"));
+	}
+
+	private static Schema<?> ref(String ref) {
+		return new Schema<>().$ref(ref);
+	}
+
 }